@@ -0,0 +1,77 @@
+package com.beoui.geocell.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.beoui.geocell.GeocellUtils;
+import com.beoui.geocell.model.Point;
+
+/**
+ * Benchmarks of the batch distance computations of GeocellUtils,
+ * against one GeocellUtils.distance call per point.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BatchDistancesBenchmark {
+
+    @Param({"1000", "100000"})
+    public int numPoints;
+
+    @Param({"10", "100"})
+    public int k;
+
+    private Point center;
+    private Point[] points;
+    private double[] lats;
+    private double[] lons;
+    private double[] distances;
+
+    @Setup
+    public void setUp() {
+        center = new Point(44.84, -0.58);
+        points = PointDistribution.CLUSTERED_CITIES.generate(numPoints, 42);
+        lats = new double[numPoints];
+        lons = new double[numPoints];
+        distances = new double[numPoints];
+        for(int i = 0; i < numPoints; i++) {
+            lats[i] = points[i].getLat();
+            lons[i] = points[i].getLon();
+        }
+    }
+
+    @Benchmark
+    public double[] distancePerPoint() {
+        for(int i = 0; i < numPoints; i++) {
+            distances[i] = GeocellUtils.distance(center, points[i]);
+        }
+        return distances;
+    }
+
+    @Benchmark
+    public double[] distances() {
+        GeocellUtils.distances(center, lats, lons, distances, numPoints);
+        return distances;
+    }
+
+    @Benchmark
+    public int[] nearest() {
+        return GeocellUtils.nearest(center, lats, lons, numPoints, k);
+    }
+
+}
@@ -0,0 +1,37 @@
+package com.beoui.geocell.benchmark;
+
+import java.util.List;
+
+import com.beoui.geocell.GeocellManager;
+import com.beoui.geocell.model.LocationCapable;
+import com.beoui.geocell.model.Point;
+
+/**
+ * Entity stored in the benchmark repositories.
+ *
+ */
+public class BenchmarkEntity implements LocationCapable {
+
+    private final String key;
+    private final Point location;
+    private final List<String> geocells;
+
+    public BenchmarkEntity(long id, Point location) {
+        this.key = Long.toString(id);
+        this.location = location;
+        this.geocells = GeocellManager.generateGeoCell(location);
+    }
+
+    public Point getLocation() {
+        return location;
+    }
+
+    public String getKeyString() {
+        return key;
+    }
+
+    public List<String> getGeocells() {
+        return geocells;
+    }
+
+}
@@ -0,0 +1,32 @@
+package com.beoui.geocell.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler, which reports the allocation
+ * rate (gc.alloc.rate.norm is the number of bytes allocated per operation).
+ *
+ * Accepts the usual JMH command line options, ex: "GeocellUtils -p resolution=13".
+ *
+ */
+public final class BenchmarkRunner {
+
+    private BenchmarkRunner() {
+        // no instantiation allowed
+    }
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+
+}
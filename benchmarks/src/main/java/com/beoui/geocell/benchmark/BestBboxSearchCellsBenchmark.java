@@ -0,0 +1,84 @@
+package com.beoui.geocell.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.beoui.geocell.GeocellLogger;
+import com.beoui.geocell.BboxSearchCellsCache;
+import com.beoui.geocell.GeocellManager;
+import com.beoui.geocell.model.BoundingBox;
+import com.beoui.geocell.model.Point;
+
+/**
+ * Benchmarks of GeocellManager.bestBboxSearchCells.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BestBboxSearchCellsBenchmark {
+
+    private static final int NUM_QUERIES = 256;
+
+    @Param({"UNIFORM", "CLUSTERED_CITIES", "POLAR", "ANTIMERIDIAN"})
+    public PointDistribution distribution;
+
+    // Size of the searched bounding boxes, in degrees.
+    @Param({"0.01", "1"})
+    public double boxSize;
+
+    private Point[] centers;
+    private BoundingBox[] boxes;
+    private int index;
+
+    // Large enough for all the queries: measures hits.
+    private final BboxSearchCellsCache cache = new BboxSearchCellsCache(16 * NUM_QUERIES);
+
+    @Setup
+    public void setUp() {
+        // Keep logging out of the measurements.
+        GeocellLogger.get().setLevel(Level.WARNING);
+
+        centers = distribution.generate(NUM_QUERIES, 43);
+        boxes = new BoundingBox[NUM_QUERIES];
+        for(int i = 0; i < NUM_QUERIES; i++) {
+            double north = Math.min(90, centers[i].getLat() + boxSize / 2);
+            double south = Math.max(-90, centers[i].getLat() - boxSize / 2);
+            double east = centers[i].getLon() + boxSize / 2;
+            double west = centers[i].getLon() - boxSize / 2;
+            boxes[i] = new BoundingBox(north, east > 180 ? east - 360 : east, south, west < -180 ? west + 360 : west);
+        }
+    }
+
+    private int next() {
+        index = (index + 1) & (NUM_QUERIES - 1);
+        return index;
+    }
+
+    @Benchmark
+    public List<String> bestBboxSearchCells() {
+        return GeocellManager.bestBboxSearchCells(boxes[next()], null);
+    }
+
+    @Benchmark
+    public List<String> bestBboxSearchCellsCached() {
+        return cache.bestBboxSearchCells(boxes[next()], null);
+    }
+
+}
@@ -0,0 +1,80 @@
+package com.beoui.geocell.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.beoui.geocell.model.CenteredHaversineDistanceFunction;
+import com.beoui.geocell.model.DefaultDistanceFunction;
+import com.beoui.geocell.model.DistanceFunction;
+import com.beoui.geocell.model.EquirectangularDistanceFunction;
+import com.beoui.geocell.model.HaversineDistanceFunction;
+import com.beoui.geocell.model.Point;
+
+/**
+ * Benchmarks of the distance functions, ranking points from a fixed center
+ * as proximityFetch does.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DistanceFunctionBenchmark {
+
+    private static final int NUM_POINTS = 1024;
+
+    @Param({"LAW_OF_COSINES", "HAVERSINE", "CENTERED_HAVERSINE", "EQUIRECTANGULAR"})
+    public String distanceFunctionType;
+
+    private Point center;
+    private Point[] points;
+    private DistanceFunction distanceFunction;
+    private int index;
+
+    @Setup
+    public void setUp() {
+        center = new Point(44.84, -0.58);
+        points = PointDistribution.CLUSTERED_CITIES.generate(NUM_POINTS, 42);
+        distanceFunction = newDistanceFunction(distanceFunctionType, center);
+    }
+
+    static DistanceFunction newDistanceFunction(String type, Point center) {
+        if("HAVERSINE".equals(type)) {
+            return new HaversineDistanceFunction();
+        } else if("CENTERED_HAVERSINE".equals(type)) {
+            return new CenteredHaversineDistanceFunction(center);
+        } else if("EQUIRECTANGULAR".equals(type)) {
+            return new EquirectangularDistanceFunction();
+        }
+        return new DefaultDistanceFunction();
+    }
+
+    private Point next() {
+        index = (index + 1) & (NUM_POINTS - 1);
+        return points[index];
+    }
+
+    @Benchmark
+    public double distance() {
+        return distanceFunction.distance(center, next());
+    }
+
+    @Benchmark
+    public double rank() {
+        return distanceFunction.rank(center, next());
+    }
+
+}
@@ -0,0 +1,95 @@
+package com.beoui.geocell.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.beoui.geocell.GeocellManager;
+import com.beoui.geocell.GeocellUtils;
+import com.beoui.geocell.model.Point;
+
+/**
+ * Compares the ways of computing the geocells of all resolutions of a point.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GenerateGeoCellBenchmark {
+
+    private static final int NUM_POINTS = 1024;
+
+    private Point[] points;
+    private int index;
+
+    private final List<String> reusedList = new ArrayList<String>(GeocellManager.MAX_GEOCELL_RESOLUTION);
+    private final char[] reusedChars = new char[GeocellManager.MAX_GEOCELL_RESOLUTION];
+    private final long[] reusedCells = new long[GeocellManager.MAX_GEOCELL_RESOLUTION];
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        points = new Point[NUM_POINTS];
+        for(int i = 0; i < NUM_POINTS; i++) {
+            points[i] = new Point(random.nextDouble() * 180 - 90, random.nextDouble() * 360 - 180);
+        }
+    }
+
+    private Point nextPoint() {
+        index = (index + 1) & (NUM_POINTS - 1);
+        return points[index];
+    }
+
+    /**
+     * One descent per resolution, as generateGeoCell used to do.
+     */
+    @Benchmark
+    public List<String> computePerResolution() {
+        Point point = nextPoint();
+        List<String> geocells = new ArrayList<String>();
+        for(int i = 1; i <= GeocellManager.MAX_GEOCELL_RESOLUTION; i++) {
+            geocells.add(GeocellUtils.compute(point, i));
+        }
+        return geocells;
+    }
+
+    @Benchmark
+    public List<String> generateGeoCell() {
+        return GeocellManager.generateGeoCell(nextPoint());
+    }
+
+    @Benchmark
+    public List<String> generateGeoCellReusedList() {
+        GeocellManager.generateGeoCell(nextPoint(), reusedList);
+        return reusedList;
+    }
+
+    @Benchmark
+    public void generateGeoCellChars(Blackhole blackhole) {
+        GeocellManager.generateGeoCell(nextPoint(), reusedChars);
+        blackhole.consume(reusedChars);
+    }
+
+    @Benchmark
+    public void generatePackedGeoCell(Blackhole blackhole) {
+        GeocellManager.generatePackedGeoCell(nextPoint(), reusedCells);
+        blackhole.consume(reusedCells);
+    }
+
+}
@@ -0,0 +1,132 @@
+package com.beoui.geocell.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.beoui.geocell.GeocellGeometryCache;
+import com.beoui.geocell.GeocellUtils;
+import com.beoui.geocell.model.BoundingBox;
+import com.beoui.geocell.model.MutableBoundingBox;
+import com.beoui.geocell.model.Point;
+
+/**
+ * Benchmarks of the GeocellUtils primitives, per resolution and point distribution.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GeocellUtilsBenchmark {
+
+    private static final int NUM_POINTS = 1024;
+
+    private static final int[] EAST = {1, 0};
+
+    @Param({"4", "8", "13"})
+    public int resolution;
+
+    @Param({"UNIFORM", "CLUSTERED_CITIES", "POLAR", "ANTIMERIDIAN"})
+    public PointDistribution distribution;
+
+    // Side of the interpolated boxes, in cells of the benchmarked resolution.
+    @Param({"4"})
+    public int boxCells;
+
+    private Point[] points;
+    private Point[] otherPoints;
+    private String[] cells;
+    private String[] cellsNE;
+    private int index;
+
+    private final MutableBoundingBox box = new MutableBoundingBox();
+    // Large enough for all the benchmarked cells.
+    private final GeocellGeometryCache geometryCache = new GeocellGeometryCache(4 * NUM_POINTS);
+
+    @Setup
+    public void setUp() {
+        points = distribution.generate(NUM_POINTS, 42);
+        otherPoints = distribution.generate(NUM_POINTS, 43);
+        cells = new String[NUM_POINTS];
+        cellsNE = new String[NUM_POINTS];
+        for(int i = 0; i < NUM_POINTS; i++) {
+            cells[i] = GeocellUtils.compute(points[i], resolution);
+            BoundingBox box = GeocellUtils.computeBox(cells[i]);
+            double north = Math.min(90, box.getSouth() + (box.getNorth() - box.getSouth()) * (boxCells - 0.5));
+            double east = box.getWest() + (box.getEast() - box.getWest()) * (boxCells - 0.5);
+            if(east > 180) {
+                east -= 360;
+            }
+            cellsNE[i] = GeocellUtils.compute(new Point(north, east), resolution);
+        }
+    }
+
+    private int next() {
+        index = (index + 1) & (NUM_POINTS - 1);
+        return index;
+    }
+
+    @Benchmark
+    public String compute() {
+        return GeocellUtils.compute(points[next()], resolution);
+    }
+
+    @Benchmark
+    public BoundingBox computeBox() {
+        return GeocellUtils.computeBox(cells[next()]);
+    }
+
+    @Benchmark
+    public BoundingBox computeBoxMutable() {
+        return GeocellUtils.computeBox(cells[next()], box);
+    }
+
+    @Benchmark
+    public BoundingBox computeBoxCached() {
+        return geometryCache.computeBox(cells[next()]);
+    }
+
+    @Benchmark
+    public String adjacent() {
+        return GeocellUtils.adjacent(cells[next()], EAST);
+    }
+
+    @Benchmark
+    public List<String> interpolate() {
+        int i = next();
+        return GeocellUtils.interpolate(cellsNE[i], cells[i]);
+    }
+
+    @Benchmark
+    public int interpolationCount() {
+        int i = next();
+        return GeocellUtils.interpolationCount(cellsNE[i], cells[i]);
+    }
+
+    @Benchmark
+    public double distance() {
+        int i = next();
+        return GeocellUtils.distance(points[i], otherPoints[i]);
+    }
+
+    @Benchmark
+    public double pointDistance() {
+        int i = next();
+        return GeocellUtils.pointDistance(cells[i], otherPoints[i]);
+    }
+
+}
@@ -0,0 +1,52 @@
+package com.beoui.geocell.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.beoui.geocell.LocationCapableRepositorySearch;
+import com.beoui.geocell.model.LocationCapable;
+
+/**
+ * Repository answering geocell queries from a map, like a datastore
+ * with an index on the geocells column would, but without any I/O.
+ *
+ */
+public class InMemoryRepositorySearch<T extends LocationCapable> implements LocationCapableRepositorySearch<T> {
+
+    private final Map<String, List<T>> entitiesByGeocell = new HashMap<String, List<T>>();
+
+    public InMemoryRepositorySearch(Iterable<T> entities) {
+        for(T entity : entities) {
+            for(String geocell : entity.getGeocells()) {
+                List<T> list = entitiesByGeocell.get(geocell);
+                if(list == null) {
+                    list = new ArrayList<T>();
+                    entitiesByGeocell.put(geocell, list);
+                }
+                list.add(entity);
+            }
+        }
+    }
+
+    public List<T> search(List<String> geocells) {
+        if(geocells.size() == 1) {
+            List<T> list = entitiesByGeocell.get(geocells.get(0));
+            return list == null ? Collections.<T>emptyList() : new ArrayList<T>(list);
+        }
+        // Cells of different resolutions may overlap, each entity is returned once.
+        Set<T> result = Collections.newSetFromMap(new IdentityHashMap<T, Boolean>());
+        for(String geocell : geocells) {
+            List<T> list = entitiesByGeocell.get(geocell);
+            if(list != null) {
+                result.addAll(list);
+            }
+        }
+        return new ArrayList<T>(result);
+    }
+
+}
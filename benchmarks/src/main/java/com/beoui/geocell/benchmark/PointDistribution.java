@@ -0,0 +1,81 @@
+package com.beoui.geocell.benchmark;
+
+import java.util.Random;
+
+import com.beoui.geocell.model.Point;
+
+/**
+ * Geographic distributions of the points used in benchmarks.
+ *
+ */
+public enum PointDistribution {
+
+    /**
+     * Uniform in latitude/longitude over the whole earth.
+     */
+    UNIFORM {
+        @Override
+        Point next(Random random) {
+            return new Point(random.nextDouble() * 180 - 90, random.nextDouble() * 360 - 180);
+        }
+    },
+
+    /**
+     * Gaussian clusters around a few big cities, ~10km wide.
+     */
+    CLUSTERED_CITIES {
+        @Override
+        Point next(Random random) {
+            double[] city = CITIES[random.nextInt(CITIES.length)];
+            return new Point(clamp(city[0] + random.nextGaussian() * 0.1, 90), clamp(city[1] + random.nextGaussian() * 0.1, 180));
+        }
+    },
+
+    /**
+     * Close to the poles, where cells are thin and adjacent cells may not exist.
+     */
+    POLAR {
+        @Override
+        Point next(Random random) {
+            double lat = 80 + random.nextDouble() * 10;
+            return new Point(random.nextBoolean() ? lat : -lat, random.nextDouble() * 360 - 180);
+        }
+    },
+
+    /**
+     * Close to the antimeridian, where boxes and adjacent cells wrap around.
+     */
+    ANTIMERIDIAN {
+        @Override
+        Point next(Random random) {
+            double lon = 179 + random.nextDouble();
+            return new Point(random.nextDouble() * 120 - 60, random.nextBoolean() ? lon : -lon);
+        }
+    };
+
+    // Paris, New York, Tokyo, Sao Paulo, Sydney, Lagos, Mumbai, Bordeaux
+    private static final double[][] CITIES = {
+        {48.8566, 2.3522}, {40.7128, -74.0060}, {35.6762, 139.6503}, {-23.5505, -46.6333},
+        {-33.8688, 151.2093}, {6.5244, 3.3792}, {19.0760, 72.8777}, {44.8378, -0.5792}};
+
+    abstract Point next(Random random);
+
+    /**
+     * @param n number of points
+     * @param seed seed of the generator, so that runs are comparable
+     * @return n points following this distribution
+     */
+    public Point[] generate(int n, long seed) {
+        Random random = new Random(seed);
+        Point[] points = new Point[n];
+        for(int i = 0; i < n; i++) {
+            points[i] = next(random);
+        }
+        return points;
+    }
+
+    private static double clamp(double value, double max) {
+        return Math.max(-max, Math.min(max, value));
+    }
+
+}
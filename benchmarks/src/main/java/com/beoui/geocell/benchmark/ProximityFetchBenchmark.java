@@ -0,0 +1,100 @@
+package com.beoui.geocell.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.beoui.geocell.GeocellLogger;
+import com.beoui.geocell.GeocellManager;
+import com.beoui.geocell.InMemoryGeocellIndex;
+import com.beoui.geocell.LocationCapableRepositorySearch;
+import com.beoui.geocell.model.Point;
+
+/**
+ * Benchmarks of GeocellManager.proximityFetch.
+ *
+ * Queries run against an in-memory repository holding numEntities
+ * entities of the benchmarked distribution, so only the algorithm is measured.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ProximityFetchBenchmark {
+
+    private static final int NUM_QUERIES = 256;
+
+    @Param({"UNIFORM", "CLUSTERED_CITIES", "POLAR", "ANTIMERIDIAN"})
+    public PointDistribution distribution;
+
+    // Number of entities in the repository (data density).
+    @Param({"10000", "100000"})
+    public int numEntities;
+
+    @Param({"10", "100"})
+    public int maxResults;
+
+    // MAP: geocell -> entities map, INDEX: InMemoryGeocellIndex.
+    @Param({"MAP", "INDEX"})
+    public String repositoryType;
+
+    // See DistanceFunctionBenchmark.
+    @Param({"LAW_OF_COSINES"})
+    public String distanceFunctionType;
+
+    private Point[] centers;
+    private LocationCapableRepositorySearch<BenchmarkEntity> repository;
+    private int index;
+
+    @Setup
+    public void setUp() {
+        // Keep logging out of the measurements.
+        GeocellLogger.get().setLevel(Level.WARNING);
+
+        Point[] locations = distribution.generate(numEntities, 42);
+        List<BenchmarkEntity> entities = new ArrayList<BenchmarkEntity>(numEntities);
+        for(int i = 0; i < numEntities; i++) {
+            entities.add(new BenchmarkEntity(i, locations[i]));
+        }
+        if("INDEX".equals(repositoryType)) {
+            InMemoryGeocellIndex<BenchmarkEntity> index = new InMemoryGeocellIndex<BenchmarkEntity>();
+            for(BenchmarkEntity entity : entities) {
+                index.put(entity);
+            }
+            repository = index;
+        } else {
+            repository = new InMemoryRepositorySearch<BenchmarkEntity>(entities);
+        }
+
+        centers = distribution.generate(NUM_QUERIES, 43);
+    }
+
+    private int next() {
+        index = (index + 1) & (NUM_QUERIES - 1);
+        return index;
+    }
+
+    @Benchmark
+    public List<BenchmarkEntity> proximityFetch() {
+        Point center = centers[next()];
+        return GeocellManager.proximityFetch(center, maxResults, 0, repository, GeocellManager.MAX_GEOCELL_RESOLUTION,
+                DistanceFunctionBenchmark.newDistanceFunction(distanceFunctionType, center));
+    }
+
+}
@@ -0,0 +1,22 @@
+package com.beoui.geocell;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import com.beoui.geocell.model.LocationCapable;
+
+/**
+ * Asynchronous version of {@link LocationCapableRepositorySearch}, for repositories with
+ * a high latency per query that can run many queries in parallel.
+ *
+ * @see GeocellManager#proximityFetchAsync(com.beoui.geocell.model.Point, int, double, AsyncLocationCapableRepositorySearch, int)
+ */
+public interface AsyncLocationCapableRepositorySearch<T extends LocationCapable> {
+
+	/**
+	 * @param geocells cells to search
+	 * @return a future completed with the entities located in any of the given geocells.
+	 */
+	CompletableFuture<List<T>> searchAsync(List<String> geocells);
+
+}
@@ -0,0 +1,163 @@
+/*
+Copyright 2010 Alexandre Gellibert
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.apache.org/licenses/
+LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing permissions
+and limitations under the License.
+*/
+
+package com.beoui.geocell;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import com.beoui.geocell.model.DistanceFunction;
+import com.beoui.geocell.model.LocationCapable;
+import com.beoui.geocell.model.Point;
+
+/**
+ * Same algorithm as {@link GeocellManager#proximityFetch(Point, int, double, LocationCapableRepositorySearch, int)},
+ * on an asynchronous repository:
+ * - the cells of an iteration are searched concurrently, one lookup per cell,
+ * - while they are running, the cells of the next iteration are already looked up.
+ *
+ * The next iteration depends on whether any entity has been found. Until then,
+ * the current cells are guessed empty too and the parent cells are prefetched.
+ * Lookups of cells that are finally not searched are cancelled at the end.
+ *
+ * Iterations run one after the other, so the state needs no synchronization.
+ * The statistics are reported to the metrics listener by the thread completing the last
+ * lookup; the repository time of an iteration is the wait for all of its lookups.
+ *
+ */
+final class AsyncProximityFetch<T extends LocationCapable> {
+
+    private final Point center;
+    private final int maxResults;
+    private final double maxDistance;
+    private final AsyncLocationCapableRepositorySearch<T> repositorySearch;
+    private final DistanceFunction distanceFunction;
+
+    private final ProximityResultHeap<T> results;
+    private final ProximitySearchPlanner planner;
+    private final Set<String> searchedCells = new HashSet<String>();
+
+    // Lookups issued ahead of their iteration.
+    private final Map<String, CompletableFuture<List<T>>> prefetchedCells = new HashMap<String, CompletableFuture<List<T>>>();
+
+    // Only measured if someone listens.
+    private final GeocellMetricsListener listener = GeocellManager.getMetricsListener();
+    private final ProximityFetchStats stats = listener == GeocellMetricsListener.NO_OP ? null : new ProximityFetchStats();
+    private final long startNanos = stats == null ? 0 : System.nanoTime();
+    private ProximityFetchStats.TerminationReason terminationReason = ProximityFetchStats.TerminationReason.ENOUGH_RESULTS;
+
+    AsyncProximityFetch(Point center, int maxResults, double maxDistance, AsyncLocationCapableRepositorySearch<T> repositorySearch, int maxGeocellResolution, DistanceFunction distanceFunction) {
+        this.center = center;
+        this.maxResults = maxResults;
+        this.maxDistance = maxDistance;
+        this.repositorySearch = repositorySearch;
+        this.distanceFunction = distanceFunction;
+        this.results = new ProximityResultHeap<T>(maxResults);
+        this.planner = new ProximitySearchPlanner(center, maxGeocellResolution, maxDistance);
+    }
+
+    CompletableFuture<List<T>> run() {
+        return iterate()
+                .thenApply(done -> sortedEntities())
+                .whenComplete((entities, error) -> cancelPrefetchedCells());
+    }
+
+    private List<T> sortedEntities() {
+        if(stats == null) {
+            return GeocellManager.sortedEntities(results, maxDistance, distanceFunction);
+        }
+        long sortNanos = System.nanoTime();
+        List<T> sortedResults = GeocellManager.sortedEntities(results, maxDistance, distanceFunction);
+        long endNanos = System.nanoTime();
+        stats.done(terminationReason, sortedResults.size(), endNanos - sortNanos, endNanos - startNanos);
+        listener.proximityFetch(stats);
+        return sortedResults;
+    }
+
+    private CompletableFuture<Void> iterate() {
+        if(maxDistance > 0 && planner.closestPossibleNextResultDist() > maxDistance) {
+            terminationReason = ProximityFetchStats.TerminationReason.MAX_DISTANCE;
+            return CompletableFuture.completedFuture(null);
+        }
+
+        final long searchNanos = stats == null ? 0 : System.nanoTime();
+        final List<CompletableFuture<List<T>>> lookups = new ArrayList<CompletableFuture<List<T>>>();
+        for(String cell : planner.getGeocells()) {
+            if(searchedCells.add(cell)) {
+                lookups.add(lookup(cell));
+            }
+        }
+        prefetchNextCells();
+
+        return CompletableFuture.allOf(lookups.toArray(new CompletableFuture<?>[lookups.size()])).thenCompose(allDone -> {
+            long mergeNanos = stats == null ? 0 : System.nanoTime();
+            int fetched = 0;
+            for(CompletableFuture<List<T>> lookup : lookups) {
+                List<T> entities = lookup.join();
+                fetched += entities.size();
+                for(T entity : entities) {
+                    results.offer(entity, distanceFunction.rank(center, entity.getLocation()));
+                }
+            }
+            if(stats != null) {
+                stats.repositorySearch(lookups.size(), planner.getResolution(), fetched, mergeNanos - searchNanos);
+                stats.merged(System.nanoTime() - mergeNanos);
+            }
+
+            if(!planner.advance(results.size() > 0)) {
+                terminationReason = ProximityFetchStats.TerminationReason.NO_MORE_CELLS;
+                return CompletableFuture.completedFuture(null);  // Done with search, we've searched everywhere.
+            }
+            // Search more if we don't have enough items yet or if the next cells can have closer items.
+            if(results.size() < maxResults || planner.closestPossibleNextResultDist() < distanceFunction.toDistance(results.farthestDistance())) {
+                return iterate();
+            }
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    private void prefetchNextCells() {
+        ProximitySearchPlanner nextPlanner = planner.copy();
+        if(!nextPlanner.advance(results.size() > 0)) {
+            return;
+        }
+        for(String cell : nextPlanner.getGeocells()) {
+            if(!searchedCells.contains(cell) && !prefetchedCells.containsKey(cell)) {
+                prefetchedCells.put(cell, search(cell));
+            }
+        }
+    }
+
+    private CompletableFuture<List<T>> lookup(String cell) {
+        CompletableFuture<List<T>> prefetched = prefetchedCells.remove(cell);
+        return prefetched != null ? prefetched : search(cell);
+    }
+
+    private CompletableFuture<List<T>> search(String cell) {
+        return repositorySearch.searchAsync(Collections.singletonList(cell));
+    }
+
+    private void cancelPrefetchedCells() {
+        for(CompletableFuture<List<T>> prefetched : prefetchedCells.values()) {
+            prefetched.cancel(false);
+        }
+        prefetchedCells.clear();
+    }
+
+}
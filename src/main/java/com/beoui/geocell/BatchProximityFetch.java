@@ -0,0 +1,235 @@
+/*
+Copyright 2010 Alexandre Gellibert
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.apache.org/licenses/
+LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing permissions
+and limitations under the License.
+*/
+
+package com.beoui.geocell;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.logging.Logger;
+
+import com.beoui.geocell.model.DistanceFunction;
+import com.beoui.geocell.model.LocationCapable;
+import com.beoui.geocell.model.ProximityQuery;
+
+/**
+ * Same algorithm as {@link GeocellManager#proximityFetch(com.beoui.geocell.model.Point, int, double, LocationCapableRepositorySearch, int, DistanceFunction)}
+ * for many queries at once, sharing the cells they search.
+ *
+ * Queries advance together: each round, the cells wanted by all the queries are fetched
+ * with a single repository search, then each query takes the entities of its own cells.
+ * A cell is fetched only once, and never if one of its ancestors has already been fetched:
+ * its entities are then filtered out of the ancestor ones.
+ *
+ * Queries only move to coarser cells, so the entities of a fetched cell are dropped as soon
+ * as no active query searches cells of its resolution or finer.
+ *
+ */
+final class BatchProximityFetch<T extends LocationCapable> {
+
+    private static final Logger logger = GeocellLogger.get();
+
+    private final LocationCapableRepositorySearch<T> repositorySearch;
+    private final DistanceFunction distanceFunction;
+    private final List<Search> searches = new ArrayList<Search>();
+
+    // Entities of the fetched cells, by resolution and packed geocell.
+    private final List<Map<Long, FetchedCell<T>>> fetchedCells = new ArrayList<Map<Long, FetchedCell<T>>>();
+
+    private QueryTrace trace;
+
+    BatchProximityFetch(List<ProximityQuery> queries, LocationCapableRepositorySearch<T> repositorySearch, int maxGeocellResolution, DistanceFunction distanceFunction) {
+        this.repositorySearch = repositorySearch;
+        this.distanceFunction = distanceFunction;
+        for(ProximityQuery query : queries) {
+            searches.add(new Search(query, maxGeocellResolution));
+        }
+        for(int resolution = 0; resolution <= PackedGeocellUtils.MAX_RESOLUTION; resolution++) {
+            fetchedCells.add(new HashMap<Long, FetchedCell<T>>());
+        }
+    }
+
+    List<List<T>> run() {
+        trace = QueryTrace.start(logger, "batchProximityFetch");
+        List<Search> activeSearches = new ArrayList<Search>(searches);
+        while(!activeSearches.isEmpty()) {
+            for(Iterator<Search> it = activeSearches.iterator(); it.hasNext();) {
+                if(!it.next().wantsCells()) {
+                    it.remove();
+                }
+            }
+            fetchMissingCells(activeSearches);
+            for(Iterator<Search> it = activeSearches.iterator(); it.hasNext();) {
+                if(!it.next().searchCells()) {
+                    it.remove();
+                }
+            }
+            releaseCells(activeSearches);
+        }
+        if(trace != null) {
+            trace.end();
+        }
+        List<List<T>> results = new ArrayList<List<T>>(searches.size());
+        for(Search search : searches) {
+            results.add(GeocellManager.sortedEntities(search.results, search.query.getMaxDistance(), distanceFunction));
+        }
+        return results;
+    }
+
+    private void fetchMissingCells(List<Search> activeSearches) {
+        // Sorted, so that ancestors come before their descendants.
+        TreeSet<Long> missingCells = new TreeSet<Long>();
+        for(Search search : activeSearches) {
+            for(long cell : search.curGeocells()) {
+                if(fetchedAncestor(cell) == PackedGeocellUtils.NO_CELL) {
+                    missingCells.add(cell);
+                }
+            }
+        }
+        if(missingCells.isEmpty()) {
+            return;
+        }
+        Set<Long> newCells = new HashSet<Long>();
+        List<String> geocells = new ArrayList<String>();
+        boolean[] resolutions = new boolean[PackedGeocellUtils.MAX_RESOLUTION + 1];
+        for(long cell : missingCells) {
+            if(fetchedAncestor(cell) == PackedGeocellUtils.NO_CELL) {
+                fetchedCells.get(PackedGeocellUtils.resolution(cell)).put(cell, new FetchedCell<T>());
+                newCells.add(cell);
+                geocells.add(PackedGeocellUtils.unpack(cell));
+                resolutions[PackedGeocellUtils.resolution(cell)] = true;
+            }
+        }
+
+        List<T> entities = repositorySearch.search(geocells);
+        if(trace != null) {
+            trace.log("fetch complete for " + geocells.size() + " cells");
+        }
+
+        for(T entity : entities) {
+            long entityCell = PackedGeocellUtils.compute(entity.getLocation(), PackedGeocellUtils.MAX_RESOLUTION);
+            for(int resolution = 0; resolution <= PackedGeocellUtils.MAX_RESOLUTION; resolution++) {
+                if(resolutions[resolution]) {
+                    long cell = PackedGeocellUtils.parent(entityCell, resolution);
+                    if(newCells.contains(cell)) {
+                        fetchedCells.get(resolution).get(cell).add(entity, entityCell);
+                    }
+                }
+            }
+        }
+    }
+
+    // Drops the cells finer than the cells of all the active searches: they can't be searched anymore.
+    private void releaseCells(List<Search> activeSearches) {
+        int maxResolution = 0;
+        for(Search search : activeSearches) {
+            maxResolution = Math.max(maxResolution, search.planner.getResolution());
+        }
+        for(int resolution = maxResolution + 1; resolution <= PackedGeocellUtils.MAX_RESOLUTION; resolution++) {
+            fetchedCells.get(resolution).clear();
+        }
+    }
+
+    // The cell or its closest fetched ancestor, NO_CELL if none has been fetched.
+    private long fetchedAncestor(long cell) {
+        for(int resolution = PackedGeocellUtils.resolution(cell); resolution >= 0; resolution--) {
+            long ancestor = PackedGeocellUtils.parent(cell, resolution);
+            if(fetchedCells.get(resolution).containsKey(ancestor)) {
+                return ancestor;
+            }
+        }
+        return PackedGeocellUtils.NO_CELL;
+    }
+
+    private List<T> entities(long cell) {
+        long ancestor = fetchedAncestor(cell);
+        FetchedCell<T> fetched = fetchedCells.get(PackedGeocellUtils.resolution(ancestor)).get(ancestor);
+        if(ancestor == cell) {
+            return fetched.entities;
+        }
+        List<T> entities = new ArrayList<T>();
+        int resolution = PackedGeocellUtils.resolution(cell);
+        for(int i = 0; i < fetched.entities.size(); i++) {
+            if(PackedGeocellUtils.parent(fetched.cells[i], resolution) == cell) {
+                entities.add(fetched.entities.get(i));
+            }
+        }
+        return entities;
+    }
+
+    private static final class FetchedCell<T> {
+
+        private final List<T> entities = new ArrayList<T>();
+        // Packed geocell of max resolution of each entity.
+        private long[] cells = new long[8];
+
+        private void add(T entity, long cell) {
+            if(entities.size() == cells.length) {
+                cells = Arrays.copyOf(cells, 2 * cells.length);
+            }
+            cells[entities.size()] = cell;
+            entities.add(entity);
+        }
+    }
+
+    // State of one query, advanced like proximityFetch.
+    private final class Search {
+
+        private final ProximityQuery query;
+        private final ProximityResultHeap<T> results;
+        private final ProximitySearchPlanner planner;
+
+        private Search(ProximityQuery query, int maxGeocellResolution) {
+            this.query = query;
+            this.results = new ProximityResultHeap<T>(query.getMaxResults());
+            this.planner = new ProximitySearchPlanner(query.getCenter(), maxGeocellResolution, query.getMaxDistance());
+        }
+
+        private boolean wantsCells() {
+            return query.getMaxDistance() <= 0 || planner.closestPossibleNextResultDist() <= query.getMaxDistance();
+        }
+
+        private List<Long> curGeocells() {
+            List<String> geocells = planner.getGeocells();
+            List<Long> cells = new ArrayList<Long>(geocells.size());
+            for(String geocell : geocells) {
+                cells.add(PackedGeocellUtils.pack(geocell));
+            }
+            return cells;
+        }
+
+        // Searches the current cells, once fetched. Returns false if the search is over.
+        private boolean searchCells() {
+            for(long cell : curGeocells()) {
+                for(T entity : entities(cell)) {
+                    results.offer(entity, distanceFunction.rank(query.getCenter(), entity.getLocation()));
+                }
+            }
+            if(!planner.advance(results.size() > 0)) {
+                return false;  // Done with search, we've searched everywhere.
+            }
+            if(results.size() < query.getMaxResults()) {
+                return true;
+            }
+            // Search more if the next cells can have closer items.
+            return planner.closestPossibleNextResultDist() < distanceFunction.toDistance(results.farthestDistance());
+        }
+    }
+
+}
@@ -0,0 +1,155 @@
+/*
+Copyright 2010 Alexandre Gellibert
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.apache.org/licenses/
+LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing permissions
+and limitations under the License.
+*/
+
+package com.beoui.geocell;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.beoui.geocell.model.BoundingBox;
+import com.beoui.geocell.model.CellCostFunction;
+import com.beoui.geocell.model.CostFunction;
+import com.beoui.geocell.model.Tuple;
+
+/**
+ * Caching facade of {@link GeocellManager#bestBboxSearchCells(BoundingBox, CostFunction)}, for
+ * applications sending many slightly different boxes, like map viewports.
+ *
+ * bestBboxSearchCells stops at the resolution where the cost starts rising, so its result only
+ * depends on the cells containing the corners of the box at that resolution. Results are cached
+ * under these corner cells and the cost function: any box whose corners snap to the same cells
+ * gets the cached result, the same one bestBboxSearchCells would return.
+ *
+ * Cost functions are compared with equals: use the same instance for all the queries.
+ * Results of a {@link CellCostFunction} are not cached.
+ * When the cache is full, the least recently used results are evicted. Only the computed
+ * results are reported to the metrics listener and traced, like bestBboxSearchCells calls.
+ *
+ */
+public class BboxSearchCellsCache {
+
+    private final SegmentedLruCache<Key, List<String>> cache;
+
+    /**
+     * @param maxSize maximum number of results kept, must be > 0.
+     */
+    public BboxSearchCellsCache(int maxSize) {
+        this.cache = new SegmentedLruCache<Key, List<String>>(maxSize);
+    }
+
+    /**
+     * Same as {@link GeocellManager#bestBboxSearchCells(BoundingBox, CostFunction)}, from the cache if possible.
+     *
+     * @return A new list of geocell strings that contain the given box.
+     */
+    public List<String> bestBboxSearchCells(BoundingBox bbox, CostFunction costFunction) {
+        if(costFunction instanceof CellCostFunction) {
+            // The cost of the cells may have changed since they were cached.
+            return GeocellManager.bestBboxSearchCells(bbox, costFunction);
+        }
+        long cellNE = PackedGeocellUtils.compute(bbox.getNorthEast(), GeocellManager.MAX_GEOCELL_RESOLUTION);
+        long cellSW = PackedGeocellUtils.compute(bbox.getSouthWest(), GeocellManager.MAX_GEOCELL_RESOLUTION);
+
+        // Snaps the corners at each resolution, the result is cached at a single one.
+        for(int resolution = 1; resolution <= GeocellManager.MAX_GEOCELL_RESOLUTION; resolution++) {
+            List<String> cells = cache.peek(new Key(PackedGeocellUtils.parent(cellNE, resolution), PackedGeocellUtils.parent(cellSW, resolution), costFunction));
+            if(cells != null) {
+                cache.hit();
+                return new ArrayList<String>(cells);
+            }
+        }
+        cache.miss();
+
+        Tuple<List<String>, Integer> result = GeocellManager.bestBboxSearchCells(bbox, PackedGeocellUtils.unpack(cellNE), PackedGeocellUtils.unpack(cellSW), costFunction);
+        int resolution = result.getSecond();
+        if(resolution > 0) {
+            cache.put(new Key(PackedGeocellUtils.parent(cellNE, resolution), PackedGeocellUtils.parent(cellSW, resolution), costFunction),
+                    Collections.unmodifiableList(new ArrayList<String>(result.getFirst())));
+        }
+        return result.getFirst();
+    }
+
+    /**
+     * @return the number of results in the cache.
+     */
+    public int size() {
+        return cache.size();
+    }
+
+    /**
+     * Removes all the results of the cache. Metrics are not reset.
+     */
+    public void clear() {
+        cache.clear();
+    }
+
+    /**
+     * @return the number of queries answered from the cache.
+     */
+    public long getHitCount() {
+        return cache.getHitCount();
+    }
+
+    /**
+     * @return the number of queries computed because they were not in the cache.
+     */
+    public long getMissCount() {
+        return cache.getMissCount();
+    }
+
+    /**
+     * @return the number of results evicted because the cache was full.
+     */
+    public long getEvictionCount() {
+        return cache.getEvictionCount();
+    }
+
+    /**
+     * @return the ratio of queries answered from the cache, 0 if there was no query.
+     */
+    public double getHitRatio() {
+        return cache.getHitRatio();
+    }
+
+    private static final class Key {
+
+        private final long cellNE;
+        private final long cellSW;
+        private final CostFunction costFunction;
+
+        Key(long cellNE, long cellSW, CostFunction costFunction) {
+            this.cellNE = cellNE;
+            this.cellSW = cellSW;
+            this.costFunction = costFunction;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if(!(obj instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) obj;
+            return cellNE == key.cellNE && cellSW == key.cellSW
+                    && (costFunction == null ? key.costFunction == null : costFunction.equals(key.costFunction));
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = (int) (cellNE ^ cellNE >>> 32);
+            hash = 31 * hash + (int) (cellSW ^ cellSW >>> 32);
+            return 31 * hash + (costFunction == null ? 0 : costFunction.hashCode());
+        }
+    }
+
+}
@@ -0,0 +1,62 @@
+/*
+Copyright 2010 Alexandre Gellibert
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.apache.org/licenses/
+LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing permissions
+and limitations under the License.
+*/
+
+package com.beoui.geocell;
+
+/**
+ * Statistics of a bestBboxSearchCells call, see {@link GeocellMetricsListener}.
+ *
+ */
+public final class BboxSearchStats {
+
+    private final int resolutionsEvaluated;
+    private final int resolution;
+    private final int numCells;
+    private final long nanos;
+
+    BboxSearchStats(int resolutionsEvaluated, int resolution, int numCells, long nanos) {
+        this.resolutionsEvaluated = resolutionsEvaluated;
+        this.resolution = resolution;
+        this.numCells = numCells;
+        this.nanos = nanos;
+    }
+
+    /**
+     * @return the number of resolutions whose cells were computed.
+     */
+    public int getResolutionsEvaluated() {
+        return resolutionsEvaluated;
+    }
+
+    /**
+     * @return the resolution of the cells returned.
+     */
+    public int getResolution() {
+        return resolution;
+    }
+
+    /**
+     * @return the number of cells returned.
+     */
+    public int getNumCells() {
+        return numCells;
+    }
+
+    /**
+     * @return the duration of the call, in nanoseconds.
+     */
+    public long getNanos() {
+        return nanos;
+    }
+
+}
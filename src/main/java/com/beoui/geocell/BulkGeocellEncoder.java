@@ -0,0 +1,194 @@
+/*
+Copyright 2010 Alexandre Gellibert
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.apache.org/licenses/
+LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing permissions
+and limitations under the License.
+*/
+
+package com.beoui.geocell;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.Stream;
+
+import org.apache.commons.lang.Validate;
+
+import com.beoui.geocell.model.LocationCapable;
+import com.beoui.geocell.model.Point;
+
+/**
+ * Computes the geocells of many locations at once, for ingest pipelines and backfills.
+ *
+ * Locations are encoded in parallel on a fork-join pool, into {@link GeocellColumns}
+ * (one array of packed geocells per resolution) instead of a List of Strings per entity.
+ *
+ * Streams of entities are read by batches: while a batch is encoded on the pool, the previous
+ * one is handed to the sink on the calling thread. The next batch is only read once the sink
+ * returns, so a slow writer slows down reading and at most two batches are in memory.
+ *
+ */
+public class BulkGeocellEncoder {
+
+    public static final int DEFAULT_BATCH_SIZE = 1 << 16;
+
+    // Locations encoded by a single task.
+    private static final int SPLIT_THRESHOLD = 4096;
+
+    private final ForkJoinPool pool;
+    private final int batchSize;
+
+    /**
+     * Sink of encoded batches, ex: a batch writer.
+     *
+     * @param <T> type of the entities
+     */
+    public interface Sink<T> {
+
+        /**
+         * Called on the thread running the encoding, in the order of the input.
+         *
+         * @param entities entities of the batch.
+         * @param geocells geocells of the entities, index i being the geocells of entities.get(i).
+         */
+        void accept(List<T> entities, GeocellColumns geocells);
+
+    }
+
+    /**
+     * Encoder using the common fork-join pool and batches of DEFAULT_BATCH_SIZE entities.
+     */
+    public BulkGeocellEncoder() {
+        this(ForkJoinPool.commonPool(), DEFAULT_BATCH_SIZE);
+    }
+
+    public BulkGeocellEncoder(ForkJoinPool pool, int batchSize) {
+        Validate.notNull(pool);
+        Validate.isTrue(batchSize > 0, "Batch size must be positive: ", batchSize);
+        this.pool = pool;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Computes the geocells of the given coordinates.
+     *
+     * @param lats latitudes of the locations.
+     * @param lons longitudes of the locations, same length as lats.
+     * @return the geocells of the locations.
+     */
+    public GeocellColumns encode(double[] lats, double[] lons) {
+        Validate.isTrue(lats.length == lons.length, "Latitudes and longitudes must have the same length");
+        GeocellColumns geocells = new GeocellColumns(lats.length);
+        pool.invoke(new EncodeTask(geocells, lats, lons, 0, lats.length));
+        return geocells;
+    }
+
+    /**
+     * Computes the geocells of all the entities, by batches handed to the sink.
+     *
+     * @param entities entities to encode, only read from the calling thread.
+     * @param sink receives the batches in order, on the calling thread.
+     * @return the number of entities encoded.
+     */
+    public <T extends LocationCapable> long encode(Iterator<? extends T> entities, Sink<T> sink) {
+        Validate.notNull(entities);
+        Validate.notNull(sink);
+        long count = 0;
+        Batch<T> previous = null;
+        while(entities.hasNext()) {
+            Batch<T> batch = readBatch(entities);
+            batch.task = pool.submit(new EncodeTask(batch.geocells, batch.lats, batch.lons, 0, batch.entities.size()));
+            if(previous != null) {
+                count += flush(previous, sink);
+            }
+            previous = batch;
+        }
+        if(previous != null) {
+            count += flush(previous, sink);
+        }
+        return count;
+    }
+
+    /**
+     * See {@link #encode(Iterator, Sink)}.
+     */
+    public <T extends LocationCapable> long encode(Stream<? extends T> entities, Sink<T> sink) {
+        return encode(entities.iterator(), sink);
+    }
+
+    private <T extends LocationCapable> Batch<T> readBatch(Iterator<? extends T> entities) {
+        Batch<T> batch = new Batch<T>(batchSize);
+        int i = 0;
+        while(i < batchSize && entities.hasNext()) {
+            T entity = entities.next();
+            Point location = entity.getLocation();
+            batch.entities.add(entity);
+            batch.lats[i] = location.getLat();
+            batch.lons[i] = location.getLon();
+            i++;
+        }
+        batch.geocells = new GeocellColumns(i);
+        return batch;
+    }
+
+    private static <T> int flush(Batch<T> batch, Sink<T> sink) {
+        batch.task.join();
+        sink.accept(batch.entities, batch.geocells);
+        return batch.entities.size();
+    }
+
+    private static final class Batch<T> {
+
+        private final List<T> entities;
+        private final double[] lats;
+        private final double[] lons;
+        private GeocellColumns geocells;
+        private ForkJoinTask<?> task;
+
+        private Batch(int capacity) {
+            this.entities = new ArrayList<T>(capacity);
+            this.lats = new double[capacity];
+            this.lons = new double[capacity];
+        }
+    }
+
+    private static final class EncodeTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final GeocellColumns geocells;
+        private final double[] lats;
+        private final double[] lons;
+        private final int from;
+        private final int to;
+
+        private EncodeTask(GeocellColumns geocells, double[] lats, double[] lons, int from, int to) {
+            this.geocells = geocells;
+            this.lats = lats;
+            this.lons = lons;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if(to - from <= SPLIT_THRESHOLD) {
+                geocells.encode(lats, lons, from, to);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new EncodeTask(geocells, lats, lons, from, middle),
+                    new EncodeTask(geocells, lats, lons, middle, to));
+        }
+    }
+
+}
@@ -0,0 +1,157 @@
+/*
+Copyright 2010 Alexandre Gellibert
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.apache.org/licenses/
+LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing permissions
+and limitations under the License.
+*/
+
+package com.beoui.geocell;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * Rectangle of geocells of the same resolution, between a Southwest and a Northeast cell:
+ * the grid of {@link GeocellUtils#interpolate(String, String)}.
+ *
+ * The corners are converted once to integer (x, y) coordinates in the 4^resolution x 4^resolution
+ * grid (see {@link PackedGeocellUtils}), then cells are enumerated arithmetically: rows from
+ * south to north, each row from west to east. Like interpolate:
+ * - if the Northeast cell is west of the Southwest cell, rows cross the 180th meridian,
+ * - if the Northeast cell is south of the Southwest cell, columns stop at the north pole.
+ *
+ */
+public final class CellGrid {
+
+    private final int resolution;
+    private final int gridMask;
+    private final int xSW;
+    private final int ySW;
+    private final int numCols;
+    private final int numRows;
+
+    private CellGrid(int resolution, int xSW, int ySW, int xNE, int yNE) {
+        this.resolution = resolution;
+        this.gridMask = (1 << (2 * resolution)) - 1;
+        this.xSW = xSW;
+        this.ySW = ySW;
+        this.numCols = ((xNE - xSW) & gridMask) + 1;
+        // Stop at the north pole if NE is actually south of SW.
+        this.numRows = yNE >= ySW ? yNE - ySW + 1 : gridMask + 1 - ySW;
+    }
+
+    /**
+     * @param cellNE: The Northeast packed geocell.
+     * @param cellSW: The Southwest packed geocell, same resolution as cellNE.
+     * @return the grid of cells between the two cells.
+     */
+    public static CellGrid between(long cellNE, long cellSW) {
+        int resolution = PackedGeocellUtils.resolution(cellSW);
+        Validate.isTrue(PackedGeocellUtils.resolution(cellNE) == resolution, "Cells must have the same resolution");
+        return new CellGrid(resolution, PackedGeocellUtils.x(cellSW), PackedGeocellUtils.y(cellSW), PackedGeocellUtils.x(cellNE), PackedGeocellUtils.y(cellNE));
+    }
+
+    /**
+     * @param cellNE: The Northeast geocell string.
+     * @param cellSW: The Southwest geocell string, same resolution as cellNE.
+     * @return the grid of cells between the two cells.
+     */
+    public static CellGrid between(String cellNE, String cellSW) {
+        return between(PackedGeocellUtils.pack(cellNE), PackedGeocellUtils.pack(cellSW));
+    }
+
+    public int getResolution() {
+        return resolution;
+    }
+
+    public int getNumCols() {
+        return numCols;
+    }
+
+    public int getNumRows() {
+        return numRows;
+    }
+
+    /**
+     * @return the exact number of cells in the grid.
+     */
+    public long size() {
+        return (long) numCols * numRows;
+    }
+
+    /**
+     * @param row row in the grid, 0 being the southmost row.
+     * @param col column in the grid, 0 being the westmost column.
+     * @return the packed geocell at this position.
+     */
+    public long cell(int row, int col) {
+        return PackedGeocellUtils.fromXY((xSW + col) & gridMask, ySW + row, resolution);
+    }
+
+    /**
+     * @return the packed geocells of the grid, rows from south to north.
+     */
+    public long[] toArray() {
+        Validate.isTrue(size() <= Integer.MAX_VALUE, "Grid too large: ", size());
+        long[] cells = new long[(int) size()];
+        int i = 0;
+        for(int row = 0; row < numRows; row++) {
+            for(int col = 0; col < numCols; col++) {
+                cells[i++] = cell(row, col);
+            }
+        }
+        return cells;
+    }
+
+    /**
+     * @return the geocell strings of the grid, rows from south to north.
+     */
+    public List<String> toGeocells() {
+        Validate.isTrue(size() <= Integer.MAX_VALUE, "Grid too large: ", size());
+        List<String> cells = new ArrayList<String>((int) size());
+        for(int row = 0; row < numRows; row++) {
+            for(int col = 0; col < numCols; col++) {
+                cells.add(PackedGeocellUtils.unpack(cell(row, col)));
+            }
+        }
+        return cells;
+    }
+
+    /**
+     * @return a lazy iterator over the packed geocells of the grid, rows from south to north.
+     */
+    public PrimitiveIterator.OfLong iterator() {
+        return new PrimitiveIterator.OfLong() {
+
+            private int row;
+            private int col;
+
+            public boolean hasNext() {
+                return row < numRows;
+            }
+
+            public long nextLong() {
+                if(row >= numRows) {
+                    throw new NoSuchElementException();
+                }
+                long cell = cell(row, col);
+                if(++col == numCols) {
+                    col = 0;
+                    row++;
+                }
+                return cell;
+            }
+        };
+    }
+
+}
@@ -0,0 +1,128 @@
+/*
+Copyright 2010 Alexandre Gellibert
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.apache.org/licenses/
+LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing permissions
+and limitations under the License.
+*/
+
+package com.beoui.geocell;
+
+import org.apache.commons.lang.Validate;
+
+import com.beoui.geocell.model.CellCostFunction;
+import com.beoui.geocell.model.Point;
+
+/**
+ * Cost function estimating the work of the repository from the density of entities:
+ * the number of entities read, estimated with a {@link GeocellHistogram}, plus an overhead
+ * per searched cell and per query, expressed in entities read.
+ *
+ * With skewed data, dense areas are searched with fine cells and sparse ones with coarse cells,
+ * where {@link com.beoui.geocell.model.DefaultCostFunction} always allows 16 cells.
+ *
+ */
+public class DensityCostFunction implements CellCostFunction {
+
+    public static final double DEFAULT_CELL_COST = 50;
+    public static final double DEFAULT_QUERY_COST = 200;
+
+    private final GeocellHistogram histogram;
+    private final double cellCost;
+    private final double queryCost;
+
+    /**
+     * Cost function with the default overheads.
+     */
+    public DensityCostFunction(GeocellHistogram histogram) {
+        this(histogram, DEFAULT_CELL_COST, DEFAULT_QUERY_COST);
+    }
+
+    /**
+     * @param histogram entity counts, kept up to date by the application.
+     * @param cellCost overhead of searching one more cell, in entities read.
+     * @param queryCost overhead of one query to the repository, in entities read.
+     */
+    public DensityCostFunction(GeocellHistogram histogram, double cellCost, double queryCost) {
+        Validate.notNull(histogram);
+        Validate.isTrue(cellCost >= 0, "cellCost must be >= 0: ", cellCost);
+        Validate.isTrue(queryCost >= 0, "queryCost must be >= 0: ", queryCost);
+        this.histogram = histogram;
+        this.cellCost = cellCost;
+        this.queryCost = queryCost;
+    }
+
+    public GeocellHistogram getHistogram() {
+        return histogram;
+    }
+
+    /**
+     * Entities read in the cells, plus the overhead of the cells.
+     */
+    @Override
+    public double cellCostFunction(long[] cells, int resolution) {
+        return histogram.estimate(cells) + cellCost * cells.length;
+    }
+
+    /**
+     * Without the cells, only their overhead is known.
+     */
+    @Override
+    public double defaultCostFunction(int numCells, int resolution) {
+        return cellCost * numCells;
+    }
+
+    /**
+     * Chooses the resolution at which a proximity fetch starts (its maxGeocellResolution).
+     *
+     * The fetch searches cells around the center, from the starting resolution to coarser ones,
+     * one query each, until it finds maxResults entities. Starting too fine costs queries in
+     * nearly empty cells, starting too coarse reads too many entities. The cost of each starting
+     * resolution is estimated from the cells containing the center, and the cheapest one is chosen.
+     *
+     * @param center center of the proximity fetch.
+     * @param maxResults maximum number of results of the fetch.
+     * @param maxResolution finest resolution allowed, at most MAX_GEOCELL_RESOLUTION.
+     * @return the starting resolution, between 1 and maxResolution.
+     */
+    public int proximityStartResolution(Point center, int maxResults, int maxResolution) {
+        Validate.isTrue(maxResolution >= 1 && maxResolution <= GeocellManager.MAX_GEOCELL_RESOLUTION, "Invalid resolution: ", maxResolution);
+        long cellMax = PackedGeocellUtils.compute(center, GeocellManager.MAX_GEOCELL_RESOLUTION);
+        // Cost of searching the cell of each resolution, index being the resolution.
+        double[] searchCosts = new double[maxResolution + 1];
+        // Finest resolution whose cell is expected to hold maxResults entities.
+        int enoughResolution = 1;
+        for(int resolution = 1; resolution <= maxResolution; resolution++) {
+            double entities = histogram.estimate(PackedGeocellUtils.parent(cellMax, resolution));
+            searchCosts[resolution] = entities + cellCost + queryCost;
+            if(entities >= maxResults) {
+                enoughResolution = resolution;
+            }
+        }
+        int bestResolution = 1;
+        double minCost = Double.MAX_VALUE;
+        double costToEnough = 0;
+        for(int resolution = 1; resolution <= maxResolution; resolution++) {
+            double cost;
+            if(resolution <= enoughResolution) {
+                // Enough entities in the first cell.
+                cost = searchCosts[resolution];
+            } else {
+                // Then coarser and coarser cells until enoughResolution.
+                costToEnough += searchCosts[resolution];
+                cost = costToEnough + searchCosts[enoughResolution];
+            }
+            if(cost <= minCost) {
+                minCost = cost;
+                bestResolution = resolution;
+            }
+        }
+        return bestResolution;
+    }
+
+}
@@ -0,0 +1,239 @@
+/*
+Copyright 2010 Alexandre Gellibert
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.apache.org/licenses/
+LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing permissions
+and limitations under the License.
+*/
+
+package com.beoui.geocell;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.apache.commons.lang.Validate;
+
+import com.beoui.geocell.model.LocationCapable;
+import com.beoui.geocell.model.MutableBoundingBox;
+
+/**
+ * Finds all the pairs of entities of two collections that are within a given distance.
+ *
+ * Both sides are bucketed by packed geocell (see {@link PackedGeocellUtils}), at the finest
+ * resolution whose cells are taller than the distance. An entity on the left can then only
+ * match entities of its row and of the adjacent rows, in the columns close enough at its
+ * latitude: the adjacent ones (like {@link GeocellUtils#allAdjacents(String)}) at moderate
+ * latitudes, more towards the poles, where cells get narrow.
+ *
+ * Left buckets are joined in parallel on a fork-join pool, and pairs are streamed to a sink.
+ *
+ */
+public class DistanceJoin {
+
+    // More columns on each side than in any row.
+    private static final int FULL_ROW = 1 << 28;
+
+    // Left buckets joined by a single task.
+    private static final int SPLIT_THRESHOLD = 16;
+
+    private final ForkJoinPool pool;
+
+    /**
+     * Receives the pairs found by the join. Called concurrently from the threads of the pool.
+     *
+     * @param <L> type of the left entities
+     * @param <R> type of the right entities
+     */
+    public interface Sink<L, R> {
+
+        /**
+         * @param left entity of the left collection.
+         * @param right entity of the right collection.
+         * @param distance distance between the two entities, in meters.
+         */
+        void accept(L left, R right, double distance);
+
+    }
+
+    /**
+     * Join running on the common fork-join pool.
+     */
+    public DistanceJoin() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public DistanceJoin(ForkJoinPool pool) {
+        Validate.notNull(pool);
+        this.pool = pool;
+    }
+
+    /**
+     * Streams to the sink every pair (left, right) whose distance is at most maxDistance.
+     *
+     * @param left entities of the left side.
+     * @param right entities of the right side.
+     * @param maxDistance distance in meters, > 0.
+     * @param sink receives the pairs, must be thread-safe.
+     */
+    public <L extends LocationCapable, R extends LocationCapable> void join(Collection<L> left, Collection<R> right, double maxDistance, Sink<? super L, ? super R> sink) {
+        Validate.isTrue(maxDistance > 0, "maxDistance must be > 0: ", maxDistance);
+        Validate.notNull(sink);
+        double angle = Math.toDegrees(maxDistance / GeocellUtils.RADIUS);
+        int resolution = resolution(angle);
+        // Both points of a pair can be outside of the boxes of their cells.
+        double maxAngle = angle + 2 * PackedGeocellUtils.cellBoundaryError(resolution);
+        Map<Long, List<L>> leftBuckets = buckets(left, resolution);
+        Map<Long, List<R>> rightBuckets = buckets(right, resolution);
+        if(leftBuckets.isEmpty() || rightBuckets.isEmpty()) {
+            return;
+        }
+        long[] leftCells = new long[leftBuckets.size()];
+        int i = 0;
+        for(long cell : leftBuckets.keySet()) {
+            leftCells[i++] = cell;
+        }
+        pool.invoke(new JoinTask<L, R>(new Join<L, R>(leftBuckets, rightBuckets, maxDistance, maxAngle, sink), leftCells, 0, leftCells.length));
+    }
+
+    // The finest resolution whose cells are at least angle degrees tall, plus the boundary errors.
+    private static int resolution(double angle) {
+        int resolution = 0;
+        while(resolution < PackedGeocellUtils.MAX_RESOLUTION
+                && 180.0 / (1 << 2 * (resolution + 1)) >= angle + 2 * PackedGeocellUtils.cellBoundaryError(resolution + 1)) {
+            resolution++;
+        }
+        return resolution;
+    }
+
+    private static <T extends LocationCapable> Map<Long, List<T>> buckets(Collection<T> entities, int resolution) {
+        Map<Long, List<T>> buckets = new HashMap<Long, List<T>>();
+        for(T entity : entities) {
+            long cell = PackedGeocellUtils.compute(entity.getLocation(), resolution);
+            List<T> bucket = buckets.get(cell);
+            if(bucket == null) {
+                bucket = new ArrayList<T>();
+                buckets.put(cell, bucket);
+            }
+            bucket.add(entity);
+        }
+        return buckets;
+    }
+
+    private static final class Join<L extends LocationCapable, R extends LocationCapable> {
+
+        private final Map<Long, List<L>> leftBuckets;
+        private final Map<Long, List<R>> rightBuckets;
+        private final double maxDistance;
+        private final double maxAngle;
+        private final Sink<? super L, ? super R> sink;
+
+        private Join(Map<Long, List<L>> leftBuckets, Map<Long, List<R>> rightBuckets, double maxDistance, double maxAngle, Sink<? super L, ? super R> sink) {
+            this.leftBuckets = leftBuckets;
+            this.rightBuckets = rightBuckets;
+            this.maxDistance = maxDistance;
+            this.maxAngle = maxAngle;
+            this.sink = sink;
+        }
+
+        private void joinBucket(long cell, MutableBoundingBox box) {
+            List<L> lefts = leftBuckets.get(cell);
+            int resolution = PackedGeocellUtils.resolution(cell);
+            int gridSize = 1 << 2 * resolution;
+            int x = PackedGeocellUtils.x(cell);
+            int y = PackedGeocellUtils.y(cell);
+            int columns = columns(PackedGeocellUtils.computeBox(cell, box));
+            int firstColumn = x - columns;
+            int lastColumn = x + columns;
+            if(2 * columns + 1 >= gridSize) {
+                // The whole row, each column once.
+                firstColumn = 0;
+                lastColumn = gridSize - 1;
+            }
+            for(int row = Math.max(y - 1, 0); row <= Math.min(y + 1, gridSize - 1); row++) {
+                for(int column = firstColumn; column <= lastColumn; column++) {
+                    // Horizontal wrapping on the antimeridian.
+                    List<R> rights = rightBuckets.get(PackedGeocellUtils.fromXY(column & (gridSize - 1), row, resolution));
+                    if(rights != null) {
+                        joinEntities(lefts, rights);
+                    }
+                }
+            }
+        }
+
+        /*
+         * Number of columns on each side of the cell that can hold a match: from latitude lat,
+         * points within an angle d are at most asin(sin(d) / cos(lat)) away in longitude.
+         * Always at least 1, the cell's own adjacent columns, FULL_ROW if all of them can.
+         */
+        private int columns(MutableBoundingBox box) {
+            double lat = Math.max(Math.abs(box.getNorth()), Math.abs(box.getSouth())) + maxAngle;
+            if(lat >= 90) {
+                return FULL_ROW;
+            }
+            double sinLonDelta = Math.sin(Math.toRadians(maxAngle)) / Math.cos(Math.toRadians(lat));
+            if(sinLonDelta >= 1) {
+                return FULL_ROW;
+            }
+            double lonDelta = Math.toDegrees(Math.asin(sinLonDelta));
+            double cellLonSpan = box.getEast() - box.getWest();
+            return (int) Math.min(Math.max(Math.ceil(lonDelta / cellLonSpan), 1), FULL_ROW);
+        }
+
+        private void joinEntities(List<L> lefts, List<R> rights) {
+            for(L left : lefts) {
+                for(R right : rights) {
+                    double distance = GeocellUtils.distance(left.getLocation(), right.getLocation());
+                    // acos of the law of cosines is not defined for rounding errors on identical points.
+                    if(Double.isNaN(distance)) {
+                        distance = 0;
+                    }
+                    if(distance <= maxDistance) {
+                        sink.accept(left, right, distance);
+                    }
+                }
+            }
+        }
+    }
+
+    private static final class JoinTask<L extends LocationCapable, R extends LocationCapable> extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Join<L, R> join;
+        private final long[] leftCells;
+        private final int from;
+        private final int to;
+
+        private JoinTask(Join<L, R> join, long[] leftCells, int from, int to) {
+            this.join = join;
+            this.leftCells = leftCells;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if(to - from <= SPLIT_THRESHOLD) {
+                MutableBoundingBox box = new MutableBoundingBox();
+                for(int i = from; i < to; i++) {
+                    join.joinBucket(leftCells[i], box);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new JoinTask<L, R>(join, leftCells, from, middle),
+                    new JoinTask<L, R>(join, leftCells, middle, to));
+        }
+    }
+
+}
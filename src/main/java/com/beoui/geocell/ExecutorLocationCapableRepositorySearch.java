@@ -0,0 +1,69 @@
+package com.beoui.geocell;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang.Validate;
+
+import com.beoui.geocell.model.LocationCapable;
+
+/**
+ * Runs the queries of a blocking {@link LocationCapableRepositorySearch} on an executor,
+ * so that they can be issued concurrently.
+ *
+ * The delegate must be thread-safe (ex: one PersistenceManager per query, not a shared one).
+ *
+ */
+public class ExecutorLocationCapableRepositorySearch<T extends LocationCapable> implements
+		AsyncLocationCapableRepositorySearch<T> {
+
+	private final LocationCapableRepositorySearch<T> delegate;
+	private final Executor executor;
+
+	public ExecutorLocationCapableRepositorySearch(LocationCapableRepositorySearch<T> delegate, Executor executor) {
+		Validate.notNull(delegate);
+		Validate.notNull(executor);
+		this.delegate = delegate;
+		this.executor = executor;
+	}
+
+	@Override
+	public CompletableFuture<List<T>> searchAsync(final List<String> geocells) {
+		return CompletableFuture.supplyAsync(() -> delegate.search(geocells), executor);
+	}
+
+	/**
+	 * Executor starting a virtual thread per query when the JVM supports them (Java 21+),
+	 * which suits blocking repositories. Otherwise, a cached pool of daemon threads.
+	 *
+	 * @return a new executor, to shut down by the caller.
+	 */
+	public static ExecutorService newVirtualThreadExecutor() {
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		} catch (ReflectiveOperationException e) {
+			GeocellLogger.get().fine("Virtual threads not available, using a cached thread pool");
+			return Executors.newCachedThreadPool(new DaemonThreadFactory());
+		}
+	}
+
+	private static final class DaemonThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "geocell-search-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+
+}
@@ -0,0 +1,121 @@
+/*
+Copyright 2010 Alexandre Gellibert
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.apache.org/licenses/
+LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing permissions
+and limitations under the License.
+*/
+
+package com.beoui.geocell;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.apache.commons.lang.Validate;
+
+import com.beoui.geocell.model.LocationCapable;
+import com.beoui.geocell.model.Point;
+
+/**
+ * Loads entities into a datastore in geocell order, for better index locality than arrival order.
+ *
+ * Entities are read into a sort buffer, whose geocells are computed in parallel by a
+ * {@link BulkGeocellEncoder}. The buffer is then sorted by geocell of max resolution (a Z-order
+ * curve: entities close in this order are close on the map) and written to the sink by batches.
+ * Each sort buffer is written in order, entities of different buffers are not mixed.
+ *
+ */
+public class GeocellBulkLoader {
+
+    public static final int DEFAULT_SORT_BUFFER_SIZE = 1 << 20;
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    private final BulkGeocellEncoder encoder;
+    private final int sortBufferSize;
+    private final int batchSize;
+
+    /**
+     * Loader sorting DEFAULT_SORT_BUFFER_SIZE entities at once and writing batches of DEFAULT_BATCH_SIZE.
+     */
+    public GeocellBulkLoader() {
+        this(new BulkGeocellEncoder(), DEFAULT_SORT_BUFFER_SIZE, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * @param encoder encoder computing the geocells.
+     * @param sortBufferSize number of entities sorted together, > 0. The larger, the better the locality.
+     * @param batchSize number of entities written to the sink at once, > 0.
+     */
+    public GeocellBulkLoader(BulkGeocellEncoder encoder, int sortBufferSize, int batchSize) {
+        Validate.notNull(encoder);
+        Validate.isTrue(sortBufferSize > 0, "Sort buffer size must be positive: ", sortBufferSize);
+        Validate.isTrue(batchSize > 0, "Batch size must be positive: ", batchSize);
+        this.encoder = encoder;
+        this.sortBufferSize = sortBufferSize;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Writes all the entities to the sink, sorted by geocell within each sort buffer.
+     *
+     * @param entities entities to load, only read from the calling thread.
+     * @param sink receives the batches, on the calling thread.
+     * @return the number of entities loaded.
+     */
+    public <T extends LocationCapable> long load(Iterator<? extends T> entities, BulkGeocellEncoder.Sink<T> sink) {
+        Validate.notNull(entities);
+        Validate.notNull(sink);
+        long count = 0;
+        List<T> buffer = new ArrayList<T>(Math.min(sortBufferSize, DEFAULT_SORT_BUFFER_SIZE));
+        while(entities.hasNext()) {
+            buffer.clear();
+            while(buffer.size() < sortBufferSize && entities.hasNext()) {
+                buffer.add(entities.next());
+            }
+            writeSorted(buffer, sink);
+            count += buffer.size();
+        }
+        return count;
+    }
+
+    /**
+     * See {@link #load(Iterator, BulkGeocellEncoder.Sink)}.
+     */
+    public <T extends LocationCapable> long load(Stream<? extends T> entities, BulkGeocellEncoder.Sink<T> sink) {
+        return load(entities.iterator(), sink);
+    }
+
+    private <T extends LocationCapable> void writeSorted(List<T> buffer, BulkGeocellEncoder.Sink<T> sink) {
+        int size = buffer.size();
+        double[] lats = new double[size];
+        double[] lons = new double[size];
+        for(int i = 0; i < size; i++) {
+            Point location = buffer.get(i).getLocation();
+            lats[i] = location.getLat();
+            lons[i] = location.getLon();
+        }
+        GeocellColumns geocells = encoder.encode(lats, lons);
+
+        // Packed geocells sort like geocell strings, ties keep the arrival order.
+        int[] order = PackedGeocellUtils.sortedOrder(geocells.getCells(GeocellManager.MAX_GEOCELL_RESOLUTION), size);
+
+        int[] rows = new int[Math.min(batchSize, size)];
+        for(int from = 0; from < size; from += batchSize) {
+            int to = Math.min(from + batchSize, size);
+            List<T> batch = new ArrayList<T>(to - from);
+            for(int i = from; i < to; i++) {
+                rows[i - from] = order[i];
+                batch.add(buffer.get(order[i]));
+            }
+            sink.accept(batch, geocells.select(rows, to - from));
+        }
+    }
+
+}
@@ -0,0 +1,114 @@
+/*
+Copyright 2010 Alexandre Gellibert
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.apache.org/licenses/
+LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing permissions
+and limitations under the License.
+*/
+
+package com.beoui.geocell;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * Geocells of a batch of locations in columnar form: one array of packed geocells
+ * (see {@link PackedGeocellUtils}) per resolution, indexed like the locations.
+ *
+ * Built by {@link BulkGeocellEncoder} and {@link GeocellBulkLoader}.
+ *
+ */
+public final class GeocellColumns {
+
+    private final int size;
+    private final long[][] columns;
+
+    GeocellColumns(int size) {
+        this.size = size;
+        this.columns = new long[GeocellManager.MAX_GEOCELL_RESOLUTION][size];
+    }
+
+    /**
+     * @return the number of locations in the batch.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param resolution resolution between 1 and MAX_GEOCELL_RESOLUTION.
+     * @return the packed geocells of the given resolution, index i being the cell of location i.
+     * The array is not copied.
+     */
+    public long[] getCells(int resolution) {
+        Validate.isTrue(resolution >= 1 && resolution <= GeocellManager.MAX_GEOCELL_RESOLUTION, "Invalid resolution: ", resolution);
+        return columns[resolution - 1];
+    }
+
+    /**
+     * @param index index of the location in the batch.
+     * @return the geocells (all resolutions) of the location, same as {@link GeocellManager#generateGeoCell(com.beoui.geocell.model.Point)}.
+     */
+    public List<String> getGeocells(int index) {
+        Validate.isTrue(index >= 0 && index < size, "Invalid index: ", index);
+        // All geocells are prefixes of the one of max resolution.
+        String geocellMax = PackedGeocellUtils.unpack(columns[GeocellManager.MAX_GEOCELL_RESOLUTION - 1][index]);
+        List<String> geocells = new ArrayList<String>(GeocellManager.MAX_GEOCELL_RESOLUTION);
+        for(int i = 1; i <= GeocellManager.MAX_GEOCELL_RESOLUTION; i++) {
+            geocells.add(geocellMax.substring(0, i));
+        }
+        return geocells;
+    }
+
+    /**
+     * @param resolution resolution between 1 and MAX_GEOCELL_RESOLUTION.
+     * @return the distinct packed geocells of the given resolution, sorted.
+     */
+    public long[] getDistinctCells(int resolution) {
+        long[] cells = getCells(resolution).clone();
+        Arrays.sort(cells);
+        int distinct = 0;
+        for(int i = 0; i < cells.length; i++) {
+            if(distinct == 0 || cells[i] != cells[distinct - 1]) {
+                cells[distinct++] = cells[i];
+            }
+        }
+        return Arrays.copyOf(cells, distinct);
+    }
+
+    // Columns of the given locations, in the order of rows[0..count).
+    GeocellColumns select(int[] rows, int count) {
+        GeocellColumns selection = new GeocellColumns(count);
+        for(int resolution = 0; resolution < columns.length; resolution++) {
+            long[] column = columns[resolution];
+            long[] selected = selection.columns[resolution];
+            for(int i = 0; i < count; i++) {
+                selected[i] = column[rows[i]];
+            }
+        }
+        return selection;
+    }
+
+    // Fills the columns of locations [from, to).
+    void encode(double[] lats, double[] lons, int from, int to) {
+        long[] geocellsMax = columns[GeocellManager.MAX_GEOCELL_RESOLUTION - 1];
+        for(int i = from; i < to; i++) {
+            geocellsMax[i] = PackedGeocellUtils.compute(lats[i], lons[i], GeocellManager.MAX_GEOCELL_RESOLUTION);
+        }
+        for(int resolution = 1; resolution < GeocellManager.MAX_GEOCELL_RESOLUTION; resolution++) {
+            long[] column = columns[resolution - 1];
+            for(int i = from; i < to; i++) {
+                column[i] = PackedGeocellUtils.parent(geocellsMax[i], resolution);
+            }
+        }
+    }
+
+}
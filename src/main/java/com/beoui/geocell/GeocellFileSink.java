@@ -0,0 +1,67 @@
+/*
+Copyright 2010 Alexandre Gellibert
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.apache.org/licenses/
+LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing permissions
+and limitations under the License.
+*/
+
+package com.beoui.geocell;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.List;
+
+import org.apache.commons.lang.Validate;
+
+import com.beoui.geocell.model.LocationCapable;
+import com.beoui.geocell.model.Point;
+
+/**
+ * Sink of {@link BulkGeocellEncoder} and {@link GeocellBulkLoader} writing one line per entity:
+ * key, latitude, longitude and geocell of max resolution, separated by tabs. Ex: to export
+ * a load, or to check its order.
+ *
+ * The writer is neither flushed nor closed by the sink.
+ *
+ */
+public class GeocellFileSink<T extends LocationCapable> implements BulkGeocellEncoder.Sink<T> {
+
+    private final Writer writer;
+
+    public GeocellFileSink(Writer writer) {
+        Validate.notNull(writer);
+        this.writer = writer;
+    }
+
+    /**
+     * @throws UncheckedIOException if the writer fails.
+     */
+    @Override
+    public void accept(List<T> entities, GeocellColumns geocells) {
+        long[] cells = geocells.getCells(GeocellManager.MAX_GEOCELL_RESOLUTION);
+        try {
+            for(int i = 0; i < entities.size(); i++) {
+                T entity = entities.get(i);
+                Point location = entity.getLocation();
+                writer.write(entity.getKeyString());
+                writer.write('\t');
+                writer.write(Double.toString(location.getLat()));
+                writer.write('\t');
+                writer.write(Double.toString(location.getLon()));
+                writer.write('\t');
+                writer.write(PackedGeocellUtils.unpack(cells[i]));
+                writer.write('\n');
+            }
+        } catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+}
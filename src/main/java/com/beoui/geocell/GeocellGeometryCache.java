@@ -0,0 +1,117 @@
+/*
+Copyright 2010 Alexandre Gellibert
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.apache.org/licenses/
+LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing permissions
+and limitations under the License.
+*/
+
+package com.beoui.geocell;
+
+import com.beoui.geocell.model.BoundingBox;
+import com.beoui.geocell.model.MutableBoundingBox;
+
+/**
+ * Bounded, thread-safe cache of the bounding boxes of geocells, keyed by packed geocell
+ * (see {@link PackedGeocellUtils}).
+ *
+ * When the cache is full, the least recently used cells are evicted. Boxes are stored
+ * as 4 doubles and copied out, so callers can't modify cached values.
+ *
+ * To be used by all the methods of GeocellUtils computing boxes, install it with
+ * {@link GeocellUtils#setGeometryCache(GeocellGeometryCache)}.
+ *
+ */
+public class GeocellGeometryCache {
+
+    private final SegmentedLruCache<Long, double[]> cache;
+
+    /**
+     * @param maxSize maximum number of cells kept, must be > 0.
+     */
+    public GeocellGeometryCache(int maxSize) {
+        this.cache = new SegmentedLruCache<Long, double[]>(maxSize);
+    }
+
+    /**
+     * Same as {@link GeocellUtils#computeBox(String)}, from the cache if possible.
+     * Cells that can't be packed (longer than MAX_RESOLUTION) are not cached.
+     */
+    public BoundingBox computeBox(String cell) {
+        long packed = PackedGeocellUtils.tryPack(cell);
+        if(packed == PackedGeocellUtils.NO_CELL) {
+            return GeocellUtils.computeBox(cell, new MutableBoundingBox());
+        }
+        return computeBox(packed, new MutableBoundingBox());
+    }
+
+    /**
+     * Same as {@link PackedGeocellUtils#computeBox(long)}, from the cache if possible.
+     */
+    public BoundingBox computeBox(long cell) {
+        return computeBox(cell, new MutableBoundingBox());
+    }
+
+    /**
+     * Same as {@link PackedGeocellUtils#computeBox(long, MutableBoundingBox)}, from the cache if possible.
+     *
+     * @return the given box.
+     */
+    public MutableBoundingBox computeBox(long cell, MutableBoundingBox box) {
+        double[] bounds = cache.get(cell);
+        if(bounds != null) {
+            return box.set(bounds[0], bounds[1], bounds[2], bounds[3]);
+        }
+        PackedGeocellUtils.computeBox(cell, box);
+        cache.put(cell, new double[] {box.getNorth(), box.getEast(), box.getSouth(), box.getWest()});
+        return box;
+    }
+
+    /**
+     * @return the number of cells in the cache.
+     */
+    public int size() {
+        return cache.size();
+    }
+
+    /**
+     * Removes all the cells of the cache. Metrics are not reset.
+     */
+    public void clear() {
+        cache.clear();
+    }
+
+    /**
+     * @return the number of boxes found in the cache.
+     */
+    public long getHitCount() {
+        return cache.getHitCount();
+    }
+
+    /**
+     * @return the number of boxes computed because they were not in the cache.
+     */
+    public long getMissCount() {
+        return cache.getMissCount();
+    }
+
+    /**
+     * @return the number of cells evicted because the cache was full.
+     */
+    public long getEvictionCount() {
+        return cache.getEvictionCount();
+    }
+
+    /**
+     * @return the ratio of boxes found in the cache, 0 if no box was requested.
+     */
+    public double getHitRatio() {
+        return cache.getHitRatio();
+    }
+
+}
@@ -0,0 +1,170 @@
+/*
+Copyright 2010 Alexandre Gellibert
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.apache.org/licenses/
+LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing permissions
+and limitations under the License.
+*/
+
+package com.beoui.geocell;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.BiFunction;
+
+import org.apache.commons.lang.Validate;
+
+import com.beoui.geocell.model.Point;
+
+/**
+ * Number of entities per geocell, at a few resolutions only, kept up to date on insert and
+ * delete. Used by {@link DensityCostFunction} to estimate how many entities a search reads.
+ *
+ * Only non-empty cells of the tracked resolutions are stored: a cell is removed when its
+ * last entity is removed or moved away, so moving entities don't grow the histogram.
+ * Counts of other cells are estimated: summed from the descendants of the closest finer tracked resolution, or
+ * interpolated from the ancestor of the closest coarser one, assuming uniform density.
+ *
+ * Thread-safe.
+ *
+ */
+public class GeocellHistogram {
+
+    public static final int[] DEFAULT_RESOLUTIONS = {3, 6, 9, 12};
+
+    // Sorted tracked resolutions.
+    private final int[] resolutions;
+
+    // Sum of two counts, null (no mapping) if 0.
+    private static final BiFunction<Long, Long, Long> SUM = new BiFunction<Long, Long, Long>() {
+        @Override
+        public Long apply(Long count, Long delta) {
+            long sum = count + delta;
+            return sum == 0 ? null : sum;
+        }
+    };
+
+    // Counts by packed geocell, one map per tracked resolution. No mapping for a count of 0.
+    private final List<ConcurrentNavigableMap<Long, Long>> counts;
+
+    /**
+     * Histogram at the DEFAULT_RESOLUTIONS.
+     */
+    public GeocellHistogram() {
+        this(DEFAULT_RESOLUTIONS);
+    }
+
+    /**
+     * @param resolutions resolutions at which entities are counted, between 1 and MAX_GEOCELL_RESOLUTION.
+     * The finer they are, the more cells are stored.
+     */
+    public GeocellHistogram(int... resolutions) {
+        Validate.isTrue(resolutions.length > 0, "At least one resolution is needed");
+        this.resolutions = resolutions.clone();
+        Arrays.sort(this.resolutions);
+        counts = new ArrayList<ConcurrentNavigableMap<Long, Long>>(this.resolutions.length);
+        for(int i = 0; i < this.resolutions.length; i++) {
+            Validate.isTrue(this.resolutions[i] >= 1 && this.resolutions[i] <= GeocellManager.MAX_GEOCELL_RESOLUTION, "Invalid resolution: ", this.resolutions[i]);
+            counts.add(new ConcurrentSkipListMap<Long, Long>());
+        }
+    }
+
+    /**
+     * Counts an entity inserted at the given location.
+     */
+    public void add(Point location) {
+        update(location, 1);
+    }
+
+    /**
+     * Uncounts an entity deleted from the given location.
+     */
+    public void remove(Point location) {
+        update(location, -1);
+    }
+
+    /**
+     * Counts an entity moved from one location to the other.
+     */
+    public void move(Point from, Point to) {
+        remove(from);
+        add(to);
+    }
+
+    private void update(Point location, int delta) {
+        long cellMax = PackedGeocellUtils.compute(location, GeocellManager.MAX_GEOCELL_RESOLUTION);
+        for(int i = 0; i < resolutions.length; i++) {
+            // Atomic, the cell is removed when its count gets to 0.
+            counts.get(i).merge(PackedGeocellUtils.parent(cellMax, resolutions[i]), (long) delta, SUM);
+        }
+    }
+
+    /**
+     * @return the tracked resolutions, sorted.
+     */
+    public int[] getResolutions() {
+        return resolutions.clone();
+    }
+
+    /**
+     * @return the number of cells stored, at all the tracked resolutions.
+     */
+    public int size() {
+        int size = 0;
+        for(ConcurrentNavigableMap<Long, Long> count : counts) {
+            size += count.size();
+        }
+        return size;
+    }
+
+    /**
+     * @param geocell
+     * @return the estimated number of entities in the geocell.
+     */
+    public double estimate(String geocell) {
+        return estimate(PackedGeocellUtils.pack(geocell));
+    }
+
+    /**
+     * @param cell packed geocell.
+     * @return the estimated number of entities in the cell, exact at a tracked resolution.
+     */
+    public double estimate(long cell) {
+        int resolution = PackedGeocellUtils.resolution(cell);
+        for(int i = 0; i < resolutions.length; i++) {
+            if(resolutions[i] >= resolution) {
+                // Exact: all the entities of the cell are in its descendants.
+                long sum = 0;
+                for(long count : counts.get(i).subMap(cell, PackedGeocellUtils.descendantsEnd(cell)).values()) {
+                    sum += count;
+                }
+                return sum;
+            }
+        }
+        // Finer than all the tracked resolutions: a share of the ancestor.
+        int coarser = resolutions[resolutions.length - 1];
+        Long count = counts.get(resolutions.length - 1).get(PackedGeocellUtils.parent(cell, coarser));
+        return count == null ? 0 : count / Math.pow(GeocellUtils.GEOCELL_GRID_SIZE * GeocellUtils.GEOCELL_GRID_SIZE, resolution - coarser);
+    }
+
+    /**
+     * @param cells packed geocells.
+     * @return the estimated number of entities in all the cells.
+     */
+    public double estimate(long[] cells) {
+        double sum = 0;
+        for(long cell : cells) {
+            sum += estimate(cell);
+        }
+        return sum;
+    }
+
+}
@@ -1,9 +1,34 @@
 package com.beoui.geocell;
 
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
+/**
+ * Logger of the library.
+ *
+ * Log messages are only built if they are logged: queries log through a {@link QueryTrace},
+ * which is null unless FINE is enabled or the query is traced.
+ *
+ * A query trace collects all the messages of one query and logs them at once, at INFO,
+ * when the query is over. Traces are recorded on request only: for the queries of a thread
+ * (see {@link #traceCurrentThread(boolean)}), or for one query in N (see {@link #setTraceSamplingPeriod(int)}).
+ *
+ */
 public final class GeocellLogger {
 
+    /**
+     * Compile-time switch: set to false and rebuild to remove all the logging of the library.
+     */
+    public static final boolean ENABLED = true;
+
+    // One query in traceSamplingPeriod is traced, none if 0.
+    private static volatile int traceSamplingPeriod;
+    private static final AtomicLong sampledQueries = new AtomicLong();
+
+    // Number of threads tracing their queries, to skip the thread local if none.
+    private static final AtomicLong tracingThreads = new AtomicLong();
+    private static final ThreadLocal<Boolean> tracing = new ThreadLocal<Boolean>();
+
     private GeocellLogger() {
         // no instantiation allowed
     }
@@ -12,4 +37,40 @@ public final class GeocellLogger {
         return Logger.getLogger("com.beoui.geocell");
     }
 
+    /**
+     * @param period 1 to trace all the queries, N to trace one query in N, 0 to trace none (the default).
+     */
+    public static void setTraceSamplingPeriod(int period) {
+        if(period < 0) {
+            throw new IllegalArgumentException("Invalid period: " + period);
+        }
+        traceSamplingPeriod = period;
+    }
+
+    /**
+     * Traces (or stops tracing) all the queries run by the current thread, ex: while serving a debug request.
+     */
+    public static void traceCurrentThread(boolean trace) {
+        boolean wasTracing = Boolean.TRUE.equals(tracing.get());
+        if(trace == wasTracing) {
+            return;
+        }
+        if(trace) {
+            tracing.set(Boolean.TRUE);
+            tracingThreads.incrementAndGet();
+        } else {
+            tracing.remove();
+            tracingThreads.decrementAndGet();
+        }
+    }
+
+    // Whether the query starting now must be traced.
+    static boolean sampleTrace() {
+        int period = traceSamplingPeriod;
+        if(period > 0 && sampledQueries.incrementAndGet() % period == 0) {
+            return true;
+        }
+        return tracingThreads.get() > 0 && Boolean.TRUE.equals(tracing.get());
+    }
+
 }
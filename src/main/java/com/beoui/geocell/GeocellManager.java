@@ -2,21 +2,28 @@ package com.beoui.geocell;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Set;
-import java.util.logging.Level;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.Validate;
 
-import com.beoui.geocell.comparator.LocationComparableTuple;
 import com.beoui.geocell.model.BoundingBox;
+import com.beoui.geocell.model.CellCostFunction;
 import com.beoui.geocell.model.CostFunction;
 import com.beoui.geocell.model.DefaultCostFunction;
+import com.beoui.geocell.model.DefaultDistanceFunction;
+import com.beoui.geocell.model.DistanceFunction;
 import com.beoui.geocell.model.LocationCapable;
 import com.beoui.geocell.model.Point;
+import com.beoui.geocell.model.ProximityQuery;
+import com.beoui.geocell.model.Region;
 import com.beoui.geocell.model.Tuple;
 
 /**
@@ -107,8 +114,31 @@ public class GeocellManager {
     // Function used if no custom function is used in bestBboxSearchCells method
     private static final CostFunction DEFAULT_COST_FUNCTION = new DefaultCostFunction();
 
+    // Function used if no custom function is used in proximityFetch method
+    private static final DistanceFunction DEFAULT_DISTANCE_FUNCTION = new DefaultDistanceFunction();
+
     private static final Logger logger = GeocellLogger.get();
 
+    // Receives the statistics of the queries.
+    private static volatile GeocellMetricsListener metricsListener = GeocellMetricsListener.NO_OP;
+
+    /**
+     * Sets the listener receiving the statistics of single proximityFetch, proximityFetchAsync and
+     * bestBboxSearchCells calls, see GeocellMetricsListener for what is not measured.
+     *
+     * @param listener the listener, null to stop measuring (the default).
+     */
+    public static void setMetricsListener(GeocellMetricsListener listener) {
+        metricsListener = listener == null ? GeocellMetricsListener.NO_OP : listener;
+    }
+
+    /**
+     * @return the listener receiving the statistics of the queries, GeocellMetricsListener.NO_OP if none.
+     */
+    public static GeocellMetricsListener getMetricsListener() {
+        return metricsListener;
+    }
+
     /**
      * Returns the list of geocells (all resolutions) that are containing the point
      *
@@ -116,13 +146,53 @@ public class GeocellManager {
      * @return Returns the list of geocells (all resolutions) that are containing the point
      */
     public static List<String> generateGeoCell(Point point) {
-        List<String> geocells = new ArrayList<String>();
-        String geocellMax = GeocellUtils.compute(point, GeocellManager.MAX_GEOCELL_RESOLUTION);
+        List<String> geocells = new ArrayList<String>(GeocellManager.MAX_GEOCELL_RESOLUTION);
+        generateGeoCell(point, geocells);
+        return geocells;
+    }
+
+    /**
+     * Same as {@link #generateGeoCell(Point)} but reuses the given list, which is cleared first.
+     *
+     * @param point
+     * @param geocells list receiving the geocells, from resolution 1 to MAX_GEOCELL_RESOLUTION.
+     */
+    public static void generateGeoCell(Point point, List<String> geocells) {
+        char[] geocellMax = new char[GeocellManager.MAX_GEOCELL_RESOLUTION];
+        generateGeoCell(point, geocellMax);
+        geocells.clear();
+        for(int i = 1; i <= GeocellManager.MAX_GEOCELL_RESOLUTION; i++) {
+            geocells.add(new String(geocellMax, 0, i));
+        }
+    }
+
+    /**
+     * Computes all the geocells containing the point in a single descent, without allocation.
+     * The geocell of resolution i is made of the first i characters of the array.
+     *
+     * @param point
+     * @param geocellMax array receiving the characters of the geocell of max resolution.
+     * Its length must be at least MAX_GEOCELL_RESOLUTION.
+     */
+    public static void generateGeoCell(Point point, char[] geocellMax) {
+        Validate.isTrue(geocellMax.length >= GeocellManager.MAX_GEOCELL_RESOLUTION, "Array too small for max resolution: ", geocellMax.length);
+        GeocellUtils.compute(point, geocellMax, GeocellManager.MAX_GEOCELL_RESOLUTION);
+    }
+
+    /**
+     * Computes all the packed geocells containing the point (see {@link PackedGeocellUtils}), without allocation.
+     *
+     * @param point
+     * @param geocells array receiving the packed geocell of resolution i at index i - 1.
+     * Its length must be at least MAX_GEOCELL_RESOLUTION.
+     */
+    public static void generatePackedGeoCell(Point point, long[] geocells) {
+        Validate.isTrue(geocells.length >= GeocellManager.MAX_GEOCELL_RESOLUTION, "Array too small for max resolution: ", geocells.length);
+        long geocellMax = PackedGeocellUtils.compute(point, GeocellManager.MAX_GEOCELL_RESOLUTION);
         for(int i = 1; i < GeocellManager.MAX_GEOCELL_RESOLUTION; i++) {
-            geocells.add(GeocellUtils.compute(point, i));
+            geocells[i - 1] = PackedGeocellUtils.parent(geocellMax, i);
         }
-        geocells.add(geocellMax);
-        return geocells;
+        geocells[GeocellManager.MAX_GEOCELL_RESOLUTION - 1] = geocellMax;
     }
 
     /**
@@ -136,14 +206,43 @@ public class GeocellManager {
      * numCells: the number of cells to search
      * resolution: the resolution of each cell to search
             and returns the 'cost' of querying against this number of cells
-            at the given resolution.)
+            at the given resolution.) A CellCostFunction is given the cells themselves.
      * @return A list of geocell strings that contain the given box.
      */
     public static List<String> bestBboxSearchCells(BoundingBox bbox, CostFunction costFunction) {
-
         String cellNE = GeocellUtils.compute(bbox.getNorthEast(), GeocellManager.MAX_GEOCELL_RESOLUTION);
         String cellSW = GeocellUtils.compute(bbox.getSouthWest(), GeocellManager.MAX_GEOCELL_RESOLUTION);
+        return bestBboxSearchCells(bbox, cellNE, cellSW, costFunction).getFirst();
+    }
+
+    /**
+     * Same as {@link #bestBboxSearchCells(BoundingBox, CostFunction)}, given the cells of max resolution
+     * of the corners of the box. Reports the statistics and the trace of the call, ex: for the misses
+     * of a BboxSearchCellsCache.
+     *
+     * @return the list of geocells, and the last resolution evaluated: the geocells only depend on the
+     * prefixes of cellNE and cellSW of this resolution (and on the cost function).
+     */
+    static Tuple<List<String>, Integer> bestBboxSearchCells(BoundingBox bbox, String cellNE, String cellSW, CostFunction costFunction) {
+        GeocellMetricsListener listener = metricsListener;
+        long startNanos = listener == GeocellMetricsListener.NO_OP ? 0 : System.nanoTime();
+
+        Tuple<List<String>, Integer> result = bestBboxSearchCells(cellNE, cellSW, costFunction);
+        List<String> minCostCellSet = result.getFirst();
+        if(listener != GeocellMetricsListener.NO_OP) {
+            listener.bestBboxSearchCells(new BboxSearchStats(result.getSecond() - commonPrefixLength(cellNE, cellSW) + 1,
+                    minCostCellSet.isEmpty() ? 0 : minCostCellSet.get(0).length(), minCostCellSet.size(), System.nanoTime() - startNanos));
+        }
+        QueryTrace trace = QueryTrace.start(logger, "bestBboxSearchCells");
+        if(trace != null) {
+            trace.log("Calculate cells "+StringUtils.join(minCostCellSet, ", ")+" in box ("+bbox.getSouth()+","+bbox.getWest()+") ("+bbox.getNorth()+","+bbox.getEast()+")");
+            trace.end();
+        }
+        return result;
+    }
 
+    // The search cells of the box between the given cells of max resolution, and the last resolution evaluated.
+    private static Tuple<List<String>, Integer> bestBboxSearchCells(String cellNE, String cellSW, CostFunction costFunction) {
         // The current lowest BBOX-search cost found; start with practical infinity.
         double minCost = Double.MAX_VALUE;
 
@@ -152,33 +251,31 @@ public class GeocellManager {
 
         // First find the common prefix, if there is one.. this will be the base
         // resolution.. i.e. we don't have to look at any higher resolution cells.
-        int minResolution = 0;
-        int maxResoltuion = Math.min(cellNE.length(), cellSW.length());
-        while(minResolution < maxResoltuion  && cellNE.substring(0, minResolution+1).startsWith(cellSW.substring(0, minResolution+1))) {
-            minResolution++;
-        }
+        int minResolution = commonPrefixLength(cellNE, cellSW);
 
         // Iteravely calculate all possible sets of cells that wholely contain
         // the requested bounding box.
+        long packedNE = PackedGeocellUtils.pack(cellNE);
+        long packedSW = PackedGeocellUtils.pack(cellSW);
+        int lastResolution = minResolution;
         for(int curResolution = minResolution; curResolution < GeocellManager.MAX_GEOCELL_RESOLUTION + 1; curResolution++) {
-            String curNE = cellNE.substring(0, curResolution);
-            String curSW = cellSW.substring(0, curResolution);
+            lastResolution = curResolution;
+            CellGrid grid = CellGrid.between(PackedGeocellUtils.parent(packedNE, curResolution), PackedGeocellUtils.parent(packedSW, curResolution));
 
-            int numCells = GeocellUtils.interpolationCount(curNE, curSW);
-            if(numCells > MAX_FEASIBLE_BBOX_SEARCH_CELLS) {
+            if(grid.size() > MAX_FEASIBLE_BBOX_SEARCH_CELLS) {
                 continue;
             }
 
-            List<String> cellSet = GeocellUtils.interpolate(curNE, curSW);
-            Collections.sort(cellSet);
-
-            double cost;
-            if(costFunction == null) {
-                cost = DEFAULT_COST_FUNCTION.defaultCostFunction(cellSet.size(), curResolution);
-            } else {
-                cost = costFunction.defaultCostFunction(cellSet.size(), curResolution);
+            // Packed geocells sort like geocell strings.
+            long[] cells = grid.toArray();
+            Arrays.sort(cells);
+            List<String> cellSet = new ArrayList<String>(cells.length);
+            for(long cell : cells) {
+                cellSet.add(PackedGeocellUtils.unpack(cell));
             }
 
+            double cost = cost(costFunction, cells, curResolution);
+
             if(cost <= minCost) {
                 minCost = cost;
                 minCostCellSet = cellSet;
@@ -190,8 +287,139 @@ public class GeocellManager {
                 break;
             }
         }
-        logger.log(Level.INFO, "Calculate cells "+StringUtils.join(minCostCellSet, ", ")+" in box ("+bbox.getSouth()+","+bbox.getWest()+") ("+bbox.getNorth()+","+bbox.getEast()+")");
-        return minCostCellSet;
+        return new Tuple<List<String>, Integer>(minCostCellSet, lastResolution);
+    }
+
+    /**
+     * Returns the cells of bestBboxSearchCells merged in ranges of geocells, for repositories
+     * whose entities store only their geocell of max resolution (see LocationCapableRangeSearch).
+
+      Cells consecutive in geocell order (ex: "a3" and "a4") are merged in one range, so there
+      are usually fewer ranges than cells.
+
+     * @param bbox: A geotypes.Box indicating the bounding box being searched.
+     * @param costFunction: See bestBboxSearchCells.
+     * @return The sorted ranges of geocells containing the given box.
+     */
+    public static List<GeocellRange> bestBboxSearchRanges(BoundingBox bbox, CostFunction costFunction) {
+        return GeocellRange.merge(bestBboxSearchCells(bbox, costFunction));
+    }
+
+    private static int commonPrefixLength(String cellNE, String cellSW) {
+        int length = 0;
+        int maxLength = Math.min(cellNE.length(), cellSW.length());
+        while(length < maxLength && cellNE.charAt(length) == cellSW.charAt(length)) {
+            length++;
+        }
+        return length;
+    }
+
+    // Cost of searching the cells, with the default cost function if null.
+    private static double cost(CostFunction costFunction, long[] cells, int resolution) {
+        if(costFunction == null) {
+            return DEFAULT_COST_FUNCTION.defaultCostFunction(cells.length, resolution);
+        }
+        if(costFunction instanceof CellCostFunction) {
+            return ((CellCostFunction) costFunction).cellCostFunction(cells, resolution);
+        }
+        return costFunction.defaultCostFunction(cells.length, resolution);
+    }
+
+    /**
+     * Returns a set of geocells of mixed resolutions to search in a bounding box query.
+
+      Unlike bestBboxSearchCells, whose cells all have the same resolution, the box is
+      covered by coarse cells inside and finer cells on its edges, as tightly as maxCells
+      allows. Entities storing their geocells of all resolutions (see generateGeoCell), the
+      cells can be searched as they are. See RegionCovering.getOverCoverage() for the area
+      searched in excess.
+
+     * @param bbox: The bounding box being searched, west > east if it crosses the antimeridian.
+     * @param maxCells: The maximum number of cells, > 0. If the box is not within a cell of resolution 1,
+     * the covering can have up to 16 cells of resolution 1.
+     * @return The covering of the box.
+     */
+    public static RegionCovering bestBboxCovering(BoundingBox bbox, int maxCells) {
+        Validate.isTrue(maxCells > 0, "maxCells must be > 0: ", maxCells);
+        RegionCovering covering = RegionCovering.coverWithin(bbox, maxCells);
+        QueryTrace trace = QueryTrace.start(logger, "bestBboxCovering");
+        if(trace != null) {
+            trace.log("Calculate " + covering.size() + " cells in box ("+bbox.getSouth()+","+bbox.getWest()+") ("+bbox.getNorth()+","+bbox.getEast()+")");
+            trace.end();
+        }
+        return covering;
+    }
+
+    /**
+     * Returns an efficient set of geocells to search in a region, ex: a polygon or a corridor.
+
+      Unlike bestBboxSearchCells, cells are of mixed resolutions: cells inside the region
+      are kept as large as possible, only the cells on its boundary are subdivided. The
+      resolution of the boundary cells is chosen with the cost function, like in bestBboxSearchCells.
+
+     * @param region: The region being searched, must not cross the antimeridian.
+     * @param costFunction: A function that accepts two arguments:
+     * numCells: the number of cells to search
+     * resolution: the resolution of the boundary cells
+            and returns the 'cost' of querying against this number of cells.
+     * @return The covering of the region, whose cells contain the given region.
+     */
+    public static RegionCovering bestRegionSearchCells(Region region, CostFunction costFunction) {
+        if(costFunction == null) {
+            costFunction = DEFAULT_COST_FUNCTION;
+        }
+        double minCost = Double.MAX_VALUE;
+        RegionCovering minCostCovering = null;
+        for(int curResolution = 1; curResolution < GeocellManager.MAX_GEOCELL_RESOLUTION + 1; curResolution++) {
+            RegionCovering covering = RegionCovering.cover(region, curResolution, MAX_FEASIBLE_BBOX_SEARCH_CELLS);
+            if(covering == null) {
+                // Finer coverings only have more cells.
+                break;
+            }
+            double cost = cost(costFunction, covering.getPackedCells(), curResolution);
+            if(cost <= minCost) {
+                minCost = cost;
+                minCostCovering = covering;
+            } else {
+                if(minCostCovering == null) {
+                    minCostCovering = covering;
+                }
+                // Once the cost starts rising, we won't be able to do better, so abort.
+                break;
+            }
+            if(covering.getBoundaryCells().isEmpty()) {
+                // Finer coverings are the same.
+                break;
+            }
+        }
+        // Never null: there are at most 16 cells of resolution 1.
+        QueryTrace trace = QueryTrace.start(logger, "bestRegionSearchCells");
+        if(trace != null) {
+            trace.log("Calculate cells " + StringUtils.join(minCostCovering.getCells(), ", ") + " in region");
+            trace.end();
+        }
+        return minCostCovering;
+    }
+
+    /**
+     * Fetches the entities in the given region: the cells of bestRegionSearchCells are searched,
+     * then the entities found in its boundary cells are tested against the region.
+     *
+     * @param region: The region being searched, must not cross the antimeridian.
+     * @param repositorySearch: Implementation of search in the repository.
+     * @param costFunction: See bestRegionSearchCells, the default one if null.
+     * @return the entities in the region, in the order of the repository.
+     */
+    public static final <T extends LocationCapable> List<T> regionFetch(Region region, LocationCapableRepositorySearch<T> repositorySearch, CostFunction costFunction) {
+        RegionCovering covering = bestRegionSearchCells(region, costFunction);
+        return covering.filter(repositorySearch.search(covering.getCells()));
+    }
+
+    /**
+     * Same as {@link #regionFetch(Region, LocationCapableRepositorySearch, CostFunction)} with the default cost function.
+     */
+    public static final <T extends LocationCapable> List<T> regionFetch(Region region, LocationCapableRepositorySearch<T> repositorySearch) {
+        return regionFetch(region, repositorySearch, null);
     }
 
     /**
@@ -214,161 +442,110 @@ public class GeocellManager {
      * @param baseQuery query that will be enhanced by algorithm. see GeocellQuery class for more information.
      * @param pm PersistentManager to be used to create new queries
      * @param maxGeocellResolution the resolution (size of cell) when we start the algorithm. If you expect your search to run until big boxes (not many entities near the center), think about using a lower resolution for better performance. If you don't want to bother, use other method below without this parameter.
+     * @param distanceFunction function used to rank entities by distance from the center. Entities are ranked with
+     * DistanceFunction.rank(center, location) and distances in meters are only computed for the results.
      * @return the list of entities found near the center and ordered by distance.
      *
      * @throws all exceptions that can be thrown when running queries.
      */
-    @SuppressWarnings("unchecked")
-    public static final <T extends LocationCapable> List<T> proximityFetch(Point center, int maxResults, double maxDistance, LocationCapableRepositorySearch<T> repositorySearch, int maxGeocellResolution) {
-        List<LocationComparableTuple<T>> results = new ArrayList<LocationComparableTuple<T>>();
-
-        // The current search geocell containing the lat,lon.
-        String curContainingGeocell = GeocellUtils.compute(center, maxGeocellResolution);
-
-        Set<String> searchedCells = new HashSet<String>();
-
-        /*
-         * The currently-being-searched geocells.
-         * NOTES:
-         * Start with max possible.
-         * Must always be of the same resolution.
-         * Must always form a rectangular region.
-         * One of these must be equal to the cur_containing_geocell.
-         */
-        List<String> curGeocells = new ArrayList<String>();
-        curGeocells.add(curContainingGeocell);
-        double closestPossibleNextResultDist = 0;
-
-        /*
-         * Assumes both a and b are lists of (entity, dist) tuples, *sorted by dist*.
-         * NOTE: This is an in-place merge, and there are guaranteed no duplicates in the resulting list.
-         */
-
-        int noDirection [] = {0,0};
-        List<Tuple<int[], Double>> sortedEdgesDistances = Arrays.asList(new Tuple<int[], Double>(noDirection, 0d));
-
-        while(!curGeocells.isEmpty()) {
-            closestPossibleNextResultDist = sortedEdgesDistances.get(0).getSecond();
-            if(maxDistance > 0 && closestPossibleNextResultDist > maxDistance) {
+    public static final <T extends LocationCapable> List<T> proximityFetch(Point center, int maxResults, double maxDistance, LocationCapableRepositorySearch<T> repositorySearch, int maxGeocellResolution, DistanceFunction distanceFunction) {
+        // The maxResults closest entities found so far, by rank.
+        ProximityResultHeap<T> results = new ProximityResultHeap<T>(maxResults);
+
+        // The geocells searched by the current iteration.
+        ProximitySearchPlanner planner = new ProximitySearchPlanner(center, maxGeocellResolution, maxDistance);
+
+        // Only measured if someone listens.
+        GeocellMetricsListener listener = metricsListener;
+        ProximityFetchStats stats = listener == GeocellMetricsListener.NO_OP ? null : new ProximityFetchStats();
+        long startNanos = stats == null ? 0 : System.nanoTime();
+        ProximityFetchStats.TerminationReason terminationReason;
+        QueryTrace trace = QueryTrace.start(logger, "proximityFetch");
+
+        while(true) {
+            if(maxDistance > 0 && planner.closestPossibleNextResultDist() > maxDistance) {
+                terminationReason = ProximityFetchStats.TerminationReason.MAX_DISTANCE;
                 break;
             }
 
-            Set<String> curTempUnique = new HashSet<String>(curGeocells);
-            curTempUnique.removeAll(searchedCells);
-            List<String> curGeocellsUnique = new ArrayList<String>(curTempUnique);
-
-            List<T> newResultEntities = repositorySearch.search(curGeocellsUnique);
+            List<String> curGeocells = planner.getGeocells();
+            long searchNanos = stats == null ? 0 : System.nanoTime();
+            List<T> newResultEntities = repositorySearch.search(curGeocells);
+            if(stats != null) {
+                long mergeNanos = System.nanoTime();
+                stats.repositorySearch(curGeocells.size(), curGeocells.isEmpty() ? 0 : curGeocells.get(0).length(), newResultEntities.size(), mergeNanos - searchNanos);
+                searchNanos = mergeNanos;
+            }
             
-            logger.log(Level.FINE, "fetch complete for: " + StringUtils.join(curGeocellsUnique, ", "));
-
-            searchedCells.addAll(curGeocells);
+            if(trace != null) {
+                trace.log("fetch complete for: " + StringUtils.join(curGeocells, ", "));
+            }
 
-            // Begin storing distance from the search result entity to the
-            // search center along with the search result itself, in a tuple.
-            List<LocationComparableTuple<T>> newResults = new ArrayList<LocationComparableTuple<T>>();
+            // Offer the new entities with their rank from the search center,
+            // only the maxResults closest ones are kept (no duplicates).
             for(T entity : newResultEntities) {
-                newResults.add(new LocationComparableTuple<T>(entity, GeocellUtils.distance(center, entity.getLocation())));
+                results.offer(entity, distanceFunction.rank(center, entity.getLocation()));
             }
-            // TODO (Alex) we can optimize here. Sort is needed only if new_results.size() > max_results.
-            Collections.sort(newResults);
-            newResults = newResults.subList(0, Math.min(maxResults, newResults.size()));
-
-            // Merge new_results into results
-            for(LocationComparableTuple<T> tuple : newResults) {
-                // contains method will check if entity in tuple have same key
-                if(!results.contains(tuple)) {
-                    results.add(tuple);
-                }
+            if(stats != null) {
+                stats.merged(System.nanoTime() - searchNanos);
             }
 
-            Collections.sort(results);
-            results = results.subList(0, Math.min(maxResults, results.size()));
-
-            sortedEdgesDistances = GeocellUtils.distanceSortedEdges(curGeocells, center);
-
-            if(results.size() == 0 || curGeocells.size() == 4) {
-                /* Either no results (in which case we optimize by not looking at
-                        adjacents, go straight to the parent) or we've searched 4 adjacent
-                        geocells, in which case we should now search the parents of those
-                        geocells.*/
-                curContainingGeocell = curContainingGeocell.substring(0, Math.max(curContainingGeocell.length() - 1,0));
-                if(curContainingGeocell.length() == 0) {
-                    break;  // Done with search, we've searched everywhere.
-                }
-                List<String> oldCurGeocells = new ArrayList<String>(curGeocells);
-                curGeocells.clear();
-                for(String cell : oldCurGeocells) {
-                    if(cell.length() > 0) {
-                        String newCell = cell.substring(0, cell.length() - 1);
-                        if(!curGeocells.contains(newCell)) {
-                            curGeocells.add(newCell);
-                        }
-                    }
-                }
-                if(curGeocells.size() == 0) {
-                    break;  // Done with search, we've searched everywhere.
-                }
-            } else if(curGeocells.size() == 1) {
-                // Get adjacent in one direction.
-                // TODO(romannurik): Watch for +/- 90 degree latitude edge case geocells.
-                int nearestEdge[] = sortedEdgesDistances.get(0).getFirst();
-                curGeocells.add(GeocellUtils.adjacent(curGeocells.get(0), nearestEdge));
-            } else if(curGeocells.size() == 2) {
-                // Get adjacents in perpendicular direction.
-                int nearestEdge[] = GeocellUtils.distanceSortedEdges(Arrays.asList(curContainingGeocell), center).get(0).getFirst();
-                int[] perpendicularNearestEdge = {0,0};
-                if(nearestEdge[0] == 0) {
-                    // Was vertical, perpendicular is horizontal.
-                    for(Tuple<int[], Double> edgeDistance : sortedEdgesDistances) {
-                        if(edgeDistance.getFirst()[0] != 0) {
-                            perpendicularNearestEdge = edgeDistance.getFirst();
-                            break;
-                        }
-                    }
-                } else {
-                    // Was horizontal, perpendicular is vertical.
-                    for(Tuple<int[], Double> edgeDistance : sortedEdgesDistances) {
-                        if(edgeDistance.getFirst()[0] == 0) {
-                            perpendicularNearestEdge = edgeDistance.getFirst();
-                            break;
-                        }
-                    }
-                }
-                List<String> tempCells = new ArrayList<String>();
-                for(String cell : curGeocells) {
-                    tempCells.add(GeocellUtils.adjacent(cell, perpendicularNearestEdge));
-                }
-                curGeocells.addAll(tempCells);
+            if(!planner.advance(results.size() > 0)) {
+                terminationReason = ProximityFetchStats.TerminationReason.NO_MORE_CELLS;
+                break;  // Done with search, we've searched everywhere.
             }
 
             // We don't have enough items yet, keep searching.
             if(results.size() < maxResults) {
-                logger.log(Level.FINE,  results.size()+" results found but want "+maxResults+" results, continuing search.");
+                if(trace != null) {
+                    trace.log(results.size()+" results found but want "+maxResults+" results, continuing search.");
+                }
                 continue;
             }
 
-            logger.log(Level.FINE, results.size()+" results found.");
+            if(trace != null) {
+                trace.log(results.size()+" results found.");
+            }
 
             // If the currently max_results'th closest item is closer than any
             // of the next test geocells, we're done searching.
-            double currentFarthestReturnableResultDist = GeocellUtils.distance(center, results.get(maxResults - 1).getFirst().getLocation());
+            double closestPossibleNextResultDist = planner.closestPossibleNextResultDist();
+            double currentFarthestReturnableResultDist = distanceFunction.toDistance(results.farthestDistance());
             if (closestPossibleNextResultDist >=
                 currentFarthestReturnableResultDist) {
-                logger.log(Level.FINE, "DONE next result at least "+closestPossibleNextResultDist+" away, current farthest is "+currentFarthestReturnableResultDist+" dist");
+                if(trace != null) {
+                    trace.log("DONE next result at least "+closestPossibleNextResultDist+" away, current farthest is "+currentFarthestReturnableResultDist+" dist");
+                }
+                terminationReason = ProximityFetchStats.TerminationReason.ENOUGH_RESULTS;
                 break;
             }
-            logger.log(Level.FINE, "next result at least "+closestPossibleNextResultDist+" away, current farthest is "+currentFarthestReturnableResultDist+" dist");
+            if(trace != null) {
+                trace.log("next result at least "+closestPossibleNextResultDist+" away, current farthest is "+currentFarthestReturnableResultDist+" dist");
+            }
+        }
+        if(trace != null) {
+            trace.end();
         }
         
-        List<T> result = new ArrayList<T>();
-		for (Tuple<T, Double> entry : results.subList(0,
-				Math.min(maxResults, results.size()))) {
-			if (maxDistance == 0 || entry.getSecond() < maxDistance) {
-				result.add(entry.getFirst());
-			}
-		}
-		return result;
-        
+        if(stats == null) {
+            return sortedEntities(results, maxDistance, distanceFunction);
+        }
+        long sortNanos = System.nanoTime();
+        List<T> sortedResults = sortedEntities(results, maxDistance, distanceFunction);
+        long endNanos = System.nanoTime();
+        stats.done(terminationReason, sortedResults.size(), endNanos - sortNanos, endNanos - startNanos);
+        listener.proximityFetch(stats);
+        return sortedResults;
+    }
+
+    /**
+     *
+     * See javadoc of method with parameter distanceFunction.
+     * Use the spherical law of cosines to compute distances.
+     *
+     */
+    public static final <T extends LocationCapable> List<T> proximityFetch(Point center, int maxResults, double maxDistance, LocationCapableRepositorySearch<T> repositorySearch, int maxGeocellResolution) {
+        return proximityFetch(center, maxResults, maxDistance, repositorySearch, maxGeocellResolution, DEFAULT_DISTANCE_FUNCTION);
     }
 
     /**
@@ -381,4 +558,134 @@ public class GeocellManager {
         return proximityFetch(center, maxResults, maxDistance, searchRepository, MAX_GEOCELL_RESOLUTION);
     }
 
+    /**
+     *
+     * See javadoc of method with parameter maxResolution.
+     * The starting resolution is chosen from the density of entities around the center,
+     * see DensityCostFunction.proximityStartResolution.
+     *
+     */
+    public static final <T extends LocationCapable> List<T> proximityFetch(Point center, int maxResults, double maxDistance, LocationCapableRepositorySearch<T> searchRepository, DensityCostFunction costFunction) {
+        int startResolution = costFunction.proximityStartResolution(center, maxResults, MAX_GEOCELL_RESOLUTION);
+        return proximityFetch(center, maxResults, maxDistance, searchRepository, startResolution);
+    }
+
+    /**
+     * Runs many proximity fetches at once (ex: one per stop of a route), fetching the cells they share only once:
+     * each round, the cells needed by all the queries are searched with a single call to the repository,
+     * and cells whose ancestor has already been fetched are not searched again.
+     *
+     * @param queries center, maxResults and maxDistance of each proximity fetch.
+     * @param repositorySearch repository searched by geocells.
+     * @param maxGeocellResolution the resolution (size of cell) when we start the algorithm.
+     * @param distanceFunction function used to rank entities by distance from the centers.
+     * @return for each query, in the same order, the list of entities found near its center and ordered by distance.
+     */
+    public static final <T extends LocationCapable> List<List<T>> proximityFetch(List<ProximityQuery> queries, LocationCapableRepositorySearch<T> repositorySearch, int maxGeocellResolution, DistanceFunction distanceFunction) {
+        return new BatchProximityFetch<T>(queries, repositorySearch, maxGeocellResolution, distanceFunction).run();
+    }
+
+    /**
+     *
+     * See javadoc of method with parameters maxGeocellResolution and distanceFunction.
+     * Use MAX_GEOCELL_RESOLUTION as a starting resolution and the spherical law of cosines to compute distances.
+     *
+     */
+    public static final <T extends LocationCapable> List<List<T>> proximityFetch(List<ProximityQuery> queries, LocationCapableRepositorySearch<T> repositorySearch) {
+        return proximityFetch(queries, repositorySearch, MAX_GEOCELL_RESOLUTION, DEFAULT_DISTANCE_FUNCTION);
+    }
+
+    /**
+     * Same as {@link #proximityFetch(Point, int, double, LocationCapableRepositorySearch, int)} on an
+     * asynchronous repository: the cells of each iteration are searched concurrently, and the cells
+     * of the next iteration are speculatively searched while the current results are merged.
+     *
+     * To run a blocking repository on a thread pool (or on virtual threads), see {@link ExecutorLocationCapableRepositorySearch}.
+     *
+     * @return a future completed with the list of entities found near the center and ordered by distance,
+     * or completed exceptionally if a search failed.
+     */
+    public static final <T extends LocationCapable> CompletableFuture<List<T>> proximityFetchAsync(Point center, int maxResults, double maxDistance, AsyncLocationCapableRepositorySearch<T> repositorySearch, int maxGeocellResolution, DistanceFunction distanceFunction) {
+        return new AsyncProximityFetch<T>(center, maxResults, maxDistance, repositorySearch, maxGeocellResolution, distanceFunction).run();
+    }
+
+    /**
+     *
+     * See javadoc of method with parameter distanceFunction.
+     * Use the spherical law of cosines to compute distances.
+     *
+     */
+    public static final <T extends LocationCapable> CompletableFuture<List<T>> proximityFetchAsync(Point center, int maxResults, double maxDistance, AsyncLocationCapableRepositorySearch<T> repositorySearch, int maxGeocellResolution) {
+        return proximityFetchAsync(center, maxResults, maxDistance, repositorySearch, maxGeocellResolution, DEFAULT_DISTANCE_FUNCTION);
+    }
+
+    /**
+     *
+     * See javadoc of method with parameter maxResolution.
+     * Use MAX_GEOCELL_RESOLUTION as a starting resolution.
+     *
+     */
+    public static final <T extends LocationCapable> CompletableFuture<List<T>> proximityFetchAsync(Point center, int maxResults, double maxDistance, AsyncLocationCapableRepositorySearch<T> repositorySearch) {
+        return proximityFetchAsync(center, maxResults, maxDistance, repositorySearch, MAX_GEOCELL_RESOLUTION);
+    }
+
+    /**
+     * Lazy proximity search: returns the entities by ascending distance from the center, as far as the
+     * consumer iterates. Cells are searched only when needed to know the next closest entity, so
+     * there is no maxResults to guess when results are filtered afterwards.
+     *
+     * @param center A Point indicating the center point around which to search for matching entities.
+     * @param maxDistance (optional) A number indicating the maximum distance to search, in meters. Set to 0 if no max distance is expected
+     * @param repositorySearch repository searched by geocells, on the calling thread of hasNext/next.
+     * @param maxGeocellResolution the resolution (size of cell) when we start the algorithm.
+     * @param distanceFunction function used to rank entities by distance from the center.
+     * @return an iterator over the entities, in non-decreasing distance from the center.
+     */
+    public static final <T extends LocationCapable> Iterator<T> proximityIterator(Point center, double maxDistance, LocationCapableRepositorySearch<T> repositorySearch, int maxGeocellResolution, DistanceFunction distanceFunction) {
+        return new ProximityIterator<T>(center, maxDistance, repositorySearch, maxGeocellResolution, distanceFunction);
+    }
+
+    /**
+     *
+     * See javadoc of method with parameters maxGeocellResolution and distanceFunction.
+     * Use MAX_GEOCELL_RESOLUTION as a starting resolution and the spherical law of cosines to compute distances.
+     *
+     */
+    public static final <T extends LocationCapable> Iterator<T> proximityIterator(Point center, double maxDistance, LocationCapableRepositorySearch<T> repositorySearch) {
+        return proximityIterator(center, maxDistance, repositorySearch, MAX_GEOCELL_RESOLUTION, DEFAULT_DISTANCE_FUNCTION);
+    }
+
+    /**
+     * Same as {@link #proximityIterator(Point, double, LocationCapableRepositorySearch, int, DistanceFunction)} as a
+     * sequential ordered Stream, ex: proximityStream(...).filter(businessRule).limit(10).
+     */
+    public static final <T extends LocationCapable> Stream<T> proximityStream(Point center, double maxDistance, LocationCapableRepositorySearch<T> repositorySearch, int maxGeocellResolution, DistanceFunction distanceFunction) {
+        Iterator<T> iterator = proximityIterator(center, maxDistance, repositorySearch, maxGeocellResolution, distanceFunction);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    /**
+     *
+     * See javadoc of method with parameters maxGeocellResolution and distanceFunction.
+     * Use MAX_GEOCELL_RESOLUTION as a starting resolution and the spherical law of cosines to compute distances.
+     *
+     */
+    public static final <T extends LocationCapable> Stream<T> proximityStream(Point center, double maxDistance, LocationCapableRepositorySearch<T> repositorySearch) {
+        return proximityStream(center, maxDistance, repositorySearch, MAX_GEOCELL_RESOLUTION, DEFAULT_DISTANCE_FUNCTION);
+    }
+
+    /**
+     * @param results entities ranked with the distance function.
+     * @return the entities of the results sorted by distance, closer than maxDistance if it is not 0.
+     */
+    static <T extends LocationCapable> List<T> sortedEntities(ProximityResultHeap<T> results, double maxDistance, DistanceFunction distanceFunction) {
+        List<T> result = new ArrayList<T>();
+        for(Tuple<T, Double> entry : results.toSortedList()) {
+            if(maxDistance == 0 || distanceFunction.toDistance(entry.getSecond()) < maxDistance) {
+                result.add(entry.getFirst());
+            }
+        }
+        return result;
+    }
+
 }
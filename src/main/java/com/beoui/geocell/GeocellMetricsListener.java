@@ -0,0 +1,56 @@
+/*
+Copyright 2010 Alexandre Gellibert
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.apache.org/licenses/
+LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing permissions
+and limitations under the License.
+*/
+
+package com.beoui.geocell;
+
+/**
+ * Receives the statistics of each query, see {@link GeocellManager#setMetricsListener(GeocellMetricsListener)}.
+ *
+ * Called on the thread running the query, once it is over: implementations must be thread-safe
+ * and fast. With the default NO_OP listener, queries don't measure anything.
+ *
+ * Batch proximityFetch calls, proximityIterator and proximityStream are not reported: a batch
+ * shares its repository searches between queries and an iterator has no end, so neither fits
+ * ProximityFetchStats. Their query traces are logged though, see {@link GeocellLogger}.
+ *
+ */
+public interface GeocellMetricsListener {
+
+    /**
+     * Listener ignoring everything, queries skip their measures when it is set.
+     */
+    GeocellMetricsListener NO_OP = new GeocellMetricsListener() {
+
+        @Override
+        public void proximityFetch(ProximityFetchStats stats) {
+            // nothing
+        }
+
+        @Override
+        public void bestBboxSearchCells(BboxSearchStats stats) {
+            // nothing
+        }
+    };
+
+    /**
+     * @param stats statistics of a GeocellManager.proximityFetch call for a single center,
+     *        or of a proximityFetchAsync call, reported by the thread completing it.
+     */
+    void proximityFetch(ProximityFetchStats stats);
+
+    /**
+     * @param stats statistics of a GeocellManager.bestBboxSearchCells call.
+     */
+    void bestBboxSearchCells(BboxSearchStats stats);
+
+}
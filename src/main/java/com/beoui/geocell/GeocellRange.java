@@ -0,0 +1,154 @@
+/*
+Copyright 2010 Alexandre Gellibert
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.apache.org/licenses/
+LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing permissions
+and limitations under the License.
+*/
+
+package com.beoui.geocell;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Range of geocells of max resolution: the cells of one or more consecutive geocells and all
+ * their descendants, see {@link LocationCapableRangeSearch}.
+ *
+ * The range is [start, end) in packed geocells (see {@link PackedGeocellUtils}), and also
+ * [getStartGeocell(), getEndGeocell()) in geocell strings: a geocell of max resolution is in the
+ * range if and only if it is lexicographically between the two strings.
+ *
+ */
+public final class GeocellRange {
+
+    // End of the range of the root cell, after all the geocells.
+    private static final long UNBOUNDED = 1L << (4 * PackedGeocellUtils.MAX_RESOLUTION + 4);
+
+    // Resolution bits of packed geocells.
+    private static final long RESOLUTION_MASK = 0xfL;
+
+    private final long start;
+    private final long end;
+
+    private GeocellRange(long start, long end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Merges the cells and their descendants in the fewest ranges. Cells nested in another cell
+     * are dropped, consecutive cells are merged.
+     *
+     * Entities storing only their geocell of max resolution, cells finer than max resolution
+     * are truncated to max resolution: their range may contain entities outside the cell.
+     *
+     * @param geocells geocells of any resolution, ex: returned by bestBboxSearchCells.
+     * @return the sorted, disjoint and non-consecutive ranges of the cells.
+     */
+    public static List<GeocellRange> merge(List<String> geocells) {
+        long[] cells = new long[geocells.size()];
+        for(int i = 0; i < cells.length; i++) {
+            String geocell = geocells.get(i);
+            if(geocell.length() > PackedGeocellUtils.MAX_RESOLUTION) {
+                geocell = geocell.substring(0, PackedGeocellUtils.MAX_RESOLUTION);
+            }
+            cells[i] = PackedGeocellUtils.pack(geocell);
+        }
+        return mergePacked(cells);
+    }
+
+    /**
+     * See {@link #merge(List)}.
+     *
+     * @param cells packed geocells of any resolution, sorted in place.
+     */
+    public static List<GeocellRange> mergePacked(long[] cells) {
+        Arrays.sort(cells);
+        List<GeocellRange> ranges = new ArrayList<GeocellRange>();
+        int i = 0;
+        while(i < cells.length) {
+            long start = cells[i];
+            long end = PackedGeocellUtils.descendantsEnd(start);
+            // Without its resolution, a cell is the lowest key of its range: it continues the
+            // range if it is lower or equal to the end.
+            while(++i < cells.length && (cells[i] & ~RESOLUTION_MASK) <= end) {
+                end = Math.max(end, PackedGeocellUtils.descendantsEnd(cells[i]));
+            }
+            ranges.add(new GeocellRange(start, end));
+        }
+        return ranges;
+    }
+
+    /**
+     * @return the first packed geocell of the range, lower than all the cells of the range.
+     */
+    public long getStart() {
+        return start;
+    }
+
+    /**
+     * @return the exclusive end of the range, in packed geocells. Not a valid packed geocell.
+     */
+    public long getEnd() {
+        return end;
+    }
+
+    /**
+     * @return the first geocell of the range, lower or equal to all the geocells of the range.
+     */
+    public String getStartGeocell() {
+        return PackedGeocellUtils.unpack(start);
+    }
+
+    /**
+     * @return the exclusive end of the range in geocell strings, or null if the range includes
+     * the last geocells (ex: the range of cell "f").
+     */
+    public String getEndGeocell() {
+        if(end >= UNBOUNDED) {
+            return null;
+        }
+        // The shortest string of the digits of end: trailing zeros don't change the bound.
+        int resolution = PackedGeocellUtils.MAX_RESOLUTION;
+        while(resolution > 0 && PackedGeocellUtils.digit(end, resolution) == 0) {
+            resolution--;
+        }
+        return PackedGeocellUtils.unpack(end | resolution);
+    }
+
+    /**
+     * @param cell packed geocell of max resolution.
+     * @return true if the cell is in the range.
+     */
+    public boolean contains(long cell) {
+        return cell >= start && cell < end;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if(!(obj instanceof GeocellRange)) {
+            return false;
+        }
+        GeocellRange other = (GeocellRange) obj;
+        return start == other.start && end == other.end;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(start) * 31 + Long.hashCode(end);
+    }
+
+    @Override
+    public String toString() {
+        String endGeocell = getEndGeocell();
+        return "[" + getStartGeocell() + ", " + (endGeocell == null ? "" : endGeocell) + ")";
+    }
+
+}
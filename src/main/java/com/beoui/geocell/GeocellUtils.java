@@ -12,14 +12,18 @@ and limitations under the License.
  */
 package com.beoui.geocell;
 
+import java.nio.DoubleBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 
+import org.apache.commons.lang.Validate;
+
 import com.beoui.geocell.comparator.DoubleTupleComparator;
 import com.beoui.geocell.model.BoundingBox;
+import com.beoui.geocell.model.MutableBoundingBox;
 import com.beoui.geocell.model.Point;
 import com.beoui.geocell.model.Tuple;
 
@@ -52,7 +56,6 @@ public final class GeocellUtils {
 
     // Geocell algorithm constants.
     public static final int GEOCELL_GRID_SIZE = 4;
-    private static final String GEOCELL_ALPHABET = "0123456789abcdef";
 
     // Direction enumerations.
     private static final int[] NORTHWEST = new int[] {-1,1};
@@ -65,7 +68,10 @@ public final class GeocellUtils {
     private static final int[] WEST = new int[] {-1,0};
 
 
-    private static final int RADIUS = 6378135;
+    // Earth radius used by distance functions, in meters.
+    public static final int RADIUS = 6378135;
+
+    private static volatile GeocellGeometryCache geometryCache;
 
     private GeocellUtils() {
         // no instantiation allowed
@@ -87,12 +93,10 @@ public final class GeocellUtils {
     public static boolean collinear(String cell1, String cell2, boolean columnTest) {
 
         for(int i = 0; i < Math.min(cell1.length(), cell2.length()); i++) {
-            int l1[] = subdivXY(cell1.charAt(i));
-            int x1 = l1[0];
-            int y1 = l1[1];
-            int l2[] = subdivXY(cell2.charAt(i));
-            int x2 = l2[0];
-            int y2 = l2[1];
+            int x1 = subdivX(cell1.charAt(i));
+            int y1 = subdivY(cell1.charAt(i));
+            int x2 = subdivX(cell2.charAt(i));
+            int y2 = subdivY(cell2.charAt(i));
 
             // Check row collinearity (assure y's are always the same).
             if (!columnTest && y1 != y2) {
@@ -122,6 +126,17 @@ public final class GeocellUtils {
      * @return A list of geocell strings in the interpolation.
      */
     public static List<String> interpolate(String cellNE, String cellSW) {
+        long packedNE = PackedGeocellUtils.tryPack(cellNE);
+        long packedSW = PackedGeocellUtils.tryPack(cellSW);
+        if(packedNE != PackedGeocellUtils.NO_CELL && packedSW != PackedGeocellUtils.NO_CELL
+                && PackedGeocellUtils.resolution(packedNE) == PackedGeocellUtils.resolution(packedSW)) {
+            return CellGrid.between(packedNE, packedSW).toGeocells();
+        }
+        return interpolateByAdjacency(cellNE, cellSW);
+    }
+
+    // Walks the grid with adjacent, for cells that CellGrid doesn't handle.
+    private static List<String> interpolateByAdjacency(String cellNE, String cellSW) {
         // 2D array, will later be flattened.
         LinkedList<LinkedList<String>> cellSet = new LinkedList<LinkedList<String>>();
         LinkedList<String> cellFirst = new LinkedList<String>();
@@ -171,10 +186,16 @@ public final class GeocellUtils {
 
      * @param cellNE: The Northeast geocell string.
      * @param cellSW: The Southwest geocell string.
-     * @return An int, indicating the number of geocells in the interpolation.
+     * @return An int, indicating the number of geocells in the interpolation
+     * (Integer.MAX_VALUE if there are more).
      */
     public static int interpolationCount(String cellNE, String cellSW) {
-
+        long packedNE = PackedGeocellUtils.tryPack(cellNE);
+        long packedSW = PackedGeocellUtils.tryPack(cellSW);
+        if(packedNE != PackedGeocellUtils.NO_CELL && packedSW != PackedGeocellUtils.NO_CELL
+                && PackedGeocellUtils.resolution(packedNE) == PackedGeocellUtils.resolution(packedSW)) {
+            return (int) Math.min(CellGrid.between(packedNE, packedSW).size(), Integer.MAX_VALUE);
+        }
 
         BoundingBox bboxNE = computeBox(cellNE);
         BoundingBox bboxSW = computeBox(cellSW);
@@ -221,15 +242,19 @@ public final class GeocellUtils {
         if(cell == null) {
             return null;
         }
+        long packed = PackedGeocellUtils.tryPack(cell);
+        if(packed != PackedGeocellUtils.NO_CELL) {
+            long adjacent = PackedGeocellUtils.adjacent(packed, dir);
+            return adjacent == PackedGeocellUtils.NO_CELL ? null : PackedGeocellUtils.unpack(adjacent);
+        }
         int dx = dir[0];
         int dy = dir[1];
         char[] cellAdjArr = cell.toCharArray(); // Split the geocell string characters into a list.
         int i = cellAdjArr.length - 1;
 
         while(i >= 0 && (dx != 0 || dy != 0)) {
-            int l[]= subdivXY(cellAdjArr[i]);
-            int x = l[0];
-            int y = l[1];
+            int x = subdivX(cellAdjArr[i]);
+            int y = subdivY(cellAdjArr[i]);
 
             // Horizontal adjacency.
             if(dx == -1) {  // Asking for left.
@@ -266,8 +291,7 @@ public final class GeocellUtils {
                 }
             }
 
-            int l2[] = {x,y};
-            cellAdjArr[i] = subdivChar(l2);
+            cellAdjArr[i] = subdivChar(x, y);
             i--;
         }
         // If we're not done with y then it's trying to wrap vertically,
@@ -288,6 +312,10 @@ public final class GeocellUtils {
      * @return Returns whether or not the given cell contains the given point.
      */
     public static boolean containsPoint(String cell, Point point) {
+        long packed = PackedGeocellUtils.tryPack(cell);
+        if(packed != PackedGeocellUtils.NO_CELL) {
+            return PackedGeocellUtils.compute(point, PackedGeocellUtils.resolution(packed)) == packed;
+        }
         return compute(point, cell.length()).equalsIgnoreCase(cell);
     }
 
@@ -337,13 +365,36 @@ public final class GeocellUtils {
      * @return The geocell string containing the given point, of length resolution.
      */
     public static String compute(Point point, int resolution) {
+        char[] cell = new char[resolution];
+        compute(point, cell, resolution);
+        return new String(cell);
+    }
+
+    /**
+     * Computes the geocell containing the given point to the given resolution
+     * and writes its characters in the given array.
+     *
+      Since the 16-tree lookup is the same for all resolutions, the first i
+      characters of the array are the geocell of resolution i.
+     *
+     * @param point: The geotypes.Point to compute the cell for.
+     * @param cell: The array receiving the characters of the geocell, of length at least resolution.
+     * @param resolution: An int indicating the resolution of the cell to compute.
+     */
+    public static void compute(Point point, char[] cell, int resolution) {
+        if(resolution <= PackedGeocellUtils.MAX_RESOLUTION) {
+            long packed = PackedGeocellUtils.compute(point, resolution);
+            for(int i = 0; i < resolution; i++) {
+                cell[i] = PackedGeocellUtils.digitChar(PackedGeocellUtils.digit(packed, i + 1));
+            }
+            return;
+        }
         float north = 90.0f;
         float south = -90.0f;
         float east = 180.0f;
         float west = -180.0f;
 
-        StringBuilder cell = new StringBuilder();
-        while(cell.length() < resolution) {
+        for(int i = 0; i < resolution; i++) {
             float subcellLonSpan = (east - west) / GEOCELL_GRID_SIZE;
             float subcellLatSpan = (north - south) / GEOCELL_GRID_SIZE;
 
@@ -352,8 +403,7 @@ public final class GeocellUtils {
             int y = Math.min((int)(GEOCELL_GRID_SIZE * (point.getLat() - south) / (north - south)),
                     GEOCELL_GRID_SIZE - 1);
 
-            int l[] = {x,y};
-            cell.append(subdivChar(l));
+            cell[i] = subdivChar(x, y);
 
             south += subcellLatSpan * y;
             north = south + subcellLatSpan;
@@ -361,7 +411,6 @@ public final class GeocellUtils {
             west += subcellLonSpan * x;
             east = west + subcellLonSpan;
         }
-        return cell.toString();
     }
 
     /**
@@ -374,26 +423,55 @@ public final class GeocellUtils {
         if(cell_ == null) {
             return null;
         }
+        GeocellGeometryCache cache = geometryCache;
+        if(cache != null) {
+            return cache.computeBox(cell_);
+        }
+        return computeBox(cell_, new MutableBoundingBox());
+    }
 
-        BoundingBox bbox = new BoundingBox(90.0, 180.0, -90.0, -180.0);
-        StringBuilder cell = new StringBuilder(cell_);
-        while(cell.length() > 0) {
-            double subcellLonSpan = (bbox.getEast() - bbox.getWest()) / GEOCELL_GRID_SIZE;
-            double subcellLatSpan = (bbox.getNorth() - bbox.getSouth()) / GEOCELL_GRID_SIZE;
-
-            int l[] = subdivXY(cell.charAt(0));
-            int x = l[0];
-            int y = l[1];
-
-            bbox = new BoundingBox(bbox.getSouth() + subcellLatSpan * (y + 1),
-                    bbox.getWest()  + subcellLonSpan * (x + 1),
-                    bbox.getSouth() + subcellLatSpan * y,
-                    bbox.getWest()  + subcellLonSpan * x);
-
-            cell.deleteCharAt(0);
+    /**
+     * Same as {@link #computeBox(String)} without allocation (and without cache).
+     *
+     * @param cell_: The geocell string whose boundaries are to be computed.
+     * @param bbox: The box receiving the boundaries.
+     * @return the given box.
+     */
+    public static MutableBoundingBox computeBox(String cell_, MutableBoundingBox bbox) {
+        double north = 90.0;
+        double east = 180.0;
+        double south = -90.0;
+        double west = -180.0;
+        for(int i = 0; i < cell_.length(); i++) {
+            double subcellLonSpan = (east - west) / GEOCELL_GRID_SIZE;
+            double subcellLatSpan = (north - south) / GEOCELL_GRID_SIZE;
+
+            int x = subdivX(cell_.charAt(i));
+            int y = subdivY(cell_.charAt(i));
+
+            north = south + subcellLatSpan * (y + 1);
+            east = west + subcellLonSpan * (x + 1);
+            south = south + subcellLatSpan * y;
+            west = west + subcellLonSpan * x;
         }
+        return bbox.set(north, east, south, west);
+    }
 
-        return bbox;
+    /**
+     * Installs a cache used by computeBox, and so by all the methods computing cell boxes
+     * (pointDistance, interpolationCount, distanceSortedEdges...).
+     *
+     * @param cache the cache to use, or null to compute boxes each time (default).
+     */
+    public static void setGeometryCache(GeocellGeometryCache cache) {
+        geometryCache = cache;
+    }
+
+    /**
+     * @return the cache used by computeBox, or null if none.
+     */
+    public static GeocellGeometryCache getGeometryCache() {
+        return geometryCache;
     }
 
     /**
@@ -405,8 +483,8 @@ public final class GeocellUtils {
         if(cell == null) {
             return false;
         }
-        for(char c : cell.toCharArray()) {
-            if(GEOCELL_ALPHABET.indexOf(c) < 0) {
+        for(int i = 0; i < cell.length(); i++) {
+            if(PackedGeocellUtils.digitOf(cell.charAt(i)) < 0) {
                 return false;
             }
         }
@@ -419,10 +497,19 @@ public final class GeocellUtils {
      * @return Returns the (x, y) of the geocell character in the 4x4 alphabet grid.
      */
     public static int[] subdivXY(char char_) {
+        return new int[] {subdivX(char_), subdivY(char_)};
+    }
+
+    private static int subdivX(char char_) {
+        // NOTE: This only works for grid size 4.
+        int charI = PackedGeocellUtils.digitOf(char_);
+        return (charI & 4) >> 1 | (charI & 1) >> 0;
+    }
+
+    private static int subdivY(char char_) {
         // NOTE: This only works for grid size 4.
-        int charI = GEOCELL_ALPHABET.indexOf(char_);
-        return new int[] {(charI & 4) >> 1 | (charI & 1) >> 0,
-        (charI & 8) >> 2 | (charI & 2) >> 1};
+        int charI = PackedGeocellUtils.digitOf(char_);
+        return (charI & 8) >> 2 | (charI & 2) >> 1;
     }
 
     /**
@@ -431,12 +518,16 @@ public final class GeocellUtils {
      * @return Returns the geocell character in the 4x4 alphabet grid at pos. (x, y).
      */
     public static char subdivChar(int[] pos) {
+        return subdivChar(pos[0], pos[1]);
+    }
+
+    private static char subdivChar(int x, int y) {
         // NOTE: This only works for grid size 4.
-        return GEOCELL_ALPHABET.charAt(
-                (pos[1] & 2) << 2 |
-                (pos[0] & 2) << 1 |
-                (pos[1] & 1) << 1 |
-                (pos[0] & 1) << 0);
+        return PackedGeocellUtils.digitChar(
+                (y & 2) << 2 |
+                (x & 2) << 1 |
+                (y & 1) << 1 |
+                (x & 1) << 0);
     }
 
     /**
@@ -455,6 +546,167 @@ public final class GeocellUtils {
                 Math.cos(p1lat) * Math.cos(p2lat) * Math.cos(p2lon - p1lon));
     }
 
+    /**
+     * Same as {@link #distance(Point, Point)} from the center to a batch of points given by
+     * parallel arrays, without creating any object per point.
+     *
+     * @param center the center.
+     * @param lats latitudes of the points.
+     * @param lons longitudes of the points.
+     * @param distances array receiving the distance to point i at index i, in meters.
+     * @param length number of points.
+     */
+    public static void distances(Point center, double[] lats, double[] lons, double[] distances, int length) {
+        Validate.isTrue(lats.length >= length && lons.length >= length && distances.length >= length, "Arrays too small for length: ", length);
+        double centerLat = Math.toRadians(center.getLat());
+        double centerLon = Math.toRadians(center.getLon());
+        double sinCenterLat = Math.sin(centerLat);
+        double cosCenterLat = Math.cos(centerLat);
+        // Counted loop without calls other than intrinsics, nor dependency between iterations.
+        for(int i = 0; i < length; i++) {
+            double lat = Math.toRadians(lats[i]);
+            distances[i] = RADIUS * Math.acos(sinCenterLat * Math.sin(lat) +
+                    cosCenterLat * Math.cos(lat) * Math.cos(Math.toRadians(lons[i]) - centerLon));
+        }
+    }
+
+    /**
+     * Same as {@link #distances(Point, double[], double[], double[], int)} for points stored in a buffer
+     * as (lat, lon) pairs, from its position to its limit. The buffer position is not modified.
+     *
+     * @param distances array receiving the distance to point i at index i, in meters.
+     */
+    public static void distances(Point center, DoubleBuffer coordinates, double[] distances) {
+        int length = coordinates.remaining() / 2;
+        Validate.isTrue(distances.length >= length, "Array too small for length: ", length);
+        int offset = coordinates.position();
+        double centerLat = Math.toRadians(center.getLat());
+        double centerLon = Math.toRadians(center.getLon());
+        double sinCenterLat = Math.sin(centerLat);
+        double cosCenterLat = Math.cos(centerLat);
+        for(int i = 0; i < length; i++) {
+            double lat = Math.toRadians(coordinates.get(offset + 2 * i));
+            distances[i] = RADIUS * Math.acos(sinCenterLat * Math.sin(lat) +
+                    cosCenterLat * Math.cos(lat) * Math.cos(Math.toRadians(coordinates.get(offset + 2 * i + 1)) - centerLon));
+        }
+    }
+
+    /**
+     * Returns the indexes of the k points closest to the center, among a batch of points given by parallel arrays.
+     *
+     * Points are ranked by the squared length of the chord to the center (haversine formula, no inverse
+     * trigonometric function) and selected with a heap of size k on primitive arrays.
+     *
+     * @param center the center.
+     * @param lats latitudes of the points.
+     * @param lons longitudes of the points.
+     * @param length number of points.
+     * @param k number of points to return.
+     * @return the indexes of the min(k, length) closest points, sorted by ascending distance (then by index).
+     */
+    public static int[] nearest(Point center, double[] lats, double[] lons, int length, int k) {
+        Validate.isTrue(lats.length >= length && lons.length >= length, "Arrays too small for length: ", length);
+        double[] ranks = new double[length];
+        double centerLat = Math.toRadians(center.getLat());
+        double centerLon = Math.toRadians(center.getLon());
+        double cosCenterLat = Math.cos(centerLat);
+        for(int i = 0; i < length; i++) {
+            ranks[i] = squaredChord(centerLat, cosCenterLat, centerLon, lats[i], lons[i]);
+        }
+        return nearest(ranks, k);
+    }
+
+    /**
+     * Same as {@link #nearest(Point, double[], double[], int, int)} for points stored in a buffer
+     * as (lat, lon) pairs, from its position to its limit. The buffer position is not modified.
+     *
+     * @return the indexes (in pairs from the buffer position) of the min(k, number of points) closest points,
+     * sorted by ascending distance (then by index).
+     */
+    public static int[] nearest(Point center, DoubleBuffer coordinates, int k) {
+        int length = coordinates.remaining() / 2;
+        int offset = coordinates.position();
+        double[] ranks = new double[length];
+        double centerLat = Math.toRadians(center.getLat());
+        double centerLon = Math.toRadians(center.getLon());
+        double cosCenterLat = Math.cos(centerLat);
+        for(int i = 0; i < length; i++) {
+            ranks[i] = squaredChord(centerLat, cosCenterLat, centerLon, coordinates.get(offset + 2 * i), coordinates.get(offset + 2 * i + 1));
+        }
+        return nearest(ranks, k);
+    }
+
+    // Squared chord between the center (in radians) and the point (in degrees) on the unit sphere, divided by 4.
+    private static double squaredChord(double centerLat, double cosCenterLat, double centerLon, double lat, double lon) {
+        double latRadians = Math.toRadians(lat);
+        double sinHalfDeltaLat = Math.sin((latRadians - centerLat) / 2);
+        double sinHalfDeltaLon = Math.sin((Math.toRadians(lon) - centerLon) / 2);
+        return sinHalfDeltaLat * sinHalfDeltaLat + cosCenterLat * Math.cos(latRadians) * sinHalfDeltaLon * sinHalfDeltaLon;
+    }
+
+    // Indexes of the k lowest ranks, sorted, using a max-heap of indexes.
+    private static int[] nearest(double[] ranks, int k) {
+        Validate.isTrue(k > 0, "k must be > 0: ", k);
+        int[] heap = new int[Math.min(k, ranks.length)];
+        int size = 0;
+        for(int i = 0; i < ranks.length; i++) {
+            if(size < heap.length) {
+                heap[size] = i;
+                siftUp(heap, size++, ranks);
+            } else if(ranks[i] < ranks[heap[0]]) {
+                // Ties are kept in index order: the first indexes win.
+                heap[0] = i;
+                siftDown(heap, size, ranks);
+            }
+        }
+        // Heap sort: moves the farthest remaining index at the end.
+        while(size > 1) {
+            int farthest = heap[0];
+            heap[0] = heap[--size];
+            heap[size] = farthest;
+            siftDown(heap, size, ranks);
+        }
+        return heap;
+    }
+
+    private static boolean isFarther(int index1, int index2, double[] ranks) {
+        int compare = Double.compare(ranks[index1], ranks[index2]);
+        return compare > 0 || compare == 0 && index1 > index2;
+    }
+
+    private static void siftUp(int[] heap, int i, double[] ranks) {
+        int index = heap[i];
+        while(i > 0) {
+            int parent = (i - 1) >>> 1;
+            if(!isFarther(index, heap[parent], ranks)) {
+                break;
+            }
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = index;
+    }
+
+    private static void siftDown(int[] heap, int size, double[] ranks) {
+        int index = heap[0];
+        int i = 0;
+        while(true) {
+            int child = 2 * i + 1;
+            if(child >= size) {
+                break;
+            }
+            if(child + 1 < size && isFarther(heap[child + 1], heap[child], ranks)) {
+                child++;
+            }
+            if(!isFarther(heap[child], index, ranks)) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = index;
+    }
+
     /**
      * Returns the edges of the rectangular region containing all of the
           given geocells, sorted by distance from the given point, along with
@@ -473,7 +725,10 @@ public final class GeocellUtils {
     public static List<Tuple<int[],Double>> distanceSortedEdges(List<String> cells, Point point) {
         List<BoundingBox> boxes = new ArrayList<BoundingBox>();
         for(String cell : cells) {
-            boxes.add(computeBox(cell));
+            // Null cells (no adjacent cell beyond the poles) cover nothing.
+            if(cell != null) {
+                boxes.add(computeBox(cell));
+            }
         }
         double maxNorth = Double.NEGATIVE_INFINITY;
         double maxEast = Double.NEGATIVE_INFINITY;
@@ -0,0 +1,170 @@
+/*
+Copyright 2010 Alexandre Gellibert
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.apache.org/licenses/
+LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing permissions
+and limitations under the License.
+*/
+
+package com.beoui.geocell;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Metrics listener aggregating the statistics of the queries in {@link Histogram}s, without any
+ * dependency. Durations are in microseconds.
+ *
+ * Comparing repository and algorithm (merge, sort) times tells whether slow proximity fetches
+ * come from the datastore or from the search itself.
+ *
+ */
+public class HistogramMetricsListener implements GeocellMetricsListener {
+
+    private final Histogram proximityFetchMicros = new Histogram();
+    private final Histogram repositoryMicros = new Histogram();
+    private final Histogram mergeMicros = new Histogram();
+    private final Histogram sortMicros = new Histogram();
+    private final Histogram iterations = new Histogram();
+    private final Histogram entitiesFetched = new Histogram();
+    private final Histogram entitiesReturned = new Histogram();
+    private final AtomicLongArray cellsByResolution = new AtomicLongArray(GeocellManager.MAX_GEOCELL_RESOLUTION + 1);
+    private final AtomicLongArray terminations = new AtomicLongArray(ProximityFetchStats.TerminationReason.values().length);
+
+    private final Histogram bboxSearchMicros = new Histogram();
+    private final Histogram bboxCells = new Histogram();
+    private final Histogram bboxResolutionsEvaluated = new Histogram();
+
+    @Override
+    public void proximityFetch(ProximityFetchStats stats) {
+        proximityFetchMicros.record(stats.getNanos() / 1000);
+        for(int i = 0; i < stats.getIterations(); i++) {
+            repositoryMicros.record(stats.getRepositoryNanos(i) / 1000);
+        }
+        mergeMicros.record(stats.getMergeNanos() / 1000);
+        sortMicros.record(stats.getSortNanos() / 1000);
+        iterations.record(stats.getIterations());
+        entitiesFetched.record(stats.getEntitiesFetched());
+        entitiesReturned.record(stats.getEntitiesReturned());
+        for(int resolution = 1; resolution <= GeocellManager.MAX_GEOCELL_RESOLUTION; resolution++) {
+            int cells = stats.getCellsSearched(resolution);
+            if(cells > 0) {
+                cellsByResolution.addAndGet(resolution, cells);
+            }
+        }
+        terminations.incrementAndGet(stats.getTerminationReason().ordinal());
+    }
+
+    @Override
+    public void bestBboxSearchCells(BboxSearchStats stats) {
+        bboxSearchMicros.record(stats.getNanos() / 1000);
+        bboxCells.record(stats.getNumCells());
+        bboxResolutionsEvaluated.record(stats.getResolutionsEvaluated());
+    }
+
+    /**
+     * @return durations of the proximity fetches, in microseconds.
+     */
+    public Histogram getProximityFetchMicros() {
+        return proximityFetchMicros;
+    }
+
+    /**
+     * @return durations of the repository searches of the proximity fetches, one per iteration, in microseconds.
+     */
+    public Histogram getRepositoryMicros() {
+        return repositoryMicros;
+    }
+
+    /**
+     * @return time spent by each proximity fetch ranking the fetched entities, in microseconds.
+     */
+    public Histogram getMergeMicros() {
+        return mergeMicros;
+    }
+
+    /**
+     * @return time spent by each proximity fetch sorting its results, in microseconds.
+     */
+    public Histogram getSortMicros() {
+        return sortMicros;
+    }
+
+    public Histogram getIterations() {
+        return iterations;
+    }
+
+    public Histogram getEntitiesFetched() {
+        return entitiesFetched;
+    }
+
+    public Histogram getEntitiesReturned() {
+        return entitiesReturned;
+    }
+
+    /**
+     * @param resolution resolution between 1 and MAX_GEOCELL_RESOLUTION.
+     * @return the number of cells of this resolution searched by all the proximity fetches.
+     */
+    public long getCellsSearched(int resolution) {
+        return cellsByResolution.get(resolution);
+    }
+
+    /**
+     * @return the number of proximity fetches which stopped for this reason.
+     */
+    public long getTerminations(ProximityFetchStats.TerminationReason reason) {
+        return terminations.get(reason.ordinal());
+    }
+
+    /**
+     * @return durations of the bestBboxSearchCells calls, in microseconds.
+     */
+    public Histogram getBboxSearchMicros() {
+        return bboxSearchMicros;
+    }
+
+    public Histogram getBboxCells() {
+        return bboxCells;
+    }
+
+    public Histogram getBboxResolutionsEvaluated() {
+        return bboxResolutionsEvaluated;
+    }
+
+    /**
+     * Writes all the histograms and counters, one per line.
+     *
+     * @param out ex: a Writer or a StringBuilder.
+     */
+    public void write(Appendable out) throws IOException {
+        write(out, "proximityFetch.micros", proximityFetchMicros);
+        write(out, "proximityFetch.repository.micros", repositoryMicros);
+        write(out, "proximityFetch.merge.micros", mergeMicros);
+        write(out, "proximityFetch.sort.micros", sortMicros);
+        write(out, "proximityFetch.iterations", iterations);
+        write(out, "proximityFetch.entities.fetched", entitiesFetched);
+        write(out, "proximityFetch.entities.returned", entitiesReturned);
+        for(int resolution = 1; resolution <= GeocellManager.MAX_GEOCELL_RESOLUTION; resolution++) {
+            out.append("proximityFetch.cells.resolution").append(String.valueOf(resolution)).append(' ')
+                    .append(String.valueOf(cellsByResolution.get(resolution))).append('\n');
+        }
+        for(ProximityFetchStats.TerminationReason reason : ProximityFetchStats.TerminationReason.values()) {
+            out.append("proximityFetch.termination.").append(reason.name()).append(' ')
+                    .append(String.valueOf(terminations.get(reason.ordinal()))).append('\n');
+        }
+        write(out, "bestBboxSearchCells.micros", bboxSearchMicros);
+        write(out, "bestBboxSearchCells.cells", bboxCells);
+        write(out, "bestBboxSearchCells.resolutionsEvaluated", bboxResolutionsEvaluated);
+    }
+
+    private static void write(Appendable out, String name, Histogram histogram) throws IOException {
+        out.append(name).append(' ').append(histogram.toString()).append('\n');
+    }
+
+}
@@ -0,0 +1,419 @@
+/*
+Copyright 2010 Alexandre Gellibert
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.apache.org/licenses/
+LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing permissions
+and limitations under the License.
+*/
+
+package com.beoui.geocell;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.commons.lang.Validate;
+
+import com.beoui.geocell.model.LocationCapable;
+
+/**
+ * In-memory spatial index of LocationCapable entities, searchable by geocells of any resolution.
+ *
+ * Each entity is stored once, under the packed geocell of max resolution of its location
+ * (see {@link PackedGeocellUtils}). Since the packed cells of all descendants of a cell
+ * form a contiguous range, searching a geocell is a range scan over sorted primitive keys.
+ *
+ * Keys are split in 256 shards (first two characters of the geocell), each one being a
+ * list of sorted chunks protected by its own read/write lock, so inserts, removals and
+ * moves can run concurrently with searches.
+ *
+ * Entities are identified by their key (getKeyString): putting an entity whose key is
+ * already in the index replaces it, which is how moving entities are updated.
+ *
+ * The index is also a sink of {@link BulkGeocellEncoder} and {@link GeocellBulkLoader}, for bulk loads,
+ * and can be searched by ranges of geocells (see {@link LocationCapableRangeSearch}).
+ *
+ * @param <T> type of the indexed entities
+ */
+public class InMemoryGeocellIndex<T extends LocationCapable> implements LocationCapableRepositorySearch<T>, LocationCapableRangeSearch<T>, BulkGeocellEncoder.Sink<T> {
+
+    private static final int MAX_RESOLUTION = PackedGeocellUtils.MAX_RESOLUTION;
+
+    // Shards on the 2 first digits: bits 55..48 of packed geocells.
+    private static final int SHARD_SHIFT = 48;
+    private static final int NUM_SHARDS = 256;
+
+    private static final int NUM_KEY_LOCKS = 64;
+
+    private final Shard[] shards = new Shard[NUM_SHARDS];
+    private final ConcurrentHashMap<String, Long> cellsByKey = new ConcurrentHashMap<String, Long>();
+    private final Object[] keyLocks = new Object[NUM_KEY_LOCKS];
+
+    public InMemoryGeocellIndex() {
+        for(int i = 0; i < NUM_SHARDS; i++) {
+            shards[i] = new Shard();
+        }
+        for(int i = 0; i < NUM_KEY_LOCKS; i++) {
+            keyLocks[i] = new Object();
+        }
+    }
+
+    /**
+     * Adds the entity to the index, or replaces the entity having the same key.
+     *
+     * @param entity entity with a location and a key.
+     */
+    public void put(T entity) {
+        put(entity, PackedGeocellUtils.compute(entity.getLocation(), MAX_RESOLUTION));
+    }
+
+    private void put(T entity, long cell) {
+        String key = entity.getKeyString();
+        Validate.notNull(key);
+        synchronized(keyLock(key)) {
+            Long previousCell = cellsByKey.put(key, cell);
+            if(previousCell != null) {
+                shard(previousCell).remove(previousCell, key);
+            }
+            shard(cell).insert(cell, entity);
+        }
+    }
+
+    /**
+     * Adds a batch of entities whose geocells are already computed, ex: by a {@link GeocellBulkLoader}.
+     * Same as put for each entity.
+     */
+    @Override
+    public void accept(List<T> entities, GeocellColumns geocells) {
+        long[] cells = geocells.getCells(MAX_RESOLUTION);
+        for(int i = 0; i < entities.size(); i++) {
+            put(entities.get(i), cells[i]);
+        }
+    }
+
+    /**
+     * Updates the position of an entity after its location changed. Same as put.
+     *
+     * @param entity entity with its new location.
+     */
+    public void move(T entity) {
+        put(entity);
+    }
+
+    /**
+     * @param entity
+     * @return true if the entity (or an entity with the same key) was in the index.
+     */
+    public boolean remove(T entity) {
+        return remove(entity.getKeyString());
+    }
+
+    /**
+     * @param key key of the entity to remove.
+     * @return true if an entity with this key was in the index.
+     */
+    public boolean remove(String key) {
+        synchronized(keyLock(key)) {
+            Long cell = cellsByKey.remove(key);
+            if(cell == null) {
+                return false;
+            }
+            shard(cell).remove(cell, key);
+            return true;
+        }
+    }
+
+    /**
+     * @return the number of entities in the index.
+     */
+    public int size() {
+        return cellsByKey.size();
+    }
+
+    /**
+     * Returns the entities located in any of the given geocells.
+     * Cells can have different resolutions, each entity is returned once.
+     */
+    public List<T> search(List<String> geocells) {
+        List<T> results = new ArrayList<T>();
+        long[] cells = new long[geocells.size()];
+        int numCells = 0;
+        List<String> finerCells = new ArrayList<String>();
+        for(String geocell : geocells) {
+            if(geocell.length() > MAX_RESOLUTION) {
+                finerCells.add(geocell);
+            } else {
+                cells[numCells++] = PackedGeocellUtils.pack(geocell);
+            }
+        }
+        long[] sortedCells = Arrays.copyOf(cells, numCells);
+        searchPacked(sortedCells, results);
+
+        // Finer than the index: search the max resolution cell and filter,
+        // unless the cell is inside another one already searched.
+        Collections.sort(finerCells);
+        String previous = null;
+        for(String geocell : finerCells) {
+            if(previous != null && geocell.startsWith(previous)
+                    || PackedGeocellUtils.isInAny(PackedGeocellUtils.pack(geocell.substring(0, MAX_RESOLUTION)), sortedCells)) {
+                continue;
+            }
+            searchFinerCell(geocell, results);
+            previous = geocell;
+        }
+        return results;
+    }
+
+    /**
+     * Adds to results the entities located in any of the given packed geocells.
+     *
+     * @param cells packed geocells of any resolution, sorted in place.
+     * @param results list receiving the entities.
+     */
+    public void searchPacked(long[] cells, List<T> results) {
+        Arrays.sort(cells);
+        long end = Long.MIN_VALUE;
+        for(long cell : cells) {
+            if(cell < end) {
+                // Cell is a descendant of the previous cell.
+                continue;
+            }
+            end = PackedGeocellUtils.descendantsEnd(cell);
+            searchRange(cell, end, results);
+        }
+    }
+
+    /**
+     * Returns the entities located in any of the ranges.
+     */
+    @Override
+    public List<T> searchRanges(List<GeocellRange> ranges) {
+        List<T> results = new ArrayList<T>();
+        for(GeocellRange range : ranges) {
+            searchRange(range.getStart(), range.getEnd(), results);
+        }
+        return results;
+    }
+
+    private void searchFinerCell(String geocell, List<T> results) {
+        List<T> candidates = new ArrayList<T>();
+        long cell = PackedGeocellUtils.pack(geocell.substring(0, MAX_RESOLUTION));
+        searchRange(cell, PackedGeocellUtils.descendantsEnd(cell), candidates);
+        for(T candidate : candidates) {
+            if(GeocellUtils.containsPoint(geocell, candidate.getLocation())) {
+                results.add(candidate);
+            }
+        }
+    }
+
+    private void searchRange(long start, long end, List<T> results) {
+        int lastShard = shardIndex(end - 1);
+        for(int i = shardIndex(start); i <= lastShard; i++) {
+            shards[i].collect(start, end, results);
+        }
+    }
+
+    private Shard shard(long cell) {
+        return shards[shardIndex(cell)];
+    }
+
+    private static int shardIndex(long cell) {
+        return (int) (cell >>> SHARD_SHIFT) & (NUM_SHARDS - 1);
+    }
+
+    private Object keyLock(String key) {
+        return keyLocks[(key.hashCode() & 0x7fffffff) % NUM_KEY_LOCKS];
+    }
+
+    /**
+     * Sorted list of (packed cell, entity), made of chunks of at most CHUNK_CAPACITY entries
+     * so that inserting or removing an entry only moves a few elements.
+     */
+    private static final class Shard {
+
+        private static final int CHUNK_CAPACITY = 512;
+
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+        // Chunks are sorted and never empty, except when there is a single chunk.
+        private Chunk[] chunks = {new Chunk()};
+        private int numChunks = 1;
+
+        void insert(long cell, Object entity) {
+            lock.writeLock().lock();
+            try {
+                int c = lastChunkStartingAtMost(cell);
+                Chunk chunk = chunks[c];
+                if(chunk.size == CHUNK_CAPACITY) {
+                    Chunk right = chunk.split();
+                    insertChunk(c + 1, right);
+                    if(cell >= right.keys[0]) {
+                        chunk = right;
+                    }
+                }
+                chunk.insert(cell, entity);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        boolean remove(long cell, String key) {
+            lock.writeLock().lock();
+            try {
+                for(int c = lastChunkStartingBefore(cell); c < numChunks && chunks[c].size > 0 && chunks[c].keys[0] <= cell; c++) {
+                    Chunk chunk = chunks[c];
+                    if(chunk.remove(cell, key)) {
+                        if(chunk.size == 0 && numChunks > 1) {
+                            removeChunk(c);
+                        }
+                        return true;
+                    }
+                }
+                return false;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        <E> void collect(long start, long end, List<E> results) {
+            lock.readLock().lock();
+            try {
+                for(int c = lastChunkStartingBefore(start); c < numChunks; c++) {
+                    Chunk chunk = chunks[c];
+                    if(chunk.size == 0 || chunk.keys[0] >= end) {
+                        break;
+                    }
+                    for(int i = chunk.lowerBound(start); i < chunk.size && chunk.keys[i] < end; i++) {
+                        results.add((E) chunk.values[i]);
+                    }
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        // Index of the last chunk whose first key is <= cell, or 0.
+        private int lastChunkStartingAtMost(long cell) {
+            int low = 0;
+            int high = numChunks - 1;
+            while(low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if(chunks[mid].keys[0] <= cell) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return low;
+        }
+
+        // Index of the last chunk whose first key is < cell, or 0: first chunk that may contain cell.
+        private int lastChunkStartingBefore(long cell) {
+            int low = 0;
+            int high = numChunks - 1;
+            while(low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if(chunks[mid].keys[0] < cell) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return low;
+        }
+
+        private void insertChunk(int index, Chunk chunk) {
+            if(numChunks == chunks.length) {
+                chunks = Arrays.copyOf(chunks, numChunks * 2);
+            }
+            System.arraycopy(chunks, index, chunks, index + 1, numChunks - index);
+            chunks[index] = chunk;
+            numChunks++;
+        }
+
+        private void removeChunk(int index) {
+            System.arraycopy(chunks, index + 1, chunks, index, numChunks - index - 1);
+            chunks[--numChunks] = null;
+        }
+
+        private static final class Chunk {
+
+            private final long[] keys = new long[CHUNK_CAPACITY];
+            private final Object[] values = new Object[CHUNK_CAPACITY];
+            private int size;
+
+            void insert(long cell, Object entity) {
+                int i = upperBound(cell);
+                System.arraycopy(keys, i, keys, i + 1, size - i);
+                System.arraycopy(values, i, values, i + 1, size - i);
+                keys[i] = cell;
+                values[i] = entity;
+                size++;
+            }
+
+            boolean remove(long cell, String key) {
+                for(int i = lowerBound(cell); i < size && keys[i] == cell; i++) {
+                    if(((LocationCapable) values[i]).getKeyString().equals(key)) {
+                        System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+                        System.arraycopy(values, i + 1, values, i, size - i - 1);
+                        values[--size] = null;
+                        return true;
+                    }
+                }
+                return false;
+            }
+
+            // Moves the upper half of this chunk in a new chunk.
+            Chunk split() {
+                Chunk right = new Chunk();
+                int half = size / 2;
+                right.size = size - half;
+                System.arraycopy(keys, half, right.keys, 0, right.size);
+                System.arraycopy(values, half, right.values, 0, right.size);
+                Arrays.fill(values, half, size, null);
+                size = half;
+                return right;
+            }
+
+            // Index of the first key >= cell.
+            int lowerBound(long cell) {
+                int low = 0;
+                int high = size;
+                while(low < high) {
+                    int mid = (low + high) >>> 1;
+                    if(keys[mid] < cell) {
+                        low = mid + 1;
+                    } else {
+                        high = mid;
+                    }
+                }
+                return low;
+            }
+
+            // Index of the first key > cell.
+            int upperBound(long cell) {
+                int low = 0;
+                int high = size;
+                while(low < high) {
+                    int mid = (low + high) >>> 1;
+                    if(keys[mid] <= cell) {
+                        low = mid + 1;
+                    } else {
+                        high = mid;
+                    }
+                }
+                return low;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,43 @@
+/*
+Copyright 2010 Alexandre Gellibert
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.apache.org/licenses/
+LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing permissions
+and limitations under the License.
+*/
+
+package com.beoui.geocell;
+
+import java.util.List;
+
+import com.beoui.geocell.model.LocationCapable;
+
+/**
+ * Repository of entities storing only their geocell of max resolution, searched by range scans.
+ *
+ * With {@link LocationCapableRepositorySearch}, entities store their geocells of all resolutions
+ * (see GeocellManager.generateGeoCell) so that any cell is matched by equality. Here each entity
+ * stores a single geocell, ex: GeocellUtils.compute(location, MAX_GEOCELL_RESOLUTION), and the
+ * cells of a query are merged in ranges of geocells (see {@link GeocellRange#merge(List)}).
+ *
+ * Use a {@link RangeRepositorySearch} to run the algorithms of GeocellManager on such a repository.
+ *
+ * @param <T> type of the entities
+ */
+public interface LocationCapableRangeSearch<T extends LocationCapable> {
+
+    /**
+     * Returns the entities whose geocell of max resolution is in any of the ranges,
+     * ex: geocell >= range.getStartGeocell() && geocell < range.getEndGeocell() for each range.
+     *
+     * @param ranges sorted and disjoint ranges, as returned by GeocellRange.merge.
+     * @return the entities in the ranges.
+     */
+    List<T> searchRanges(List<GeocellRange> ranges);
+
+}
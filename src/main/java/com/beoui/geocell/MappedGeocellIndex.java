@@ -0,0 +1,396 @@
+/*
+Copyright 2010 Alexandre Gellibert
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.apache.org/licenses/
+LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing permissions
+and limitations under the License.
+*/
+
+package com.beoui.geocell;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.lang.Validate;
+
+import com.beoui.geocell.model.LocationCapable;
+import com.beoui.geocell.model.Point;
+
+/**
+ * Read-only spatial index stored in a file written by {@link MappedGeocellIndexWriter},
+ * memory-mapped so that opening it is immediate and its pages are shared by all the processes
+ * reading the same file.
+ *
+ * Entries (key, latitude, longitude) are sorted by packed geocell of max resolution, so the
+ * entries of a geocell of any resolution are a contiguous range of rows. The file has a sparse
+ * directory giving the first row of each non-empty cell, for each resolution up to the directory
+ * resolution: searching a cell of these resolutions is a binary search in the directory, finer
+ * cells are then binary searched in the cells column. Ranges of geocells (see
+ * {@link LocationCapableRangeSearch}) are binary searched in the cells column.
+ *
+ * Nothing is read on heap at search time: entities are {@link Entry} views on a row of the file,
+ * reading its fields from the mapped buffers when accessed.
+ *
+ * File format, all numbers big-endian:
+ *
+ *      header     : magic (int), version (int), number of rows (long),
+ *                   directory resolution D (int), 0 (int), key bytes length (long)
+ *      sizes      : number of directory entries for each resolution 1..D (long)
+ *      directory  : for each resolution 1..D, sorted (packed cell, first row) pairs (long, long)
+ *      cells      : packed geocell of each row (long)
+ *      latitudes  : latitude of each row (double)
+ *      longitudes : longitude of each row (double)
+ *      key ends   : end of the key of each row in the key bytes (long)
+ *      key bytes  : UTF-8 keys, one after the other
+ *
+ */
+public class MappedGeocellIndex implements LocationCapableRepositorySearch<MappedGeocellIndex.Entry>, LocationCapableRangeSearch<MappedGeocellIndex.Entry> {
+
+    static final int MAGIC = 0x47434958;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    static final int MAX_DIRECTORY_RESOLUTION = 6;
+
+    private static final int MAX_RESOLUTION = PackedGeocellUtils.MAX_RESOLUTION;
+
+    private final long numRows;
+    private final int directoryResolution;
+    private final long[] directorySizes;
+    private final Section[] directory;
+    private final Section cells;
+    private final Section lats;
+    private final Section lons;
+    private final Section keyEnds;
+    private final Section keyBytes;
+
+    /**
+     * Maps the index file. The mapping stays valid after the file is closed,
+     * until the index is garbage collected.
+     *
+     * @param file index file written by {@link MappedGeocellIndexWriter}.
+     * @throws IOException if the file can't be read or is not an index file.
+     */
+    public MappedGeocellIndex(Path file) throws IOException {
+        Validate.notNull(file);
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(channel, header, 0);
+            if(header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                throw new IOException("Not a geocell index file: " + file);
+            }
+            numRows = header.getLong(8);
+            directoryResolution = header.getInt(16);
+            long keyBytesLength = header.getLong(24);
+            if(numRows < 0 || numRows > Integer.MAX_VALUE || directoryResolution < 1 || directoryResolution > MAX_DIRECTORY_RESOLUTION) {
+                throw new IOException("Corrupted geocell index file: " + file);
+            }
+
+            ByteBuffer sizes = ByteBuffer.allocate(8 * directoryResolution);
+            readFully(channel, sizes, HEADER_SIZE);
+            long offset = HEADER_SIZE + sizes.capacity();
+            directorySizes = new long[directoryResolution + 1];
+            directory = new Section[directoryResolution + 1];
+            for(int resolution = 1; resolution <= directoryResolution; resolution++) {
+                directorySizes[resolution] = sizes.getLong(8 * (resolution - 1));
+                directory[resolution] = new Section(channel, offset, 16 * directorySizes[resolution]);
+                offset += directory[resolution].length;
+            }
+            cells = new Section(channel, offset, 8 * numRows);
+            lats = new Section(channel, offset += cells.length, 8 * numRows);
+            lons = new Section(channel, offset += lats.length, 8 * numRows);
+            keyEnds = new Section(channel, offset += lons.length, 8 * numRows);
+            keyBytes = new Section(channel, offset += keyEnds.length, keyBytesLength);
+            if(offset + keyBytesLength != channel.size()) {
+                throw new IOException("Corrupted geocell index file: " + file);
+            }
+        }
+    }
+
+    /**
+     * @return the number of entities in the index.
+     */
+    public int size() {
+        return (int) numRows;
+    }
+
+    /**
+     * Returns the entities located in any of the given geocells.
+     * Cells can have different resolutions, each entity is returned once.
+     */
+    @Override
+    public List<Entry> search(List<String> geocells) {
+        List<Entry> results = new ArrayList<Entry>();
+        long[] packed = new long[geocells.size()];
+        int numCells = 0;
+        List<String> finerCells = new ArrayList<String>();
+        for(String geocell : geocells) {
+            if(geocell.length() > MAX_RESOLUTION) {
+                finerCells.add(geocell);
+            } else {
+                packed[numCells++] = PackedGeocellUtils.pack(geocell);
+            }
+        }
+        long[] sortedCells = Arrays.copyOf(packed, numCells);
+        searchPacked(sortedCells, results);
+
+        // Finer than the index: search the max resolution cell and filter,
+        // unless the cell is inside another one already searched.
+        Collections.sort(finerCells);
+        String previous = null;
+        for(String geocell : finerCells) {
+            if(previous != null && geocell.startsWith(previous)
+                    || PackedGeocellUtils.isInAny(PackedGeocellUtils.pack(geocell.substring(0, MAX_RESOLUTION)), sortedCells)) {
+                continue;
+            }
+            searchFinerCell(geocell, results);
+            previous = geocell;
+        }
+        return results;
+    }
+
+    /**
+     * Adds to results the entities located in any of the given packed geocells.
+     *
+     * @param cells packed geocells of any resolution, sorted in place.
+     * @param results list receiving the entities.
+     */
+    public void searchPacked(long[] cells, List<Entry> results) {
+        Arrays.sort(cells);
+        long end = Long.MIN_VALUE;
+        for(long cell : cells) {
+            if(cell < end) {
+                // Cell is a descendant of the previous cell.
+                continue;
+            }
+            end = PackedGeocellUtils.descendantsEnd(cell);
+            addRows(cell, results);
+        }
+    }
+
+    /**
+     * Returns the entities located in any of the ranges.
+     */
+    @Override
+    public List<Entry> searchRanges(List<GeocellRange> ranges) {
+        List<Entry> results = new ArrayList<Entry>();
+        for(GeocellRange range : ranges) {
+            int end = (int) lowerBound(range.getEnd(), 0, numRows);
+            for(int row = (int) lowerBound(range.getStart(), 0, numRows); row < end; row++) {
+                results.add(new Entry(this, row));
+            }
+        }
+        return results;
+    }
+
+    private void searchFinerCell(String geocell, List<Entry> results) {
+        List<Entry> candidates = new ArrayList<Entry>();
+        addRows(PackedGeocellUtils.pack(geocell.substring(0, MAX_RESOLUTION)), candidates);
+        for(Entry candidate : candidates) {
+            if(GeocellUtils.containsPoint(geocell, candidate.getLocation())) {
+                results.add(candidate);
+            }
+        }
+    }
+
+    private void addRows(long cell, List<Entry> results) {
+        long range = rows(cell);
+        int end = (int) range;
+        for(int row = (int) (range >>> 32); row < end; row++) {
+            results.add(new Entry(this, row));
+        }
+    }
+
+    // Rows of the cell and its descendants, first row in the high 32 bits and end row in the low 32 bits.
+    private long rows(long cell) {
+        int resolution = PackedGeocellUtils.resolution(cell);
+        if(resolution == 0) {
+            return numRows;
+        }
+        long range = directoryRows(PackedGeocellUtils.parent(cell, Math.min(resolution, directoryResolution)));
+        if(resolution <= directoryResolution) {
+            return range;
+        }
+        long start = range >>> 32;
+        long end = range & 0xffffffffL;
+        return lowerBound(cell, start, end) << 32 | lowerBound(PackedGeocellUtils.descendantsEnd(cell), start, end);
+    }
+
+    private long directoryRows(long cell) {
+        int resolution = PackedGeocellUtils.resolution(cell);
+        Section entries = directory[resolution];
+        long low = 0;
+        long high = directorySizes[resolution];
+        while(low < high) {
+            long mid = (low + high) >>> 1;
+            long midCell = entries.getLong(16 * mid);
+            if(midCell < cell) {
+                low = mid + 1;
+            } else if(midCell > cell) {
+                high = mid;
+            } else {
+                long end = mid + 1 < directorySizes[resolution] ? entries.getLong(16 * (mid + 1) + 8) : numRows;
+                return entries.getLong(16 * mid + 8) << 32 | end;
+            }
+        }
+        return 0;
+    }
+
+    // First row in [start, end) whose cell is >= cell.
+    private long lowerBound(long cell, long start, long end) {
+        long low = start;
+        long high = end;
+        while(low < high) {
+            long mid = (low + high) >>> 1;
+            if(cells.getLong(8 * mid) < cell) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while(buffer.hasRemaining()) {
+            if(channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Truncated geocell index file");
+            }
+        }
+    }
+
+    /**
+     * An entity of the index: a view on one row of the mapped file.
+     */
+    public static final class Entry implements LocationCapable {
+
+        private final MappedGeocellIndex index;
+        private final int row;
+
+        private Entry(MappedGeocellIndex index, int row) {
+            this.index = index;
+            this.row = row;
+        }
+
+        /**
+         * @return the row of the entity in the index, entities being sorted by geocell.
+         */
+        public int getRow() {
+            return row;
+        }
+
+        /**
+         * @return the packed geocell of max resolution of the entity.
+         */
+        public long getCell() {
+            return index.cells.getLong(8L * row);
+        }
+
+        public double getLatitude() {
+            return index.lats.getDouble(8L * row);
+        }
+
+        public double getLongitude() {
+            return index.lons.getDouble(8L * row);
+        }
+
+        @Override
+        public Point getLocation() {
+            return new Point(getLatitude(), getLongitude());
+        }
+
+        @Override
+        public String getKeyString() {
+            long start = row == 0 ? 0 : index.keyEnds.getLong(8L * (row - 1));
+            byte[] bytes = new byte[(int) (index.keyEnds.getLong(8L * row) - start)];
+            index.keyBytes.get(start, bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * @return the geocells of all resolutions of the entity, computed from its packed geocell.
+         */
+        @Override
+        public List<String> getGeocells() {
+            String cell = PackedGeocellUtils.unpack(getCell());
+            List<String> geocells = new ArrayList<String>(MAX_RESOLUTION);
+            for(int resolution = 1; resolution <= MAX_RESOLUTION; resolution++) {
+                geocells.add(cell.substring(0, resolution));
+            }
+            return geocells;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if(!(obj instanceof Entry)) {
+                return false;
+            }
+            Entry other = (Entry) obj;
+            return index == other.index && row == other.row;
+        }
+
+        @Override
+        public int hashCode() {
+            return row;
+        }
+
+        @Override
+        public String toString() {
+            return getKeyString() + " " + getLocation();
+        }
+    }
+
+    /**
+     * A part of the file, mapped in segments since a buffer can't map more than 2GB.
+     * Segments are a multiple of 8 bytes, so longs and doubles never span two segments.
+     */
+    private static final class Section {
+
+        private static final int SEGMENT_SHIFT = 30;
+        private static final long SEGMENT_SIZE = 1L << SEGMENT_SHIFT;
+        private static final long SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+        private final long length;
+        private final ByteBuffer[] segments;
+
+        Section(FileChannel channel, long offset, long length) throws IOException {
+            if(offset + length > channel.size()) {
+                throw new IOException("Truncated geocell index file");
+            }
+            this.length = length;
+            segments = new ByteBuffer[(int) ((length + SEGMENT_SIZE - 1) >>> SEGMENT_SHIFT)];
+            for(int i = 0; i < segments.length; i++) {
+                long start = (long) i << SEGMENT_SHIFT;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset + start, Math.min(SEGMENT_SIZE, length - start));
+            }
+        }
+
+        long getLong(long position) {
+            return segments[(int) (position >>> SEGMENT_SHIFT)].getLong((int) (position & SEGMENT_MASK));
+        }
+
+        double getDouble(long position) {
+            return segments[(int) (position >>> SEGMENT_SHIFT)].getDouble((int) (position & SEGMENT_MASK));
+        }
+
+        void get(long position, byte[] bytes) {
+            for(int i = 0; i < bytes.length; i++) {
+                long p = position + i;
+                bytes[i] = segments[(int) (p >>> SEGMENT_SHIFT)].get((int) (p & SEGMENT_MASK));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,230 @@
+/*
+Copyright 2010 Alexandre Gellibert
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.apache.org/licenses/
+LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing permissions
+and limitations under the License.
+*/
+
+package com.beoui.geocell;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.lang.Validate;
+
+import com.beoui.geocell.model.LocationCapable;
+
+/**
+ * Writes the file of a {@link MappedGeocellIndex}.
+ *
+ * Entities are added in any order, ex: by a {@link GeocellBulkLoader}, and kept in primitive
+ * columns until the file is written. Writing sorts them by geocell and builds the directory.
+ * Keys are kept in 16MB chunks, so their total size is only limited by the heap.
+ *
+ */
+public class MappedGeocellIndexWriter<T extends LocationCapable> implements BulkGeocellEncoder.Sink<T> {
+
+    public static final int DEFAULT_DIRECTORY_RESOLUTION = 5;
+
+    private static final int MAX_RESOLUTION = PackedGeocellUtils.MAX_RESOLUTION;
+
+    private final int directoryResolution;
+
+    private int numRows;
+    private long[] cells = new long[1024];
+    private double[] lats = new double[1024];
+    private double[] lons = new double[1024];
+    private long[] keyEnds = new long[1024];
+    private final KeyBytes keyBytes = new KeyBytes();
+
+    /**
+     * Writer of an index with a directory up to DEFAULT_DIRECTORY_RESOLUTION.
+     */
+    public MappedGeocellIndexWriter() {
+        this(DEFAULT_DIRECTORY_RESOLUTION);
+    }
+
+    /**
+     * @param directoryResolution finest resolution of the directory, between 1 and 6.
+     *        Up to 16^directoryResolution directory entries are written, 16 bytes each.
+     */
+    public MappedGeocellIndexWriter(int directoryResolution) {
+        Validate.isTrue(directoryResolution >= 1 && directoryResolution <= MappedGeocellIndex.MAX_DIRECTORY_RESOLUTION,
+                "Invalid directory resolution: ", directoryResolution);
+        this.directoryResolution = directoryResolution;
+    }
+
+    /**
+     * Adds an entity to the index.
+     *
+     * @param entity entity with a location and a key.
+     */
+    public void add(T entity) {
+        add(entity, PackedGeocellUtils.compute(entity.getLocation(), MAX_RESOLUTION));
+    }
+
+    /**
+     * Adds a batch of entities whose geocells are already computed. Same as add for each entity.
+     */
+    @Override
+    public void accept(List<T> entities, GeocellColumns geocells) {
+        long[] packed = geocells.getCells(MAX_RESOLUTION);
+        for(int i = 0; i < entities.size(); i++) {
+            add(entities.get(i), packed[i]);
+        }
+    }
+
+    /**
+     * @return the number of entities added.
+     */
+    public int size() {
+        return numRows;
+    }
+
+    private void add(T entity, long cell) {
+        String key = entity.getKeyString();
+        Validate.notNull(key);
+        if(numRows == cells.length) {
+            int capacity = numRows + (numRows >> 1);
+            cells = Arrays.copyOf(cells, capacity);
+            lats = Arrays.copyOf(lats, capacity);
+            lons = Arrays.copyOf(lons, capacity);
+            keyEnds = Arrays.copyOf(keyEnds, capacity);
+        }
+        keyBytes.add(key.getBytes(StandardCharsets.UTF_8));
+        cells[numRows] = cell;
+        lats[numRows] = entity.getLocation().getLat();
+        lons[numRows] = entity.getLocation().getLon();
+        keyEnds[numRows] = keyBytes.size();
+        numRows++;
+    }
+
+    /**
+     * Writes the index file, replacing the file if it exists.
+     * Entities keep their insertion order within a geocell of max resolution.
+     *
+     * @param file file to write.
+     * @throws IOException if the file can't be written.
+     */
+    public void write(Path file) throws IOException {
+        Validate.notNull(file);
+        int[] order = PackedGeocellUtils.sortedOrder(cells, numRows);
+
+        try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16))) {
+            out.writeInt(MappedGeocellIndex.MAGIC);
+            out.writeInt(MappedGeocellIndex.VERSION);
+            out.writeLong(numRows);
+            out.writeInt(directoryResolution);
+            out.writeInt(0);
+            out.writeLong(keyBytes.size());
+            for(int resolution = 1; resolution <= directoryResolution; resolution++) {
+                out.writeLong(directorySize(order, resolution));
+            }
+            for(int resolution = 1; resolution <= directoryResolution; resolution++) {
+                long previous = PackedGeocellUtils.NO_CELL;
+                for(int row = 0; row < numRows; row++) {
+                    long cell = PackedGeocellUtils.parent(cells[order[row]], resolution);
+                    if(cell != previous) {
+                        out.writeLong(cell);
+                        out.writeLong(row);
+                        previous = cell;
+                    }
+                }
+            }
+            for(int row = 0; row < numRows; row++) {
+                out.writeLong(cells[order[row]]);
+            }
+            for(int row = 0; row < numRows; row++) {
+                out.writeDouble(lats[order[row]]);
+            }
+            for(int row = 0; row < numRows; row++) {
+                out.writeDouble(lons[order[row]]);
+            }
+            long keyEnd = 0;
+            for(int row = 0; row < numRows; row++) {
+                keyEnd += keyLength(order[row]);
+                out.writeLong(keyEnd);
+            }
+            for(int row = 0; row < numRows; row++) {
+                int i = order[row];
+                keyBytes.write(out, keyStart(i), keyLength(i));
+            }
+        }
+    }
+
+    private long directorySize(int[] order, int resolution) {
+        long size = 0;
+        long previous = PackedGeocellUtils.NO_CELL;
+        for(int row = 0; row < numRows; row++) {
+            long cell = PackedGeocellUtils.parent(cells[order[row]], resolution);
+            if(cell != previous) {
+                size++;
+                previous = cell;
+            }
+        }
+        return size;
+    }
+
+    private long keyStart(int i) {
+        return i == 0 ? 0 : keyEnds[i - 1];
+    }
+
+    private int keyLength(int i) {
+        return (int) (keyEnds[i] - keyStart(i));
+    }
+
+    /**
+     * UTF-8 keys one after the other, in chunks: a single array can't hold more than 2GB.
+     */
+    private static final class KeyBytes {
+
+        private static final int CHUNK_SHIFT = 24;
+        private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+        private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+        private final List<byte[]> chunks = new ArrayList<byte[]>();
+        private long size;
+
+        void add(byte[] bytes) {
+            int written = 0;
+            while(written < bytes.length) {
+                int offset = (int) (size & CHUNK_MASK);
+                if(offset == 0 && (size >>> CHUNK_SHIFT) == chunks.size()) {
+                    chunks.add(new byte[CHUNK_SIZE]);
+                }
+                int length = Math.min(bytes.length - written, CHUNK_SIZE - offset);
+                System.arraycopy(bytes, written, chunks.get((int) (size >>> CHUNK_SHIFT)), offset, length);
+                written += length;
+                size += length;
+            }
+        }
+
+        long size() {
+            return size;
+        }
+
+        void write(DataOutputStream out, long start, int length) throws IOException {
+            while(length > 0) {
+                int offset = (int) (start & CHUNK_MASK);
+                int chunkLength = Math.min(length, CHUNK_SIZE - offset);
+                out.write(chunks.get((int) (start >>> CHUNK_SHIFT)), offset, chunkLength);
+                start += chunkLength;
+                length -= chunkLength;
+            }
+        }
+    }
+
+}
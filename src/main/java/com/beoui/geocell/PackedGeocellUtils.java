@@ -0,0 +1,533 @@
+/*
+Copyright 2010 Alexandre Gellibert
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.apache.org/licenses/
+LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing permissions
+and limitations under the License.
+ */
+package com.beoui.geocell;
+
+import java.util.Arrays;
+
+import org.apache.commons.lang.Validate;
+
+import com.beoui.geocell.model.BoundingBox;
+import com.beoui.geocell.model.MutableBoundingBox;
+import com.beoui.geocell.model.Point;
+
+/**
+ * Utils class to compute geocells packed in a primitive long.
+ *
+ * A packed geocell stores one 4 bits digit per resolution level (the value of
+ * the hexadecimal character of the geocell string) followed by the resolution:
+ *
+ *      bits 63..56 : always 0
+ *      bits 55..4  : 13 digits, level 1 in bits 55..52, level 13 in bits 7..4
+ *      bits  3..0  : resolution (length of the geocell string)
+ *
+ * Digits below the resolution are always 0. It has some useful properties:
+ * packed geocells are never negative, they compare exactly like their hex
+ * strings, and every descendant of a cell sorts right after it.
+ *
+ * Since each digit is (y1 x1 y0 x0) in bits, the digits form a Morton (Z-order)
+ * code of the (x, y) position of the cell in the 4^resolution x 4^resolution grid.
+ *
+ * All methods are lossless with the hex String API of {@link GeocellUtils}:
+ * unpack(compute(point, r)) equals GeocellUtils.compute(point, r).
+ *
+ * Points are mapped to fixed-point x and y coordinates of 2 * MAX_RESOLUTION bits,
+ * and the cell is the interleaving of their bits. The first EXACT_LEVELS levels of the
+ * float descent of GeocellUtils.compute are exact, so they are read from the coordinates;
+ * deeper levels, and points lying on a cell boundary, replay the float descent to keep
+ * exactly the same rounding.
+ *
+ */
+public final class PackedGeocellUtils {
+
+    // The maximum resolution that fits in a packed geocell.
+    public static final int MAX_RESOLUTION = GeocellManager.MAX_GEOCELL_RESOLUTION;
+
+    // Returned when there is no such cell (ex: adjacent cell across a pole).
+    public static final long NO_CELL = -1L;
+
+    private static final int RESOLUTION_BITS = 4;
+    private static final long RESOLUTION_MASK = (1L << RESOLUTION_BITS) - 1;
+    private static final long DIGITS_MASK = ((1L << (4 * MAX_RESOLUTION)) - 1) << RESOLUTION_BITS;
+
+    private static final char[] GEOCELL_ALPHABET = "0123456789abcdef".toCharArray();
+
+    // Digit of each geocell character, -1 if the character is not in the alphabet.
+    private static final byte[] DIGITS = new byte[128];
+
+    // Fixed-point coordinates have 2 bits per level.
+    private static final int COORDINATE_BITS = 2 * MAX_RESOLUTION;
+    private static final double COORDINATE_SCALE = 1L << COORDINATE_BITS;
+
+    // Up to this level, all cell boundaries are floats and the float descent is exact.
+    private static final int EXACT_LEVELS = 9;
+
+    // By resolution, see cellBoundaryError.
+    private static final double[] CELL_BOUNDARY_ERROR = new double[MAX_RESOLUTION + 1];
+    static {
+        for(int resolution = 0; resolution <= MAX_RESOLUTION; resolution++) {
+            CELL_BOUNDARY_ERROR[resolution] = Math.max(resolution - EXACT_LEVELS, 0) * Math.ulp(180f);
+        }
+    }
+
+    // Distance to a cell boundary, in fixed-point units, under which the descent is replayed.
+    private static final double BOUNDARY_MARGIN = 1e-6;
+
+    static {
+        Arrays.fill(DIGITS, (byte) -1);
+        for(int i = 0; i < GEOCELL_ALPHABET.length; i++) {
+            DIGITS[GEOCELL_ALPHABET[i]] = (byte) i;
+        }
+    }
+
+    private PackedGeocellUtils() {
+        // no instantiation allowed
+    }
+
+    /**
+     * Packs a geocell string.
+     *
+     * @param cell a valid geocell string of at most MAX_RESOLUTION characters.
+     * @return the packed geocell.
+     * @throws IllegalArgumentException if cell is not a valid geocell or is too long to be packed.
+     */
+    public static long pack(String cell) {
+        Validate.notNull(cell);
+        Validate.isTrue(cell.length() <= MAX_RESOLUTION, "Geocell too long to be packed: ", cell);
+        long packed = 0;
+        for(int i = 0; i < cell.length(); i++) {
+            int digit = digitOf(cell.charAt(i));
+            Validate.isTrue(digit >= 0, "Invalid geocell: ", cell);
+            packed |= (long) digit << shift(i + 1);
+        }
+        return packed | cell.length();
+    }
+
+    /**
+     * Same as {@link #pack(String)} for cells that may not be packable.
+     *
+     * @param cell geocell string.
+     * @return the packed geocell, or NO_CELL if the cell is null, invalid or longer than MAX_RESOLUTION.
+     */
+    public static long tryPack(String cell) {
+        if(cell == null || cell.length() > MAX_RESOLUTION) {
+            return NO_CELL;
+        }
+        long packed = 0;
+        for(int i = 0; i < cell.length(); i++) {
+            int digit = digitOf(cell.charAt(i));
+            if(digit < 0) {
+                return NO_CELL;
+            }
+            packed |= (long) digit << shift(i + 1);
+        }
+        return packed | cell.length();
+    }
+
+    /**
+     * @param cell packed geocell.
+     * @return the geocell string of the packed geocell.
+     */
+    public static String unpack(long cell) {
+        int resolution = resolution(cell);
+        char[] chars = new char[resolution];
+        for(int i = 0; i < resolution; i++) {
+            chars[i] = GEOCELL_ALPHABET[digit(cell, i + 1)];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * @param cell packed geocell.
+     * @return the resolution of the cell, same as the length of its geocell string.
+     */
+    public static int resolution(long cell) {
+        return (int) (cell & RESOLUTION_MASK);
+    }
+
+    /**
+     * @param cell packed geocell.
+     * @param level level between 1 and the resolution of the cell.
+     * @return the digit (0 to 15) of the cell at the given level.
+     */
+    public static int digit(long cell, int level) {
+        return (int) (cell >>> shift(level)) & 0xf;
+    }
+
+    /**
+     * Returns whether or not the given long is a valid packed geocell.
+     * @param cell
+     * @return Returns whether or not the given long is a valid packed geocell.
+     */
+    public static boolean isValid(long cell) {
+        if(cell < 0 || resolution(cell) > MAX_RESOLUTION) {
+            return false;
+        }
+        // No bit set outside of the digits of the cell.
+        return (cell & ~(prefixMask(resolution(cell)) | RESOLUTION_MASK)) == 0;
+    }
+
+    /**
+     * Computes the packed geocell containing the given point to the given resolution.
+     * Same algorithm as {@link GeocellUtils#compute(Point, int)}.
+     *
+     * @param point: The point to compute the cell for.
+     * @param resolution: An int between 0 and MAX_RESOLUTION.
+     * @return The packed geocell containing the given point.
+     */
+    public static long compute(Point point, int resolution) {
+        return compute(point.getLat(), point.getLon(), resolution);
+    }
+
+    /**
+     * How far compute can put a point outside the box of its cell (see computeBox), in degrees.
+     * Up to resolution 9 cell boundaries are exact floats. Beyond, compute rounds them in float:
+     * each level can move them by a float ulp of a longitude (1.5e-5 degrees, 1.7 meters).
+     *
+     * @param resolution: An int between 0 and MAX_RESOLUTION.
+     * @return the margin to add around the boxes of cells of this resolution.
+     */
+    public static double cellBoundaryError(int resolution) {
+        return CELL_BOUNDARY_ERROR[resolution];
+    }
+
+    /**
+     * See {@link #compute(Point, int)}.
+     */
+    public static long compute(double lat, double lon, int resolution) {
+        Validate.isTrue(resolution >= 0 && resolution <= MAX_RESOLUTION, "Invalid resolution: ", resolution);
+        double x = (lon + 180.0) / 360.0 * COORDINATE_SCALE;
+        double y = (lat + 90.0) / 180.0 * COORDINATE_SCALE;
+        if(!isInsideCell(x) || !isInsideCell(y)) {
+            // Out of range or on a boundary: the float rounding decides.
+            return descend(lat, lon, 0L, resolution);
+        }
+        int exactLevels = Math.min(resolution, EXACT_LEVELS);
+        int dropped = 2 * (MAX_RESOLUTION - exactLevels);
+        long cell = fromXY((int) x >>> dropped, (int) y >>> dropped, exactLevels);
+        if(resolution == exactLevels) {
+            return cell;
+        }
+        return descend(lat, lon, cell, resolution);
+    }
+
+    // Same algorithm as GeocellUtils.compute, from the given ancestor of the cell.
+    private static long descend(double lat, double lon, long ancestor, int resolution) {
+        int ancestorResolution = resolution(ancestor);
+        // Boundaries of the ancestor are exact floats (ancestorResolution <= EXACT_LEVELS).
+        double lonSpan = 360.0 / (1 << 2 * ancestorResolution);
+        double latSpan = 180.0 / (1 << 2 * ancestorResolution);
+        float west = (float) (-180.0 + lonSpan * x(ancestor));
+        float south = (float) (-90.0 + latSpan * y(ancestor));
+        float east = west + (float) lonSpan;
+        float north = south + (float) latSpan;
+
+        long cell = ancestor & ~RESOLUTION_MASK;
+        for(int level = ancestorResolution + 1; level <= resolution; level++) {
+            float subcellLonSpan = (east - west) / GeocellUtils.GEOCELL_GRID_SIZE;
+            float subcellLatSpan = (north - south) / GeocellUtils.GEOCELL_GRID_SIZE;
+
+            int x = Math.min((int)(GeocellUtils.GEOCELL_GRID_SIZE * (lon - west) / (east - west)),
+                    GeocellUtils.GEOCELL_GRID_SIZE - 1);
+            int y = Math.min((int)(GeocellUtils.GEOCELL_GRID_SIZE * (lat - south) / (north - south)),
+                    GeocellUtils.GEOCELL_GRID_SIZE - 1);
+
+            cell |= (long) subdivDigit(x, y) << shift(level);
+
+            south += subcellLatSpan * y;
+            north = south + subcellLatSpan;
+
+            west += subcellLonSpan * x;
+            east = west + subcellLonSpan;
+        }
+        return cell | resolution;
+    }
+
+    // Whether the fixed-point coordinate is in the grid and far enough from any cell boundary.
+    private static boolean isInsideCell(double coordinate) {
+        if(!(coordinate >= 0 && coordinate < COORDINATE_SCALE)) {
+            return false;
+        }
+        double fraction = coordinate - Math.floor(coordinate);
+        return fraction > BOUNDARY_MARGIN && fraction < 1 - BOUNDARY_MARGIN;
+    }
+
+    /**
+     * @param cell packed geocell.
+     * @return the parent of the cell, or NO_CELL if cell has resolution 0.
+     */
+    public static long parent(long cell) {
+        int resolution = resolution(cell);
+        if(resolution == 0) {
+            return NO_CELL;
+        }
+        return parent(cell, resolution - 1);
+    }
+
+    /**
+     * @param cell packed geocell.
+     * @param resolution resolution of the ancestor, lower or equal to the resolution of cell.
+     * @return the ancestor of the cell at the given resolution (prefix of the geocell string).
+     */
+    public static long parent(long cell, int resolution) {
+        Validate.isTrue(resolution >= 0 && resolution <= resolution(cell), "Invalid resolution: ", resolution);
+        return (cell & prefixMask(resolution)) | resolution;
+    }
+
+    /**
+     * Packed geocells of the given cell and of all its descendants are exactly
+     * the ones in the range [cell, descendantsEnd(cell)).
+     *
+     * @param cell packed geocell.
+     * @return the exclusive upper bound of the range of the cell and its descendants.
+     */
+    public static long descendantsEnd(long cell) {
+        return (cell & ~RESOLUTION_MASK) + (1L << shift(resolution(cell)));
+    }
+
+    /**
+     * Stable merge sort of the indexes of the cells by cell, on primitive arrays to sort
+     * large bulk loads and indexes without boxing.
+     *
+     * @param cells packed geocells.
+     * @param length number of cells to sort, from index 0.
+     * @return the indexes of the cells in geocell order, ties in index order.
+     */
+    static int[] sortedOrder(long[] cells, int length) {
+        int[] order = new int[length];
+        for(int i = 0; i < length; i++) {
+            order[i] = i;
+        }
+        int[] buffer = new int[length];
+        for(int width = 1; width < length; width *= 2) {
+            for(int from = 0; from < length; from += 2 * width) {
+                int mid = Math.min(from + width, length);
+                int to = Math.min(from + 2 * width, length);
+                int i = from;
+                int j = mid;
+                int k = from;
+                while(i < mid && j < to) {
+                    buffer[k++] = cells[order[j]] < cells[order[i]] ? order[j++] : order[i++];
+                }
+                while(i < mid) {
+                    buffer[k++] = order[i++];
+                }
+                while(j < to) {
+                    buffer[k++] = order[j++];
+                }
+            }
+            int[] swap = order;
+            order = buffer;
+            buffer = swap;
+        }
+        return order;
+    }
+
+    /**
+     * @param cell packed geocell.
+     * @param sortedCells packed geocells, sorted.
+     * @return true if the cell or one of its ancestors is in sortedCells.
+     */
+    static boolean isInAny(long cell, long[] sortedCells) {
+        for(int resolution = resolution(cell); resolution >= 0; resolution--) {
+            if(Arrays.binarySearch(sortedCells, parent(cell, resolution)) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param cell packed geocell.
+     * @param digit digit of the child, between 0 and 15.
+     * @return the child of the cell (geocell string followed by the hex character of digit).
+     */
+    public static long child(long cell, int digit) {
+        int resolution = resolution(cell);
+        Validate.isTrue(resolution < MAX_RESOLUTION, "Cell already at max resolution: ", resolution);
+        Validate.isTrue(digit >= 0 && digit < 16, "Invalid digit: ", digit);
+        return ((cell & ~RESOLUTION_MASK) | (long) digit << shift(resolution + 1)) | (resolution + 1);
+    }
+
+    /**
+     * @param cell packed geocell.
+     * @return column of the cell in the 4^resolution x 4^resolution grid, 0 being the westmost column.
+     */
+    public static int x(long cell) {
+        return (int) compact(morton(cell));
+    }
+
+    /**
+     * @param cell packed geocell.
+     * @return row of the cell in the 4^resolution x 4^resolution grid, 0 being the southmost row.
+     */
+    public static int y(long cell) {
+        return (int) compact(morton(cell) >>> 1);
+    }
+
+    /**
+     * @param x column of the cell, between 0 and 4^resolution - 1.
+     * @param y row of the cell, between 0 and 4^resolution - 1.
+     * @param resolution resolution of the cell.
+     * @return the packed geocell at position (x, y) of the grid at the given resolution.
+     */
+    public static long fromXY(int x, int y, int resolution) {
+        long morton = spread(x) | spread(y) << 1;
+        return morton << shift(resolution) | resolution;
+    }
+
+    /**
+     * Calculates the packed geocell adjacent to the given cell in the given direction.
+     * Same semantics as {@link GeocellUtils#adjacent(String, int[])}.
+     *
+     * @param cell: The packed geocell whose neighbor is being calculated.
+     * @param dir: An (x, y) tuple indicating direction, where x and y can be -1, 0, or 1.
+     * @return The adjacent packed geocell, or NO_CELL if there is no such cell.
+     */
+    public static long adjacent(long cell, int[] dir) {
+        return adjacent(cell, dir[0], dir[1]);
+    }
+
+    /**
+     * See {@link #adjacent(long, int[])}.
+     */
+    public static long adjacent(long cell, int dx, int dy) {
+        int resolution = resolution(cell);
+        int gridMask = (1 << (2 * resolution)) - 1;
+        int y = y(cell) + dy;
+        if(y < 0 || y > gridMask) {
+            return NO_CELL;
+        }
+        // Horizontal wrapping is done by the mask.
+        int x = (x(cell) + dx) & gridMask;
+        return fromXY(x, y, resolution);
+    }
+
+    /**
+     * Computes the rectangular boundaries (bounding box) of the given packed geocell.
+     * Same values as {@link GeocellUtils#computeBox(String)}.
+     *
+     * @param cell: The packed geocell whose boundaries are to be computed.
+     * @return A BoundingBox corresponding to the rectangular boundaries of the geocell.
+     */
+    public static BoundingBox computeBox(long cell) {
+        return computeBox(cell, new MutableBoundingBox());
+    }
+
+    /**
+     * Same as {@link #computeBox(long)} without allocation.
+     *
+     * @param cell: The packed geocell whose boundaries are to be computed.
+     * @param box: The box receiving the boundaries.
+     * @return the given box.
+     */
+    public static MutableBoundingBox computeBox(long cell, MutableBoundingBox box) {
+        double north = 90.0;
+        double east = 180.0;
+        double south = -90.0;
+        double west = -180.0;
+        int resolution = resolution(cell);
+        for(int level = 1; level <= resolution; level++) {
+            double subcellLonSpan = (east - west) / GeocellUtils.GEOCELL_GRID_SIZE;
+            double subcellLatSpan = (north - south) / GeocellUtils.GEOCELL_GRID_SIZE;
+
+            int digit = digit(cell, level);
+            int x = (digit & 4) >> 1 | (digit & 1);
+            int y = (digit & 8) >> 2 | (digit & 2) >> 1;
+
+            north = south + subcellLatSpan * (y + 1);
+            east = west + subcellLonSpan * (x + 1);
+            south = south + subcellLatSpan * y;
+            west = west + subcellLonSpan * x;
+        }
+        return box.set(north, east, south, west);
+    }
+
+    /**
+     * Calculates the grid of cells formed between the two given cells.
+     * Same cells and same order as {@link GeocellUtils#interpolate(String, String)}:
+     * rows from south to north, each row from west to east.
+     *
+     * @param cellNE: The Northeast packed geocell.
+     * @param cellSW: The Southwest packed geocell, same resolution as cellNE.
+     * @return An array of packed geocells in the interpolation.
+     */
+    public static long[] interpolate(long cellNE, long cellSW) {
+        return CellGrid.between(cellNE, cellSW).toArray();
+    }
+
+    /**
+     * Computes the number of cells in the grid formed between two given cells,
+     * exactly the size of {@link #interpolate(long, long)}.
+     *
+     * @param cellNE: The Northeast packed geocell.
+     * @param cellSW: The Southwest packed geocell, same resolution as cellNE.
+     * @return the number of geocells in the interpolation.
+     */
+    public static long interpolationCount(long cellNE, long cellSW) {
+        return CellGrid.between(cellNE, cellSW).size();
+    }
+
+    private static int shift(int level) {
+        return RESOLUTION_BITS + 4 * (MAX_RESOLUTION - level);
+    }
+
+    private static long prefixMask(int resolution) {
+        return DIGITS_MASK & ~((1L << shift(resolution)) - 1);
+    }
+
+    private static long morton(long cell) {
+        return (cell & DIGITS_MASK) >>> shift(resolution(cell));
+    }
+
+    private static int subdivDigit(int x, int y) {
+        // NOTE: This only works for grid size 4.
+        return (y & 2) << 2 | (x & 2) << 1 | (y & 1) << 1 | (x & 1);
+    }
+
+    /**
+     * @return the digit (0 to 15) of the geocell character, or -1 if it is not a geocell character.
+     */
+    static int digitOf(char c) {
+        return c < DIGITS.length ? DIGITS[c] : -1;
+    }
+
+    /**
+     * @return the geocell character of the digit (0 to 15).
+     */
+    static char digitChar(int digit) {
+        return GEOCELL_ALPHABET[digit];
+    }
+
+    // Spreads the 32 bits of v on the even bits of a long.
+    private static long spread(int v) {
+        long x = v & 0xffffffffL;
+        x = (x | x << 16) & 0x0000ffff0000ffffL;
+        x = (x | x << 8) & 0x00ff00ff00ff00ffL;
+        x = (x | x << 4) & 0x0f0f0f0f0f0f0f0fL;
+        x = (x | x << 2) & 0x3333333333333333L;
+        x = (x | x << 1) & 0x5555555555555555L;
+        return x;
+    }
+
+    // Inverse of spread: gathers the even bits of m.
+    private static long compact(long m) {
+        long x = m & 0x5555555555555555L;
+        x = (x | x >>> 1) & 0x3333333333333333L;
+        x = (x | x >>> 2) & 0x0f0f0f0f0f0f0f0fL;
+        x = (x | x >>> 4) & 0x00ff00ff00ff00ffL;
+        x = (x | x >>> 8) & 0x0000ffff0000ffffL;
+        x = (x | x >>> 16) & 0x00000000ffffffffL;
+        return x;
+    }
+
+}
@@ -0,0 +1,159 @@
+/*
+Copyright 2010 Alexandre Gellibert
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.apache.org/licenses/
+LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing permissions
+and limitations under the License.
+*/
+
+package com.beoui.geocell;
+
+import java.util.Arrays;
+
+/**
+ * Statistics of a proximityFetch call, see {@link GeocellMetricsListener}.
+ *
+ * Repository time is spent in the datastore, merge and sort times in the algorithm.
+ *
+ */
+public final class ProximityFetchStats {
+
+    /**
+     * Why the search stopped.
+     */
+    public enum TerminationReason {
+        /** The next cells are farther than the max distance. */
+        MAX_DISTANCE,
+        /** maxResults entities found, closer than the next cells. */
+        ENOUGH_RESULTS,
+        /** Searched all the cells, within the max distance if any. */
+        NO_MORE_CELLS
+    }
+
+    private int iterations;
+    private final int[] cellsByResolution = new int[GeocellManager.MAX_GEOCELL_RESOLUTION + 1];
+    private long[] repositoryNanos = new long[8];
+    private int entitiesFetched;
+    private int entitiesReturned;
+    private long mergeNanos;
+    private long sortNanos;
+    private long nanos;
+    private TerminationReason terminationReason;
+
+    ProximityFetchStats() {
+        // built by proximityFetch
+    }
+
+    void repositorySearch(int numCells, int resolution, int numEntities, long nanos) {
+        if(iterations == repositoryNanos.length) {
+            repositoryNanos = Arrays.copyOf(repositoryNanos, 2 * iterations);
+        }
+        repositoryNanos[iterations++] = nanos;
+        cellsByResolution[resolution] += numCells;
+        entitiesFetched += numEntities;
+    }
+
+    void merged(long nanos) {
+        mergeNanos += nanos;
+    }
+
+    void done(TerminationReason terminationReason, int entitiesReturned, long sortNanos, long nanos) {
+        this.terminationReason = terminationReason;
+        this.entitiesReturned = entitiesReturned;
+        this.sortNanos = sortNanos;
+        this.nanos = nanos;
+    }
+
+    /**
+     * @return the number of iterations, one repository search each.
+     */
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * @param resolution resolution between 1 and MAX_GEOCELL_RESOLUTION.
+     * @return the number of cells of this resolution searched.
+     */
+    public int getCellsSearched(int resolution) {
+        return cellsByResolution[resolution];
+    }
+
+    /**
+     * @return the number of cells searched, all resolutions.
+     */
+    public int getCellsSearched() {
+        int cells = 0;
+        for(int count : cellsByResolution) {
+            cells += count;
+        }
+        return cells;
+    }
+
+    /**
+     * @param iteration index of the iteration, < getIterations().
+     * @return the duration of the repository search of the iteration, in nanoseconds.
+     */
+    public long getRepositoryNanos(int iteration) {
+        if(iteration < 0 || iteration >= iterations) {
+            throw new IndexOutOfBoundsException("Invalid iteration: " + iteration);
+        }
+        return repositoryNanos[iteration];
+    }
+
+    /**
+     * @return the total duration of the repository searches, in nanoseconds.
+     */
+    public long getRepositoryNanos() {
+        long total = 0;
+        for(int i = 0; i < iterations; i++) {
+            total += repositoryNanos[i];
+        }
+        return total;
+    }
+
+    /**
+     * @return the number of entities returned by the repository, duplicates included.
+     */
+    public int getEntitiesFetched() {
+        return entitiesFetched;
+    }
+
+    /**
+     * @return the number of entities returned by proximityFetch.
+     */
+    public int getEntitiesReturned() {
+        return entitiesReturned;
+    }
+
+    /**
+     * @return the time spent ranking the fetched entities and keeping the closest ones, in nanoseconds.
+     */
+    public long getMergeNanos() {
+        return mergeNanos;
+    }
+
+    /**
+     * @return the time spent sorting and filtering the results, in nanoseconds.
+     */
+    public long getSortNanos() {
+        return sortNanos;
+    }
+
+    /**
+     * @return the duration of the call, in nanoseconds.
+     */
+    public long getNanos() {
+        return nanos;
+    }
+
+    public TerminationReason getTerminationReason() {
+        return terminationReason;
+    }
+
+}
@@ -0,0 +1,115 @@
+/*
+Copyright 2010 Alexandre Gellibert
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.apache.org/licenses/
+LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing permissions
+and limitations under the License.
+*/
+
+package com.beoui.geocell;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import org.apache.commons.lang.StringUtils;
+
+import com.beoui.geocell.comparator.LocationComparableTuple;
+import com.beoui.geocell.model.DistanceFunction;
+import com.beoui.geocell.model.LocationCapable;
+import com.beoui.geocell.model.Point;
+
+/**
+ * Lazy version of {@link GeocellManager#proximityFetch(Point, int, double, LocationCapableRepositorySearch, int, DistanceFunction)}:
+ * entities are returned by ascending distance from the center, without a maximum number of results.
+ *
+ * Entities found so far are kept in a min-heap. The closest one is only returned once it is
+ * not farther than the region already searched (see {@link ProximitySearchPlanner}), so that no
+ * entity still to be found can be closer. Cells are searched only when the consumer asks for
+ * such an entity.
+ *
+ * Traced iterators log their trace each time cells are searched, since the consumer may stop
+ * at any time.
+ *
+ */
+final class ProximityIterator<T extends LocationCapable> implements Iterator<T> {
+
+    private static final Logger logger = GeocellLogger.get();
+
+    private final Point center;
+    private final double maxDistance;
+    private final LocationCapableRepositorySearch<T> repositorySearch;
+    private final DistanceFunction distanceFunction;
+
+    private final ProximitySearchPlanner planner;
+
+    // Whether the cells of the planner are still to be searched.
+    private boolean hasMoreCells = true;
+
+    // Entities found and not returned yet, closest first.
+    private final PriorityQueue<LocationComparableTuple<T>> candidates = new PriorityQueue<LocationComparableTuple<T>>();
+    private final Set<String> foundKeys = new HashSet<String>();
+
+    private final QueryTrace trace;
+
+    ProximityIterator(Point center, double maxDistance, LocationCapableRepositorySearch<T> repositorySearch, int maxGeocellResolution, DistanceFunction distanceFunction) {
+        this.center = center;
+        this.maxDistance = maxDistance;
+        this.repositorySearch = repositorySearch;
+        this.distanceFunction = distanceFunction;
+        this.planner = new ProximitySearchPlanner(center, maxGeocellResolution, maxDistance);
+        this.trace = QueryTrace.start(logger, "proximityIterator");
+    }
+
+    @Override
+    public boolean hasNext() {
+        while(hasMoreCells && (candidates.isEmpty() || distanceFunction.toDistance(candidates.peek().getSecond()) > planner.closestPossibleNextResultDist())) {
+            searchNextCells();
+        }
+        if(trace != null) {
+            // Logs the searches of this call, if any.
+            trace.end();
+        }
+        return !candidates.isEmpty();
+    }
+
+    @Override
+    public T next() {
+        if(!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return candidates.poll().getFirst();
+    }
+
+    private void searchNextCells() {
+        if(maxDistance > 0 && planner.closestPossibleNextResultDist() > maxDistance) {
+            hasMoreCells = false;
+            return;
+        }
+        List<String> curGeocells = planner.getGeocells();
+        List<T> newResultEntities = repositorySearch.search(curGeocells);
+        if(trace != null) {
+            trace.log("fetch complete for: " + StringUtils.join(curGeocells, ", "));
+        }
+
+        for(T entity : newResultEntities) {
+            if(foundKeys.add(entity.getKeyString())) {
+                double rank = distanceFunction.rank(center, entity.getLocation());
+                if(maxDistance == 0 || distanceFunction.toDistance(rank) < maxDistance) {
+                    candidates.add(new LocationComparableTuple<T>(entity, rank));
+                }
+            }
+        }
+        hasMoreCells = planner.advance(!foundKeys.isEmpty());
+    }
+
+}
@@ -0,0 +1,109 @@
+/*
+Copyright 2010 Alexandre Gellibert
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.apache.org/licenses/
+LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing permissions
+and limitations under the License.
+*/
+
+package com.beoui.geocell;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import org.apache.commons.lang.Validate;
+
+import com.beoui.geocell.comparator.LocationComparableTuple;
+import com.beoui.geocell.model.LocationCapable;
+
+/**
+ * Keeps the maxResults closest entities offered during a proximity search.
+ *
+ * Entities are kept in a max-heap of size maxResults keyed on distance (ties broken
+ * by key, like {@link LocationComparableTuple}), so offering an entity costs O(log(maxResults))
+ * and the current farthest result is always at the top. Entities are deduplicated on
+ * their key: an entity found again in another cell is ignored. Only the keys of the kept
+ * results are remembered, so memory stays O(maxResults) whatever the number of entities
+ * offered: an entity rejected or evicted is rejected again, as the farthest result only
+ * gets closer.
+ *
+ * @param <T> type of the searched entities
+ */
+public class ProximityResultHeap<T extends LocationCapable> {
+
+    private final int maxResults;
+    private final PriorityQueue<LocationComparableTuple<T>> heap;
+    // Keys of the entities in the heap.
+    private final Set<String> keptKeys = new HashSet<String>();
+
+    public ProximityResultHeap(int maxResults) {
+        Validate.isTrue(maxResults > 0, "maxResults must be > 0: ", maxResults);
+        this.maxResults = maxResults;
+        this.heap = new PriorityQueue<LocationComparableTuple<T>>(Math.min(maxResults, 1024), Collections.reverseOrder());
+    }
+
+    /**
+     * @param entity entity found by the search.
+     * @param distance distance from the entity to the search center.
+     * @return true if the entity is now one of the maxResults closest entities.
+     */
+    public boolean offer(T entity, double distance) {
+        if(keptKeys.contains(entity.getKeyString())) {
+            return false;
+        }
+        if(heap.size() < maxResults) {
+            heap.add(new LocationComparableTuple<T>(entity, distance));
+            keptKeys.add(entity.getKeyString());
+            return true;
+        }
+        LocationComparableTuple<T> farthest = heap.peek();
+        int compare = Double.compare(distance, farthest.getSecond());
+        if(compare > 0 || compare == 0 && entity.getKeyString().compareTo(farthest.getFirst().getKeyString()) >= 0) {
+            return false;
+        }
+        keptKeys.remove(heap.poll().getFirst().getKeyString());
+        heap.add(new LocationComparableTuple<T>(entity, distance));
+        keptKeys.add(entity.getKeyString());
+        return true;
+    }
+
+    /**
+     * @return the number of results kept, at most maxResults.
+     */
+    public int size() {
+        return heap.size();
+    }
+
+    /**
+     * @return true if maxResults entities have been found.
+     */
+    public boolean isFull() {
+        return heap.size() == maxResults;
+    }
+
+    /**
+     * @return the distance of the farthest result kept, or 0 if there is no result.
+     */
+    public double farthestDistance() {
+        return heap.isEmpty() ? 0 : heap.peek().getSecond();
+    }
+
+    /**
+     * @return the results kept, sorted by ascending distance.
+     */
+    public List<LocationComparableTuple<T>> toSortedList() {
+        List<LocationComparableTuple<T>> results = new ArrayList<LocationComparableTuple<T>>(heap);
+        Collections.sort(results);
+        return results;
+    }
+
+}
@@ -0,0 +1,241 @@
+/*
+Copyright 2010 Alexandre Gellibert
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.apache.org/licenses/
+LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing permissions
+and limitations under the License.
+*/
+
+package com.beoui.geocell;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import com.beoui.geocell.model.MutableBoundingBox;
+import com.beoui.geocell.model.Point;
+
+/**
+ * The geocells searched by one iteration of a proximity fetch, and how to get
+ * the ones of the next iteration.
+ *
+ * At each resolution, cells are handed out nearest-first: a frontier holds the cells
+ * adjacent to the ones already handed out, by their shortest distance from the center,
+ * computed once per cell. Iterations search 1, 1, then 2 cells (the 4 nearest cells),
+ * then move to the parent resolution, or directly if nothing has been found yet.
+ * At resolution 1, all cells are eventually searched.
+ *
+ * Since the frontier is ordered, the distance of its head is exactly how close a
+ * not yet searched entity can be. No cell is handed out twice at a resolution, but the
+ * cells of the parent resolution cover the area of their searched children again: when
+ * moving up, the head of the old frontier remains a bound of the unsearched region.
+ *
+ */
+final class ProximitySearchPlanner {
+
+    // Number of cells searched at a resolution before moving to the parent resolution.
+    private static final int CELLS_PER_RESOLUTION = 4;
+
+    /*
+     * Distances to cells are underestimated by a margin, in meters, depending on the resolution:
+     * the law of cosines is imprecise under a meter, and compute can put points outside of
+     * the boxes of computeBox (see PackedGeocellUtils.cellBoundaryError).
+     */
+    private static final double[] CELL_BOUNDARY_TOLERANCE = new double[PackedGeocellUtils.MAX_RESOLUTION + 1];
+    static {
+        for(int resolution = 0; resolution <= PackedGeocellUtils.MAX_RESOLUTION; resolution++) {
+            CELL_BOUNDARY_TOLERANCE[resolution] = 1 + Math.toRadians(PackedGeocellUtils.cellBoundaryError(resolution)) * GeocellUtils.RADIUS;
+        }
+    }
+
+    private static final int[][] DIRECTIONS = {{-1,1}, {0,1}, {1,1}, {1,0}, {1,-1}, {0,-1}, {-1,-1}, {-1,0}};
+
+    private final Point center;
+    private final double maxDistance;
+    private final MutableBoundingBox box = new MutableBoundingBox();
+
+    private int resolution;
+
+    // Cells of the current resolution adjacent to the searched ones, nearest first.
+    private PriorityQueue<Candidate> frontier;
+
+    // Cells of the current resolution searched or in the frontier.
+    private Set<Long> seenCells;
+
+    private int searchedAtResolution;
+
+    // The currently-being-searched geocells.
+    private List<String> curGeocells;
+
+    // Shortest distance from the center to the region not searched before this iteration.
+    private double closestPossibleNextResultDist;
+
+    /**
+     * @param center center of the search.
+     * @param resolution resolution of the first cells searched.
+     * @param maxDistance cells farther than this distance, in meters, are never searched. 0 for no limit.
+     */
+    ProximitySearchPlanner(Point center, int resolution, double maxDistance) {
+        this.center = center;
+        this.maxDistance = maxDistance;
+        startResolution(resolution);
+        nextCells();
+    }
+
+    private ProximitySearchPlanner(ProximitySearchPlanner planner) {
+        this.center = planner.center;
+        this.maxDistance = planner.maxDistance;
+        this.resolution = planner.resolution;
+        this.frontier = new PriorityQueue<Candidate>(planner.frontier);
+        this.seenCells = new HashSet<Long>(planner.seenCells);
+        this.searchedAtResolution = planner.searchedAtResolution;
+        this.curGeocells = planner.curGeocells;
+        this.closestPossibleNextResultDist = planner.closestPossibleNextResultDist;
+    }
+
+    /**
+     * @return a copy of this planner, that can be advanced independently.
+     */
+    ProximitySearchPlanner copy() {
+        return new ProximitySearchPlanner(this);
+    }
+
+    /**
+     * @return the geocells to search in this iteration, never searched before.
+     */
+    List<String> getGeocells() {
+        return curGeocells;
+    }
+
+    /**
+     * @return the resolution of the geocells of this iteration. It never increases.
+     */
+    int getResolution() {
+        return resolution;
+    }
+
+    /**
+     * @return the shortest distance from the center to the region searched before this
+     * iteration: no entity out of it can be closer.
+     */
+    double closestPossibleNextResultDist() {
+        return closestPossibleNextResultDist;
+    }
+
+    /**
+     * Moves to the geocells of the next iteration, once the current ones have been searched.
+     *
+     * @param hasResults whether or not the search found any entity so far.
+     * @return false if the search is over, we've searched everywhere (or up to maxDistance).
+     */
+    boolean advance(boolean hasResults) {
+        if(frontier.isEmpty()) {
+            // Every cell not searched yet is farther than maxDistance.
+            return false;
+        }
+        if(resolution > 1 && (!hasResults || searchedAtResolution >= CELLS_PER_RESOLUTION)) {
+            /* Either no results (in which case we optimize by not looking at
+                    adjacents, go straight to the parent) or we've searched the nearest
+                    geocells, in which case we should now search the parents.
+               The frontier of the parents starts at distance 0: keep the bound of this one. */
+            closestPossibleNextResultDist = Math.max(closestPossibleNextResultDist, frontier.peek().distance);
+            startResolution(resolution - 1);
+        }
+        return nextCells();
+    }
+
+    private void startResolution(int newResolution) {
+        resolution = newResolution;
+        frontier = new PriorityQueue<Candidate>();
+        seenCells = new HashSet<Long>();
+        searchedAtResolution = 0;
+        long containingCell = PackedGeocellUtils.compute(center, resolution);
+        seenCells.add(containingCell);
+        frontier.add(new Candidate(containingCell, 0));
+    }
+
+    // Pops the next cells of the frontier: as many as already searched at this resolution.
+    private boolean nextCells() {
+        if(frontier.isEmpty()) {
+            return false;
+        }
+        int numCells = Math.max(searchedAtResolution, 1);
+        if(resolution > 1) {
+            numCells = Math.min(numCells, CELLS_PER_RESOLUTION - searchedAtResolution);
+        }
+        // The frontier is nearest-first: nothing unsearched is closer than its head.
+        closestPossibleNextResultDist = Math.max(closestPossibleNextResultDist, frontier.peek().distance);
+
+        curGeocells = new ArrayList<String>(numCells);
+        while(curGeocells.size() < numCells && !frontier.isEmpty()) {
+            long cell = frontier.poll().cell;
+            curGeocells.add(PackedGeocellUtils.unpack(cell));
+            for(int[] dir : DIRECTIONS) {
+                long adjacent = PackedGeocellUtils.adjacent(cell, dir);
+                // No adjacent cell beyond the poles.
+                if(adjacent != PackedGeocellUtils.NO_CELL && seenCells.add(adjacent)) {
+                    double distance = distanceTo(adjacent);
+                    if(maxDistance <= 0 || distance <= maxDistance) {
+                        frontier.add(new Candidate(adjacent, distance));
+                    }
+                }
+            }
+        }
+        searchedAtResolution += curGeocells.size();
+        return true;
+    }
+
+    // Shortest distance from the center to the cell, 0 if the cell contains it.
+    private double distanceTo(long cell) {
+        PackedGeocellUtils.computeBox(cell, box);
+        double lon = center.getLon();
+        double distance;
+        if(box.getWest() <= lon && lon <= box.getEast()) {
+            distance = distanceToMeridian(lon);
+        } else {
+            // On the sphere, the closest edge is not always the closest in longitude.
+            distance = Math.min(distanceToMeridian(box.getWest()), distanceToMeridian(box.getEast()));
+        }
+        return Math.max(distance - CELL_BOUNDARY_TOLERANCE[PackedGeocellUtils.resolution(cell)], 0);
+    }
+
+    // Shortest distance from the center to the meridian of the box at the given longitude.
+    private double distanceToMeridian(double lon) {
+        /* Along a meridian, cos(distance) = sin(lat0).sin(lat) + cos(lat0).cos(lon - lon0).cos(lat)
+           is a sinusoid of lat, highest at atan2(sin(lat0), cos(lat0).cos(lon - lon0)): the closest
+           point of the edge is the closest latitude of the edge to that one. */
+        double lat0 = Math.toRadians(center.getLat());
+        double closestLat = Math.toDegrees(Math.atan2(Math.sin(lat0), Math.cos(lat0) * Math.cos(Math.toRadians(lon - center.getLon()))));
+        double lat = Math.max(box.getSouth(), Math.min(closestLat, box.getNorth()));
+        if(lat == center.getLat() && lon == center.getLon()) {
+            return 0;
+        }
+        double distance = GeocellUtils.distance(center, new Point(lat, lon));
+        // acos of the law of cosines is not defined for rounding errors on tiny distances.
+        return Double.isNaN(distance) ? 0 : distance;
+    }
+
+    private static final class Candidate implements Comparable<Candidate> {
+
+        private final long cell;
+        private final double distance;
+
+        private Candidate(long cell, double distance) {
+            this.cell = cell;
+            this.distance = distance;
+        }
+
+        @Override
+        public int compareTo(Candidate o) {
+            return Double.compare(distance, o.distance);
+        }
+    }
+
+}
@@ -0,0 +1,85 @@
+/*
+Copyright 2010 Alexandre Gellibert
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.apache.org/licenses/
+LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing permissions
+and limitations under the License.
+*/
+
+package com.beoui.geocell;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Log of one query, see {@link GeocellLogger}. Only exists if something is logged:
+ *
+ * <pre>
+ * QueryTrace trace = QueryTrace.start(logger, "query");
+ * ...
+ * if(trace != null) {
+ *     trace.log("message " + value);
+ * }
+ * ...
+ * if(trace != null) {
+ *     trace.end();
+ * }
+ * </pre>
+ *
+ */
+final class QueryTrace {
+
+    private final Logger logger;
+    private final String query;
+    private final boolean fine;
+    // Messages of a traced query not logged yet, null if not traced.
+    private final StringBuilder messages;
+
+    private QueryTrace(Logger logger, String query, boolean fine, boolean traced) {
+        this.logger = logger;
+        this.query = query;
+        this.fine = fine;
+        this.messages = traced ? new StringBuilder() : null;
+    }
+
+    /**
+     * @return the trace of a query, null if nothing is to be logged.
+     */
+    static QueryTrace start(Logger logger, String query) {
+        if(!GeocellLogger.ENABLED) {
+            return null;
+        }
+        boolean fine = logger.isLoggable(Level.FINE);
+        boolean traced = GeocellLogger.sampleTrace();
+        return fine || traced ? new QueryTrace(logger, query, fine, traced) : null;
+    }
+
+    /**
+     * Logs the message at FINE, and adds it to the trace if the query is traced.
+     */
+    void log(String message) {
+        if(fine) {
+            logger.log(Level.FINE, message);
+        }
+        if(messages != null) {
+            messages.append("\n  ").append(message);
+        }
+    }
+
+    /**
+     * Logs the trace of a traced query. Can be called more than once, ex: for each part of a
+     * lazy query, each call logging the messages added since the previous one.
+     */
+    void end() {
+        if(messages != null && messages.length() > 0) {
+            logger.log(Level.INFO, "trace of " + query + ":" + messages);
+            messages.setLength(0);
+        }
+    }
+
+}
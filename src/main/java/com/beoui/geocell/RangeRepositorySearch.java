@@ -0,0 +1,44 @@
+/*
+Copyright 2010 Alexandre Gellibert
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.apache.org/licenses/
+LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing permissions
+and limitations under the License.
+*/
+
+package com.beoui.geocell;
+
+import java.util.List;
+
+import org.apache.commons.lang.Validate;
+
+import com.beoui.geocell.model.LocationCapable;
+
+/**
+ * Adapts a {@link LocationCapableRangeSearch} to the cell lists of GeocellManager
+ * (proximityFetch, regionFetch...): each list of cells is searched as merged ranges.
+ *
+ * Cells finer than max resolution are searched as their cell of max resolution, so the
+ * entities returned may be a bit outside of them.
+ *
+ */
+public class RangeRepositorySearch<T extends LocationCapable> implements LocationCapableRepositorySearch<T> {
+
+    private final LocationCapableRangeSearch<T> rangeSearch;
+
+    public RangeRepositorySearch(LocationCapableRangeSearch<T> rangeSearch) {
+        Validate.notNull(rangeSearch);
+        this.rangeSearch = rangeSearch;
+    }
+
+    @Override
+    public List<T> search(List<String> geocells) {
+        return rangeSearch.searchRanges(GeocellRange.merge(geocells));
+    }
+
+}
@@ -0,0 +1,334 @@
+/*
+Copyright 2010 Alexandre Gellibert
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.apache.org/licenses/
+LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing permissions
+and limitations under the License.
+*/
+
+package com.beoui.geocell;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import com.beoui.geocell.model.BoundingBox;
+import com.beoui.geocell.model.LocationCapable;
+import com.beoui.geocell.model.MutableBoundingBox;
+import com.beoui.geocell.model.Point;
+import com.beoui.geocell.model.Region;
+
+/**
+ * Geocells of mixed resolutions covering a {@link Region}, built by
+ * {@link GeocellManager#bestRegionSearchCells(Region, com.beoui.geocell.model.CostFunction)}
+ * or {@link GeocellManager#bestBboxCovering(BoundingBox, int)}.
+ *
+ * Cells are split into inside cells, whose points are all in the region, and boundary cells,
+ * partly in the region. Only the entities of boundary cells need to be tested against the region.
+ *
+ */
+public final class RegionCovering {
+
+    private final Region region;
+    private final int resolution;
+    // Coarsest cells first, then in geocell order.
+    private static final Comparator<Long> COARSEST_FIRST = new Comparator<Long>() {
+        @Override
+        public int compare(Long cell1, Long cell2) {
+            int resolution1 = PackedGeocellUtils.resolution(cell1);
+            int resolution2 = PackedGeocellUtils.resolution(cell2);
+            return resolution1 != resolution2 ? resolution1 - resolution2 : Long.compare(cell1, cell2);
+        }
+    };
+
+    // Packed geocells, sorted.
+    private final long[] insideCells;
+    private final long[] boundaryCells;
+
+    private RegionCovering(Region region, int resolution, long[] insideCells, long[] boundaryCells) {
+        this.region = region;
+        this.resolution = resolution;
+        this.insideCells = insideCells;
+        this.boundaryCells = boundaryCells;
+    }
+
+    /**
+     * Covers the region with cells of at most the given resolution: starting from the whole
+     * world, cells outside the region are dropped, inside ones are kept as is, and boundary
+     * ones are subdivided down to the resolution.
+     *
+     * @return the covering, null if it has more than maxCells cells.
+     */
+    static RegionCovering cover(Region region, int resolution, int maxCells) {
+        Descent descent = new Descent(region, resolution, maxCells);
+        if(!descent.visit(0L)) {
+            return null;
+        }
+        return new RegionCovering(region, resolution, toArray(descent.insideCells), toArray(descent.boundaryCells));
+    }
+
+    /**
+     * Covers the region with at most maxCells cells, as tightly as possible: starting from the
+     * smallest cell containing the region, boundary cells are subdivided coarsest first, as long
+     * as their inside and boundary children fit in maxCells.
+     *
+     * If the region is not in a single cell of resolution 1, the covering starts with up to 16
+     * cells of resolution 1, even if maxCells is smaller.
+     */
+    static RegionCovering coverWithin(Region region, int maxCells) {
+        MutableBoundingBox box = new MutableBoundingBox();
+        List<Long> insideCells = new ArrayList<Long>();
+        List<Long> boundaryCells = new ArrayList<Long>();
+        PriorityQueue<Long> candidates = new PriorityQueue<Long>(16, COARSEST_FIRST);
+
+        long start = smallestCellContaining(region.getBoundingBox());
+        Region.Relation startRelation = relate(region, start, box);
+        if(startRelation == Region.Relation.INSIDE && start != 0L) {
+            insideCells.add(start);
+        } else if(startRelation != Region.Relation.OUTSIDE) {
+            candidates.add(start);
+        }
+        int numCells = candidates.size() + insideCells.size();
+
+        List<Long> insideChildren = new ArrayList<Long>();
+        List<Long> boundaryChildren = new ArrayList<Long>();
+        while(!candidates.isEmpty()) {
+            long cell = candidates.poll();
+            if(PackedGeocellUtils.resolution(cell) == PackedGeocellUtils.MAX_RESOLUTION) {
+                boundaryCells.add(cell);
+                continue;
+            }
+            insideChildren.clear();
+            boundaryChildren.clear();
+            for(int digit = 0; digit < GeocellUtils.GEOCELL_GRID_SIZE * GeocellUtils.GEOCELL_GRID_SIZE; digit++) {
+                long child = PackedGeocellUtils.child(cell, digit);
+                Region.Relation relation = relate(region, child, box);
+                if(relation == Region.Relation.INSIDE) {
+                    insideChildren.add(child);
+                } else if(relation == Region.Relation.BOUNDARY) {
+                    boundaryChildren.add(child);
+                }
+            }
+            int numChildren = insideChildren.size() + boundaryChildren.size();
+            // The root cell can't be searched: it is always subdivided.
+            if(cell == 0L || numCells - 1 + numChildren <= maxCells) {
+                numCells += numChildren - 1;
+                insideCells.addAll(insideChildren);
+                candidates.addAll(boundaryChildren);
+            } else {
+                boundaryCells.add(cell);
+            }
+        }
+
+        long[] inside = toArray(insideCells);
+        long[] boundary = toArray(boundaryCells);
+        Arrays.sort(inside);
+        Arrays.sort(boundary);
+        int resolution = 0;
+        for(long cell : inside) {
+            resolution = Math.max(resolution, PackedGeocellUtils.resolution(cell));
+        }
+        for(long cell : boundary) {
+            resolution = Math.max(resolution, PackedGeocellUtils.resolution(cell));
+        }
+        return new RegionCovering(region, resolution, inside, boundary);
+    }
+
+    // The root cell if the box crosses the antimeridian.
+    private static long smallestCellContaining(BoundingBox bbox) {
+        if(bbox.getWest() > bbox.getEast()) {
+            return 0L;
+        }
+        double margin = PackedGeocellUtils.cellBoundaryError(PackedGeocellUtils.MAX_RESOLUTION);
+        long cellNE = PackedGeocellUtils.compute(Math.min(bbox.getNorth() + margin, 90), Math.min(bbox.getEast() + margin, 180), PackedGeocellUtils.MAX_RESOLUTION);
+        long cellSW = PackedGeocellUtils.compute(Math.max(bbox.getSouth() - margin, -90), Math.max(bbox.getWest() - margin, -180), PackedGeocellUtils.MAX_RESOLUTION);
+        int resolution = PackedGeocellUtils.MAX_RESOLUTION;
+        while(PackedGeocellUtils.parent(cellNE, resolution) != PackedGeocellUtils.parent(cellSW, resolution)) {
+            resolution--;
+        }
+        return PackedGeocellUtils.parent(cellNE, resolution);
+    }
+
+    // Relation of the region with the box of the cell, plus the boundary error of compute.
+    private static Region.Relation relate(Region region, long cell, MutableBoundingBox box) {
+        PackedGeocellUtils.computeBox(cell, box);
+        double margin = PackedGeocellUtils.cellBoundaryError(PackedGeocellUtils.resolution(cell));
+        box.set(box.getNorth() + margin, box.getEast() + margin, box.getSouth() - margin, box.getWest() - margin);
+        return region.relate(box);
+    }
+
+    public Region getRegion() {
+        return region;
+    }
+
+    /**
+     * @return the finest resolution of the cells.
+     */
+    public int getResolution() {
+        return resolution;
+    }
+
+    /**
+     * @return the number of cells of the covering.
+     */
+    public int size() {
+        return insideCells.length + boundaryCells.length;
+    }
+
+    /**
+     * @return the area of the cells, in square meters.
+     */
+    public double getArea() {
+        MutableBoundingBox box = new MutableBoundingBox();
+        double area = 0;
+        for(long cell : insideCells) {
+            area += PackedGeocellUtils.computeBox(cell, box).getArea();
+        }
+        for(long cell : boundaryCells) {
+            area += PackedGeocellUtils.computeBox(cell, box).getArea();
+        }
+        return area;
+    }
+
+    /**
+     * @return the area of the cells divided by the one of the bounding box of the region:
+     * how much a covering of a box over-covers it, 1 being an exact covering.
+     */
+    public double getOverCoverage() {
+        return getArea() / region.getBoundingBox().getArea();
+    }
+
+    /**
+     * @return the cells to search, inside and boundary ones, sorted.
+     */
+    public List<String> getCells() {
+        return toGeocells(getPackedCells());
+    }
+
+    // Packed inside and boundary cells, sorted.
+    long[] getPackedCells() {
+        long[] cells = Arrays.copyOf(insideCells, size());
+        System.arraycopy(boundaryCells, 0, cells, insideCells.length, boundaryCells.length);
+        Arrays.sort(cells);
+        return cells;
+    }
+
+    /**
+     * @return the cells whose points are all in the region, sorted.
+     */
+    public List<String> getInsideCells() {
+        return toGeocells(insideCells);
+    }
+
+    /**
+     * @return the cells partly in the region, sorted.
+     */
+    public List<String> getBoundaryCells() {
+        return toGeocells(boundaryCells);
+    }
+
+    /**
+     * Same as {@link Region#contains(Point)} for the points of the cells, tested
+     * only if they are in a boundary cell.
+     *
+     * @param point
+     * @return whether the point is in the region.
+     */
+    public boolean contains(Point point) {
+        long cell = PackedGeocellUtils.compute(point, PackedGeocellUtils.MAX_RESOLUTION);
+        if(isCovered(insideCells, cell)) {
+            return true;
+        }
+        return isCovered(boundaryCells, cell) && region.contains(point);
+    }
+
+    /**
+     * @param entities entities found in the cells of the covering.
+     * @return the entities in the region, in the same order.
+     */
+    public <T extends LocationCapable> List<T> filter(List<T> entities) {
+        List<T> result = new ArrayList<T>();
+        for(T entity : entities) {
+            if(contains(entity.getLocation())) {
+                result.add(entity);
+            }
+        }
+        return result;
+    }
+
+    // Whether the cell is one of the sorted cells or one of their descendants.
+    private static boolean isCovered(long[] cells, long cell) {
+        int index = Arrays.binarySearch(cells, cell);
+        if(index >= 0) {
+            return true;
+        }
+        // Ancestors sort before their descendants: the only candidate is the previous cell.
+        int previous = -index - 2;
+        return previous >= 0 && cell < PackedGeocellUtils.descendantsEnd(cells[previous]);
+    }
+
+    private static List<String> toGeocells(long[] cells) {
+        List<String> geocells = new ArrayList<String>(cells.length);
+        for(long cell : cells) {
+            geocells.add(PackedGeocellUtils.unpack(cell));
+        }
+        return geocells;
+    }
+
+    private static long[] toArray(List<Long> cells) {
+        long[] array = new long[cells.size()];
+        for(int i = 0; i < array.length; i++) {
+            array[i] = cells.get(i);
+        }
+        return array;
+    }
+
+    // Depth-first, children by digit: cells are found sorted.
+    private static final class Descent {
+
+        private final Region region;
+        private final int resolution;
+        private final int maxCells;
+        private final MutableBoundingBox box = new MutableBoundingBox();
+        private final List<Long> insideCells = new ArrayList<Long>();
+        private final List<Long> boundaryCells = new ArrayList<Long>();
+
+        private Descent(Region region, int resolution, int maxCells) {
+            this.region = region;
+            this.resolution = resolution;
+            this.maxCells = maxCells;
+        }
+
+        // Returns false once there are too many cells.
+        private boolean visit(long cell) {
+            int cellResolution = PackedGeocellUtils.resolution(cell);
+            Region.Relation relation = relate(region, cell, box);
+            if(relation == Region.Relation.OUTSIDE) {
+                return true;
+            }
+            // The root cell can't be searched.
+            if(relation == Region.Relation.INSIDE && cellResolution > 0) {
+                insideCells.add(cell);
+                return insideCells.size() + boundaryCells.size() <= maxCells;
+            }
+            if(cellResolution == resolution) {
+                boundaryCells.add(cell);
+                return insideCells.size() + boundaryCells.size() <= maxCells;
+            }
+            for(int digit = 0; digit < GeocellUtils.GEOCELL_GRID_SIZE * GeocellUtils.GEOCELL_GRID_SIZE; digit++) {
+                if(!visit(PackedGeocellUtils.child(cell, digit))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+}
@@ -0,0 +1,152 @@
+/*
+Copyright 2010 Alexandre Gellibert
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.apache.org/licenses/
+LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing permissions
+and limitations under the License.
+*/
+
+package com.beoui.geocell;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * Bounded, thread-safe LRU map with hit/miss/eviction counters, used by the caches of this package.
+ *
+ * Entries are split in segments on the key hash, each one being an LRU map protected by its
+ * own lock: when a segment is full, its least recently used entry is evicted. Segments
+ * hold at least one entry, so the cache can hold up to 16 entries whatever maxSize is.
+ *
+ */
+final class SegmentedLruCache<K, V> {
+
+    private static final int NUM_SEGMENTS = 16;
+
+    private final List<Segment> segments;
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+
+    SegmentedLruCache(int maxSize) {
+        Validate.isTrue(maxSize > 0, "maxSize must be > 0: ", maxSize);
+        int segmentSize = Math.max(1, maxSize / NUM_SEGMENTS);
+        segments = new ArrayList<Segment>(NUM_SEGMENTS);
+        for(int i = 0; i < NUM_SEGMENTS; i++) {
+            segments.add(new Segment(segmentSize));
+        }
+    }
+
+    /**
+     * @return the value of the key, or null if it is not in the cache. Counts a hit or a miss.
+     */
+    V get(K key) {
+        V value = peek(key);
+        if(value != null) {
+            hitCount.increment();
+        } else {
+            missCount.increment();
+        }
+        return value;
+    }
+
+    /**
+     * @return the value of the key, or null if it is not in the cache. Not counted in the metrics.
+     */
+    V peek(K key) {
+        Segment segment = segment(key);
+        synchronized(segment) {
+            return segment.get(key);
+        }
+    }
+
+    void hit() {
+        hitCount.increment();
+    }
+
+    void miss() {
+        missCount.increment();
+    }
+
+    void put(K key, V value) {
+        Segment segment = segment(key);
+        synchronized(segment) {
+            segment.put(key, value);
+        }
+    }
+
+    int size() {
+        int size = 0;
+        for(Segment segment : segments) {
+            synchronized(segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    void clear() {
+        for(Segment segment : segments) {
+            synchronized(segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    long getHitCount() {
+        return hitCount.sum();
+    }
+
+    long getMissCount() {
+        return missCount.sum();
+    }
+
+    long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    double getHitRatio() {
+        long hits = hitCount.sum();
+        long requests = hits + missCount.sum();
+        return requests == 0 ? 0 : (double) hits / requests;
+    }
+
+    private Segment segment(K key) {
+        // Spreads the hash on the high bits, which select the segment.
+        int h = key.hashCode() * 0x9E3779B9;
+        return segments.get((h >>> 28) & (NUM_SEGMENTS - 1));
+    }
+
+    private final class Segment extends LinkedHashMap<K, V> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int maxSize;
+
+        Segment(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            if(size() > maxSize) {
+                evictionCount.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+
+}
@@ -13,12 +13,15 @@ and limitations under the License.
 
 package com.beoui.geocell.model;
 
+import com.beoui.geocell.GeocellUtils;
+
 /**
+ * Box between two latitudes and two longitudes. If west > east, the box crosses the antimeridian.
  *
  * @author Alexandre Gellibert <alexandre.gellibert@gmail.com>
  *
  */
-public class BoundingBox {
+public class BoundingBox implements Region {
 
     private Point northEast;
     private Point southWest;
@@ -64,4 +67,59 @@ public class BoundingBox {
         return southWest;
     }
 
+    /**
+     * @return the area of the box on the sphere, in square meters.
+     */
+    public double getArea() {
+        double lonSpan = getEast() - getWest();
+        if(lonSpan < 0) {
+            lonSpan += 360;
+        }
+        return (double) GeocellUtils.RADIUS * GeocellUtils.RADIUS * Math.toRadians(lonSpan)
+                * (Math.sin(Math.toRadians(getNorth())) - Math.sin(Math.toRadians(getSouth())));
+    }
+
+    @Override
+    public BoundingBox getBoundingBox() {
+        return this;
+    }
+
+    @Override
+    public boolean contains(Point point) {
+        double lon = point.getLon();
+        boolean lonInside = getWest() <= getEast() ? lon >= getWest() && lon <= getEast() : lon >= getWest() || lon <= getEast();
+        return lonInside && point.getLat() >= getSouth() && point.getLat() <= getNorth();
+    }
+
+    /**
+     * @param box box not crossing the antimeridian.
+     */
+    @Override
+    public Relation relate(BoundingBox box) {
+        if(box.getSouth() > getNorth() || box.getNorth() < getSouth()) {
+            return Relation.OUTSIDE;
+        }
+        Relation relation;
+        if(getWest() <= getEast()) {
+            relation = relateLon(box, getWest(), getEast());
+        } else {
+            // Two parts, on both sides of the antimeridian.
+            relation = relateLon(box, getWest(), 180);
+            if(relation == Relation.OUTSIDE) {
+                relation = relateLon(box, -180, getEast());
+            }
+        }
+        if(relation == Relation.INSIDE && (box.getNorth() > getNorth() || box.getSouth() < getSouth())) {
+            return Relation.BOUNDARY;
+        }
+        return relation;
+    }
+
+    private static Relation relateLon(BoundingBox box, double west, double east) {
+        if(box.getWest() > east || box.getEast() < west) {
+            return Relation.OUTSIDE;
+        }
+        return box.getWest() >= west && box.getEast() <= east ? Relation.INSIDE : Relation.BOUNDARY;
+    }
+
 }
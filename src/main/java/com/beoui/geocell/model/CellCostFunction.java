@@ -0,0 +1,33 @@
+/*
+Copyright 2010 Alexandre Gellibert
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.apache.org/licenses/
+LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing permissions
+and limitations under the License.
+*/
+
+package com.beoui.geocell.model;
+
+/**
+ * Cost function that can see the cells of an operation, not only their number, ex: to
+ * estimate how many entities they hold. Used instead of defaultCostFunction wherever
+ * the cells are known.
+ *
+ * The cost of given cells may change over time: results using such a function are not cached.
+ *
+ */
+public interface CellCostFunction extends CostFunction {
+
+    /**
+     * @param cells packed geocells to search, see PackedGeocellUtils.
+     * @param resolution finest resolution of those cells
+     * @return the cost of the operation
+     */
+    public double cellCostFunction(long[] cells, int resolution);
+
+}
@@ -0,0 +1,47 @@
+/*
+Copyright 2010 Alexandre Gellibert
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.apache.org/licenses/
+LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing permissions
+and limitations under the License.
+*/
+
+package com.beoui.geocell.model;
+
+/**
+ * Haversine distance function for searches around a fixed center: the center latitude in
+ * radians and its cosine are computed once, so ranking an entity from the center costs
+ * 3 trigonometric calls instead of 4.
+ *
+ * The center must be the first point given to distance and rank. Other points are
+ * computed as with {@link HaversineDistanceFunction}.
+ *
+ */
+public class CenteredHaversineDistanceFunction extends HaversineDistanceFunction {
+
+    private final double centerLat;
+    private final double centerLon;
+    private final double centerLatRadians;
+    private final double cosCenterLat;
+
+    public CenteredHaversineDistanceFunction(Point center) {
+        this.centerLat = center.getLat();
+        this.centerLon = center.getLon();
+        this.centerLatRadians = Math.toRadians(centerLat);
+        this.cosCenterLat = Math.cos(centerLatRadians);
+    }
+
+    @Override
+    public double rank(Point p1, Point p2) {
+        if(p1.getLat() != centerLat || p1.getLon() != centerLon) {
+            return super.rank(p1, p2);
+        }
+        return squaredChord(centerLatRadians, cosCenterLat, Math.toRadians(p2.getLat()), Math.toRadians(p2.getLon() - centerLon));
+    }
+
+}
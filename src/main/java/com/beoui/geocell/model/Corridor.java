@@ -0,0 +1,147 @@
+/*
+Copyright 2010 Alexandre Gellibert
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.apache.org/licenses/
+LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing permissions
+and limitations under the License.
+*/
+
+package com.beoui.geocell.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.lang.Validate;
+
+import com.beoui.geocell.GeocellUtils;
+
+/**
+ * Points within a distance of a path (polyline), ex: a road or a route with a buffer.
+ *
+ * Distances are equirectangular: the distance from a point to a segment of the path is
+ * computed in the plane where longitudes are scaled by the cosine of the point's latitude.
+ * Fine for buffers of a few kilometers.
+ *
+ */
+public class Corridor implements Region {
+
+    // Meters per degree of latitude.
+    private static final double METERS_PER_DEGREE = Math.toRadians(GeocellUtils.RADIUS);
+
+    private final double[] lats;
+    private final double[] lons;
+    private final double buffer;
+    private final BoundingBox boundingBox;
+
+    /**
+     * @param path at least one point, consecutive points being linked by a segment.
+     * @param buffer distance from the path, in meters, > 0.
+     */
+    public Corridor(List<Point> path, double buffer) {
+        Validate.isTrue(!path.isEmpty(), "The path of a corridor needs at least one point");
+        Validate.isTrue(buffer > 0, "buffer must be > 0: ", buffer);
+        this.buffer = buffer;
+        lats = new double[path.size()];
+        lons = new double[path.size()];
+        double north = -90;
+        double east = -180;
+        double south = 90;
+        double west = 180;
+        for(int i = 0; i < lats.length; i++) {
+            lats[i] = path.get(i).getLat();
+            lons[i] = path.get(i).getLon();
+            north = Math.max(north, lats[i]);
+            south = Math.min(south, lats[i]);
+            east = Math.max(east, lons[i]);
+            west = Math.min(west, lons[i]);
+        }
+        double latDelta = buffer / METERS_PER_DEGREE;
+        north = Math.min(north + latDelta, 90);
+        south = Math.max(south - latDelta, -90);
+        double cos = Math.cos(Math.toRadians(Math.max(Math.abs(north), Math.abs(south))));
+        if(latDelta < cos * 180) {
+            east += latDelta / cos;
+            west -= latDelta / cos;
+        } else {
+            east = 180;
+            west = -180;
+        }
+        boundingBox = new BoundingBox(north, east, south, west);
+    }
+
+    public List<Point> getPath() {
+        List<Point> path = new ArrayList<Point>(lats.length);
+        for(int i = 0; i < lats.length; i++) {
+            path.add(new Point(lats[i], lons[i]));
+        }
+        return path;
+    }
+
+    public double getBuffer() {
+        return buffer;
+    }
+
+    @Override
+    public BoundingBox getBoundingBox() {
+        return boundingBox;
+    }
+
+    @Override
+    public boolean contains(Point point) {
+        double cos = Math.cos(Math.toRadians(point.getLat()));
+        double x = point.getLon() * cos;
+        double maxDistance = buffer / METERS_PER_DEGREE;
+        for(int i = 0; i < lats.length; i++) {
+            int j = Math.min(i + 1, lats.length - 1);
+            if(PlanarGeometry.pointSegmentDistance(x, point.getLat(), lons[i] * cos, lats[i], lons[j] * cos, lats[j]) <= maxDistance) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * The scale of longitudes varies with the latitude of the points of the box: the distance is
+     * at least the one with the smallest cosine, at most the one with the largest. The buffer of
+     * a segment being convex in a fixed plane, the box is inside it if its four corners are.
+     */
+    @Override
+    public Relation relate(BoundingBox box) {
+        if(box.getSouth() > boundingBox.getNorth() || box.getNorth() < boundingBox.getSouth()
+                || box.getWest() > boundingBox.getEast() || box.getEast() < boundingBox.getWest()) {
+            return Relation.OUTSIDE;
+        }
+        double north = box.getNorth();
+        double south = box.getSouth();
+        double cosMin = Math.cos(Math.toRadians(Math.max(Math.abs(north), Math.abs(south))));
+        double cosMax = south <= 0 && north >= 0 ? 1 : Math.cos(Math.toRadians(Math.min(Math.abs(north), Math.abs(south))));
+        double maxDistance = buffer / METERS_PER_DEGREE;
+        boolean outside = true;
+        for(int i = 0; i < lats.length; i++) {
+            int j = Math.min(i + 1, lats.length - 1);
+            if(outside && PlanarGeometry.segmentRectDistance(lons[i] * cosMin, lats[i], lons[j] * cosMin, lats[j],
+                    box.getWest() * cosMin, south, box.getEast() * cosMin, north) <= maxDistance) {
+                outside = false;
+            }
+            if(!outside && cornersWithin(box, lons[i] * cosMax, lats[i], lons[j] * cosMax, lats[j], cosMax, maxDistance)) {
+                return Relation.INSIDE;
+            }
+        }
+        return outside ? Relation.OUTSIDE : Relation.BOUNDARY;
+    }
+
+    private static boolean cornersWithin(BoundingBox box, double x1, double y1, double x2, double y2, double cos, double maxDistance) {
+        double west = box.getWest() * cos;
+        double east = box.getEast() * cos;
+        return PlanarGeometry.pointSegmentDistance(west, box.getSouth(), x1, y1, x2, y2) <= maxDistance
+                && PlanarGeometry.pointSegmentDistance(west, box.getNorth(), x1, y1, x2, y2) <= maxDistance
+                && PlanarGeometry.pointSegmentDistance(east, box.getSouth(), x1, y1, x2, y2) <= maxDistance
+                && PlanarGeometry.pointSegmentDistance(east, box.getNorth(), x1, y1, x2, y2) <= maxDistance;
+    }
+
+}
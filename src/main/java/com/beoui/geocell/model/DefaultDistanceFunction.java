@@ -0,0 +1,37 @@
+/*
+Copyright 2010 Alexandre Gellibert
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.apache.org/licenses/
+LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing permissions
+and limitations under the License.
+*/
+
+package com.beoui.geocell.model;
+
+import com.beoui.geocell.GeocellUtils;
+
+/**
+ * Default distance function used if no distance function is specified in GeocellManager.proximityFetch method:
+ * great circle distance using the spherical law of cosines, see {@link GeocellUtils#distance(Point, Point)}.
+ *
+ */
+public class DefaultDistanceFunction implements DistanceFunction {
+
+    public double distance(Point p1, Point p2) {
+        return GeocellUtils.distance(p1, p2);
+    }
+
+    public double rank(Point p1, Point p2) {
+        return GeocellUtils.distance(p1, p2);
+    }
+
+    public double toDistance(double rank) {
+        return rank;
+    }
+
+}
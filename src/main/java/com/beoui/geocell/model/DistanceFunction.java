@@ -0,0 +1,46 @@
+/*
+Copyright 2010 Alexandre Gellibert
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.apache.org/licenses/
+LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing permissions
+and limitations under the License.
+*/
+
+package com.beoui.geocell.model;
+
+/**
+ * Interface to create a distance function used to rank entities in proximity searches.
+ *
+ * Ranking only needs to compare distances, so implementations can return a cheaper
+ * value from rank (e.g. without the final inverse trigonometric function) as long as it
+ * is ordered like the distance. Distances in meters are then only computed for the results.
+ *
+ */
+public interface DistanceFunction {
+
+    /**
+     * @param p1 first point
+     * @param p2 second point
+     * @return the distance between the two points, in meters.
+     */
+    public double distance(Point p1, Point p2);
+
+    /**
+     * @param p1 first point
+     * @param p2 second point
+     * @return a value increasing with the distance between the two points.
+     */
+    public double rank(Point p1, Point p2);
+
+    /**
+     * @param rank a value returned by rank
+     * @return the distance in meters matching this rank.
+     */
+    public double toDistance(double rank);
+
+}
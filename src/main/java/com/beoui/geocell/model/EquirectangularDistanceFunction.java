@@ -0,0 +1,50 @@
+/*
+Copyright 2010 Alexandre Gellibert
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.apache.org/licenses/
+LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing permissions
+and limitations under the License.
+*/
+
+package com.beoui.geocell.model;
+
+import com.beoui.geocell.GeocellUtils;
+
+/**
+ * Equirectangular approximation of the great circle distance: points are projected on a plane
+ * scaled by the cosine of their mean latitude. It needs a single trigonometric call and is
+ * accurate to a fraction of a percent for distances up to a few hundred kilometers, away from
+ * the poles. Farther, it overestimates or underestimates distances.
+ *
+ * Points are ranked by the squared distance on the plane, in radians.
+ *
+ */
+public class EquirectangularDistanceFunction implements DistanceFunction {
+
+    public double distance(Point p1, Point p2) {
+        return toDistance(rank(p1, p2));
+    }
+
+    public double rank(Point p1, Point p2) {
+        double deltaLon = p2.getLon() - p1.getLon();
+        // Shortest way, across the 180th meridian if needed.
+        if(deltaLon > 180) {
+            deltaLon -= 360;
+        } else if(deltaLon < -180) {
+            deltaLon += 360;
+        }
+        double x = Math.toRadians(deltaLon) * Math.cos(Math.toRadians((p1.getLat() + p2.getLat()) / 2));
+        double y = Math.toRadians(p2.getLat() - p1.getLat());
+        return x * x + y * y;
+    }
+
+    public double toDistance(double rank) {
+        return GeocellUtils.RADIUS * Math.sqrt(rank);
+    }
+
+}
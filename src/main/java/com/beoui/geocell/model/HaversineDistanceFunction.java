@@ -0,0 +1,56 @@
+/*
+Copyright 2010 Alexandre Gellibert
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.apache.org/licenses/
+LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing permissions
+and limitations under the License.
+*/
+
+package com.beoui.geocell.model;
+
+import com.beoui.geocell.GeocellUtils;
+
+/**
+ * Great circle distance using the haversine formula, which stays accurate for short distances
+ * where the law of cosines loses precision.
+ *
+ * Points are ranked by the squared length of the chord between them on the unit sphere,
+ * which needs no inverse trigonometric function nor square root.
+ *
+ */
+public class HaversineDistanceFunction implements DistanceFunction {
+
+    public double distance(Point p1, Point p2) {
+        return toDistance(rank(p1, p2));
+    }
+
+    public double rank(Point p1, Point p2) {
+        double p1lat = Math.toRadians(p1.getLat());
+        double p2lat = Math.toRadians(p2.getLat());
+        return squaredChord(p1lat, Math.cos(p1lat), p2lat, Math.toRadians(p2.getLon() - p1.getLon()));
+    }
+
+    public double toDistance(double rank) {
+        // The chord is 2.sin(angle / 2) long.
+        return 2 * GeocellUtils.RADIUS * Math.asin(Math.min(1, Math.sqrt(rank) / 2));
+    }
+
+    /**
+     * @param lat1 latitude of the first point, in radians
+     * @param cosLat1 cosine of lat1
+     * @param lat2 latitude of the second point, in radians
+     * @param deltaLon longitude of the second point minus longitude of the first point, in radians
+     * @return the squared length of the chord between the two points on the unit sphere.
+     */
+    static double squaredChord(double lat1, double cosLat1, double lat2, double deltaLon) {
+        double sinHalfDeltaLat = Math.sin((lat2 - lat1) / 2);
+        double sinHalfDeltaLon = Math.sin(deltaLon / 2);
+        return 4 * (sinHalfDeltaLat * sinHalfDeltaLat + cosLat1 * Math.cos(lat2) * sinHalfDeltaLon * sinHalfDeltaLon);
+    }
+
+}
@@ -0,0 +1,43 @@
+/*
+Copyright 2010 Alexandre Gellibert
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.apache.org/licenses/
+LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing permissions
+and limitations under the License.
+*/
+
+package com.beoui.geocell.model;
+
+/**
+ * Bounding box whose boundaries can be set again, to compute many boxes without allocation.
+ *
+ */
+public class MutableBoundingBox extends BoundingBox {
+
+    /**
+     * Creates the box of the whole world.
+     */
+    public MutableBoundingBox() {
+        super(90.0, 180.0, -90.0, -180.0);
+    }
+
+    /**
+     * Sets the boundaries of this box. Unlike the constructor of BoundingBox,
+     * north and south are not swapped: north must be >= south.
+     *
+     * @return this box.
+     */
+    public MutableBoundingBox set(double north, double east, double south, double west) {
+        getNorthEast().setLat(north);
+        getNorthEast().setLon(east);
+        getSouthWest().setLat(south);
+        getSouthWest().setLon(west);
+        return this;
+    }
+
+}
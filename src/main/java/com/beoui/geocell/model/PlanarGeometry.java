@@ -0,0 +1,101 @@
+/*
+Copyright 2010 Alexandre Gellibert
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.apache.org/licenses/
+LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing permissions
+and limitations under the License.
+*/
+
+package com.beoui.geocell.model;
+
+/**
+ * Segment and rectangle computations in the plane, used by the regions.
+ * Rectangles are axis-aligned, given by their bounds.
+ *
+ */
+final class PlanarGeometry {
+
+    private PlanarGeometry() {
+        // no instantiation allowed
+    }
+
+    /**
+     * Clips the segment by the rectangle (Liang-Barsky).
+     *
+     * @return whether the segment (x1, y1) - (x2, y2) has a point in the rectangle.
+     */
+    static boolean segmentIntersectsRect(double x1, double y1, double x2, double y2,
+            double minX, double minY, double maxX, double maxY) {
+        double dx = x2 - x1;
+        double dy = y2 - y1;
+        double[] range = {0, 1};
+        return clip(-dx, x1 - minX, range) && clip(dx, maxX - x1, range)
+                && clip(-dy, y1 - minY, range) && clip(dy, maxY - y1, range);
+    }
+
+    // Restricts range to the parameters t where p * t <= q.
+    private static boolean clip(double p, double q, double[] range) {
+        if(p == 0) {
+            return q >= 0;
+        }
+        double t = q / p;
+        if(p < 0) {
+            if(t > range[1]) {
+                return false;
+            }
+            range[0] = Math.max(range[0], t);
+        } else {
+            if(t < range[0]) {
+                return false;
+            }
+            range[1] = Math.min(range[1], t);
+        }
+        return true;
+    }
+
+    /**
+     * @return the distance between the point (x, y) and the segment (x1, y1) - (x2, y2).
+     */
+    static double pointSegmentDistance(double x, double y, double x1, double y1, double x2, double y2) {
+        double dx = x2 - x1;
+        double dy = y2 - y1;
+        double lengthSq = dx * dx + dy * dy;
+        double t = 0;
+        if(lengthSq > 0) {
+            t = Math.max(0, Math.min(1, ((x - x1) * dx + (y - y1) * dy) / lengthSq));
+        }
+        return Math.hypot(x - (x1 + t * dx), y - (y1 + t * dy));
+    }
+
+    /**
+     * @return the distance between the point (x, y) and the rectangle, 0 if inside.
+     */
+    static double pointRectDistance(double x, double y, double minX, double minY, double maxX, double maxY) {
+        double dx = Math.max(0, Math.max(minX - x, x - maxX));
+        double dy = Math.max(0, Math.max(minY - y, y - maxY));
+        return Math.hypot(dx, dy);
+    }
+
+    /**
+     * @return the distance between the segment (x1, y1) - (x2, y2) and the rectangle, 0 if they intersect.
+     */
+    static double segmentRectDistance(double x1, double y1, double x2, double y2,
+            double minX, double minY, double maxX, double maxY) {
+        if(segmentIntersectsRect(x1, y1, x2, y2, minX, minY, maxX, maxY)) {
+            return 0;
+        }
+        // Disjoint: the closest points are an end of the segment or a corner of the rectangle.
+        double distance = Math.min(pointRectDistance(x1, y1, minX, minY, maxX, maxY),
+                pointRectDistance(x2, y2, minX, minY, maxX, maxY));
+        distance = Math.min(distance, pointSegmentDistance(minX, minY, x1, y1, x2, y2));
+        distance = Math.min(distance, pointSegmentDistance(minX, maxY, x1, y1, x2, y2));
+        distance = Math.min(distance, pointSegmentDistance(maxX, minY, x1, y1, x2, y2));
+        return Math.min(distance, pointSegmentDistance(maxX, maxY, x1, y1, x2, y2));
+    }
+
+}
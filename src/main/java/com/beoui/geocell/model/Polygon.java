@@ -0,0 +1,102 @@
+/*
+Copyright 2010 Alexandre Gellibert
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.apache.org/licenses/
+LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing permissions
+and limitations under the License.
+*/
+
+package com.beoui.geocell.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * Polygon whose edges are straight lines in latitude/longitude, ex: a zone drawn on a map.
+ * Points are inside following the even-odd rule.
+ *
+ */
+public class Polygon implements Region {
+
+    private final double[] lats;
+    private final double[] lons;
+    private final BoundingBox boundingBox;
+
+    /**
+     * @param vertices at least 3 vertices, the last one being linked to the first one.
+     */
+    public Polygon(List<Point> vertices) {
+        Validate.isTrue(vertices.size() >= 3, "A polygon needs at least 3 vertices: ", vertices.size());
+        lats = new double[vertices.size()];
+        lons = new double[vertices.size()];
+        double north = -90;
+        double east = -180;
+        double south = 90;
+        double west = 180;
+        for(int i = 0; i < lats.length; i++) {
+            lats[i] = vertices.get(i).getLat();
+            lons[i] = vertices.get(i).getLon();
+            north = Math.max(north, lats[i]);
+            south = Math.min(south, lats[i]);
+            east = Math.max(east, lons[i]);
+            west = Math.min(west, lons[i]);
+        }
+        boundingBox = new BoundingBox(north, east, south, west);
+    }
+
+    public List<Point> getVertices() {
+        List<Point> vertices = new ArrayList<Point>(lats.length);
+        for(int i = 0; i < lats.length; i++) {
+            vertices.add(new Point(lats[i], lons[i]));
+        }
+        return vertices;
+    }
+
+    @Override
+    public BoundingBox getBoundingBox() {
+        return boundingBox;
+    }
+
+    @Override
+    public boolean contains(Point point) {
+        return contains(point.getLat(), point.getLon());
+    }
+
+    // Crossings of a ray going east from the point.
+    private boolean contains(double lat, double lon) {
+        boolean inside = false;
+        for(int i = 0, j = lats.length - 1; i < lats.length; j = i++) {
+            if((lats[i] > lat) != (lats[j] > lat)
+                    && lon < lons[i] + (lat - lats[i]) * (lons[j] - lons[i]) / (lats[j] - lats[i])) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+    @Override
+    public Relation relate(BoundingBox box) {
+        if(box.getSouth() > boundingBox.getNorth() || box.getNorth() < boundingBox.getSouth()
+                || box.getWest() > boundingBox.getEast() || box.getEast() < boundingBox.getWest()) {
+            return Relation.OUTSIDE;
+        }
+        for(int i = 0, j = lats.length - 1; i < lats.length; j = i++) {
+            if(PlanarGeometry.segmentIntersectsRect(lons[j], lats[j], lons[i], lats[i],
+                    box.getWest(), box.getSouth(), box.getEast(), box.getNorth())) {
+                return Relation.BOUNDARY;
+            }
+        }
+        // No edge in the box: it is either all inside or all outside.
+        double lat = (box.getNorth() + box.getSouth()) / 2;
+        double lon = (box.getEast() + box.getWest()) / 2;
+        return contains(lat, lon) ? Relation.INSIDE : Relation.OUTSIDE;
+    }
+
+}
@@ -0,0 +1,47 @@
+package com.beoui.geocell.model;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * One proximity search of a batch, see GeocellManager.proximityFetch(List, ...).
+ *
+ */
+public class ProximityQuery {
+
+    /**
+     * Center point around which to search for entities.
+     */
+    private final Point center;
+
+    /**
+     * Maximum number of entities to return, must be > 0.
+     */
+    private final int maxResults;
+
+    /**
+     * (Optional)
+     * Maximum distance to search, in meters. 0 if no max distance is expected.
+     */
+    private final double maxDistance;
+
+    public ProximityQuery(Point center, int maxResults, double maxDistance) {
+        Validate.notNull(center);
+        Validate.isTrue(maxResults > 0, "maxResults must be > 0: ", maxResults);
+        this.center = center;
+        this.maxResults = maxResults;
+        this.maxDistance = maxDistance;
+    }
+
+    public Point getCenter() {
+        return center;
+    }
+
+    public int getMaxResults() {
+        return maxResults;
+    }
+
+    public double getMaxDistance() {
+        return maxDistance;
+    }
+
+}
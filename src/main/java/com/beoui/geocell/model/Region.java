@@ -0,0 +1,57 @@
+/*
+Copyright 2010 Alexandre Gellibert
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.apache.org/licenses/
+LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing permissions
+and limitations under the License.
+*/
+
+package com.beoui.geocell.model;
+
+/**
+ * Area searched by GeocellManager.bestRegionSearchCells and regionFetch.
+ *
+ * Unless stated otherwise (ex: {@link BoundingBox}), regions must not cross the antimeridian:
+ * longitudes are compared as plain numbers.
+ *
+ */
+public interface Region {
+
+    /**
+     * Position of a bounding box relative to a region.
+     */
+    enum Relation {
+        /** No point of the box is in the region. */
+        OUTSIDE,
+        /** The box may be partly in the region. */
+        BOUNDARY,
+        /** All the points of the box are in the region. */
+        INSIDE
+    }
+
+    /**
+     * @return a box containing the whole region.
+     */
+    BoundingBox getBoundingBox();
+
+    /**
+     * @param point
+     * @return whether the point is in the region.
+     */
+    boolean contains(Point point);
+
+    /**
+     * Must be conservative: OUTSIDE and INSIDE only if they are certain,
+     * in the sense of {@link #contains(Point)}, BOUNDARY otherwise.
+     *
+     * @param box
+     * @return the position of the box relative to the region.
+     */
+    Relation relate(BoundingBox box);
+
+}
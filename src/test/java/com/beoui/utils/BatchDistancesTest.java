@@ -0,0 +1,92 @@
+/*
+Copyright 2010 Alexandre Gellibert
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.apache.org/licenses/
+LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing permissions
+and limitations under the License.
+*/
+
+package com.beoui.utils;
+
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import com.beoui.geocell.GeocellUtils;
+import com.beoui.geocell.model.Point;
+
+/**
+ * Checks the batch distance computations of GeocellUtils against GeocellUtils.distance.
+ *
+ */
+public class BatchDistancesTest extends TestCase {
+
+    private static final int NUM_POINTS = 2000;
+
+    private final Random random = new Random(42);
+
+    private final Point center = new Point(44.84, -0.58);
+    private final double[] lats = new double[NUM_POINTS];
+    private final double[] lons = new double[NUM_POINTS];
+    private DoubleBuffer coordinates;
+
+    @Override
+    protected void setUp() {
+        // A leading pair of garbage values, skipped through the buffer position.
+        coordinates = DoubleBuffer.allocate(2 * NUM_POINTS + 2);
+        coordinates.put(1000).put(1000);
+        for(int i = 0; i < NUM_POINTS; i++) {
+            // Some points twice, to check ties.
+            int j = i % 10 == 9 ? i - 1 : i;
+            lats[i] = j == i ? center.getLat() + random.nextDouble() * 20 - 10 : lats[j];
+            lons[i] = j == i ? center.getLon() + random.nextDouble() * 20 - 10 : lons[j];
+            coordinates.put(lats[i]).put(lons[i]);
+        }
+        coordinates.position(2);
+    }
+
+    public void testDistances() {
+        double[] distances = new double[NUM_POINTS];
+        double[] bufferDistances = new double[NUM_POINTS];
+        GeocellUtils.distances(center, lats, lons, distances, NUM_POINTS);
+        GeocellUtils.distances(center, coordinates, bufferDistances);
+        for(int i = 0; i < NUM_POINTS; i++) {
+            double expected = GeocellUtils.distance(center, new Point(lats[i], lons[i]));
+            Assert.assertEquals(expected, distances[i], 0);
+            Assert.assertEquals(expected, bufferDistances[i], 0);
+        }
+        Assert.assertEquals(2, coordinates.position());
+    }
+
+    public void testNearest() {
+        final double[] distances = new double[NUM_POINTS];
+        GeocellUtils.distances(center, lats, lons, distances, NUM_POINTS);
+        Integer[] sorted = new Integer[NUM_POINTS];
+        for(int i = 0; i < NUM_POINTS; i++) {
+            sorted[i] = i;
+        }
+        Arrays.sort(sorted, (i1, i2) -> Double.compare(distances[i1], distances[i2]));
+
+        for(int k : new int[] {1, 10, 99, NUM_POINTS, NUM_POINTS + 10}) {
+            int[] nearest = GeocellUtils.nearest(center, lats, lons, NUM_POINTS, k);
+            Assert.assertEquals(Math.min(k, NUM_POINTS), nearest.length);
+            Assert.assertTrue(Arrays.equals(nearest, GeocellUtils.nearest(center, coordinates, k)));
+            for(int i = 0; i < nearest.length; i++) {
+                // Same distances as a full sort, up to rounding.
+                Assert.assertEquals(distances[sorted[i]], distances[nearest[i]], 1e-6);
+                if(i > 0 && lats[nearest[i]] == lats[nearest[i - 1]] && lons[nearest[i]] == lons[nearest[i - 1]]) {
+                    Assert.assertTrue(nearest[i] > nearest[i - 1]);
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,85 @@
+/*
+Copyright 2010 Alexandre Gellibert
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.apache.org/licenses/
+LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing permissions
+and limitations under the License.
+*/
+
+package com.beoui.utils;
+
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import com.beoui.geocell.BboxSearchCellsCache;
+import com.beoui.geocell.GeocellLogger;
+import com.beoui.geocell.GeocellManager;
+import com.beoui.geocell.model.BoundingBox;
+import com.beoui.geocell.model.CostFunction;
+
+/**
+ * Checks that the cache of bestBboxSearchCells returns the same cells as bestBboxSearchCells.
+ *
+ */
+public class BboxSearchCellsCacheTest extends TestCase {
+
+    private final Random random = new Random(42);
+
+    private final Logger logger = GeocellLogger.get();
+    private Level level;
+
+    @Override
+    protected void setUp() {
+        // bestBboxSearchCells logs each call.
+        level = logger.getLevel();
+        logger.setLevel(Level.WARNING);
+    }
+
+    @Override
+    protected void tearDown() {
+        logger.setLevel(level);
+    }
+
+    public void testSameCellsAsBestBboxSearchCells() {
+        CostFunction costFunction = new CostFunction() {
+            public double defaultCostFunction(int numCells, int resolution) {
+                return numCells > 30 ? Double.MAX_VALUE : -resolution;
+            }
+        };
+        BboxSearchCellsCache cache = new BboxSearchCellsCache(1000);
+        for(int i = 0; i < 5000; i++) {
+            // Slightly different viewports of a few sizes, around a few places.
+            double size = 0.01 * (1 << random.nextInt(8));
+            double south = (i % 7) * 10 - 30 + random.nextDouble() * size / 1000;
+            double west = (i % 5) * 30 - 60 + random.nextDouble() * size / 1000;
+            BoundingBox bbox = new BoundingBox(south + size, west + size * 1.5, south, west);
+            CostFunction function = i % 2 == 0 ? null : costFunction;
+
+            List<String> expected = GeocellManager.bestBboxSearchCells(bbox, function);
+            Assert.assertEquals(expected, cache.bestBboxSearchCells(bbox, function));
+        }
+        Assert.assertEquals(5000, cache.getHitCount() + cache.getMissCount());
+        Assert.assertTrue(cache.getHitRatio() > 0.5);
+        Assert.assertTrue(cache.size() <= 1000);
+    }
+
+    public void testReturnsNewLists() {
+        BboxSearchCellsCache cache = new BboxSearchCellsCache(10);
+        BoundingBox bbox = new BoundingBox(45, 0, 44, -1);
+        List<String> cells = cache.bestBboxSearchCells(bbox, null);
+        cells.clear();
+        Assert.assertEquals(GeocellManager.bestBboxSearchCells(bbox, null), cache.bestBboxSearchCells(bbox, null));
+        Assert.assertEquals(1, cache.getHitCount());
+    }
+
+}
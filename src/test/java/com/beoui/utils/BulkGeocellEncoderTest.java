@@ -0,0 +1,80 @@
+/*
+Copyright 2010 Alexandre Gellibert
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.apache.org/licenses/
+LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing permissions
+and limitations under the License.
+*/
+
+package com.beoui.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import com.beoui.geocell.BulkGeocellEncoder;
+import com.beoui.geocell.GeocellColumns;
+import com.beoui.geocell.GeocellManager;
+import com.beoui.geocell.PackedGeocellUtils;
+import com.beoui.geocell.model.Point;
+
+/**
+ * Checks that bulk encoding gives the same geocells as generateGeoCell.
+ *
+ */
+public class BulkGeocellEncoderTest extends TestCase {
+
+    private final Random random = new Random(42);
+
+    public void testEncodeCoordinates() {
+        int n = 20000;
+        double[] lats = new double[n];
+        double[] lons = new double[n];
+        for(int i = 0; i < n; i++) {
+            lats[i] = random.nextDouble() * 180 - 90;
+            lons[i] = random.nextDouble() * 360 - 180;
+        }
+        GeocellColumns geocells = new BulkGeocellEncoder().encode(lats, lons);
+        Assert.assertEquals(n, geocells.size());
+        long[] expected = new long[GeocellManager.MAX_GEOCELL_RESOLUTION];
+        for(int i = 0; i < n; i++) {
+            GeocellManager.generatePackedGeoCell(new Point(lats[i], lons[i]), expected);
+            for(int resolution = 1; resolution <= GeocellManager.MAX_GEOCELL_RESOLUTION; resolution++) {
+                Assert.assertEquals(expected[resolution - 1], geocells.getCells(resolution)[i]);
+            }
+        }
+        Assert.assertEquals(16, geocells.getDistinctCells(1).length);
+    }
+
+    public void testEncodeStreamByBatches() {
+        final List<ObjectToSave> objects = new ArrayList<ObjectToSave>();
+        for(int i = 0; i < 2500; i++) {
+            objects.add(ObjectToSave.newObject(i, new Point(44.8 + random.nextDouble(), -0.6 + random.nextDouble())));
+        }
+        final List<ObjectToSave> received = new ArrayList<ObjectToSave>();
+        long count = new BulkGeocellEncoder(new ForkJoinPool(4), 1000).encode(objects.stream(), new BulkGeocellEncoder.Sink<ObjectToSave>() {
+            public void accept(List<ObjectToSave> entities, GeocellColumns geocells) {
+                Assert.assertTrue(entities.size() <= 1000);
+                Assert.assertEquals(entities.size(), geocells.size());
+                for(int i = 0; i < entities.size(); i++) {
+                    List<String> expected = GeocellManager.generateGeoCell(entities.get(i).getLocation());
+                    Assert.assertEquals(expected, geocells.getGeocells(i));
+                    Assert.assertEquals(expected.get(4), PackedGeocellUtils.unpack(geocells.getCells(5)[i]));
+                }
+                received.addAll(entities);
+            }
+        });
+        Assert.assertEquals(objects.size(), count);
+        Assert.assertEquals(objects, received);
+    }
+
+}
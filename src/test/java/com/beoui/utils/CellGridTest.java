@@ -0,0 +1,102 @@
+/*
+Copyright 2010 Alexandre Gellibert
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.apache.org/licenses/
+LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing permissions
+and limitations under the License.
+*/
+
+package com.beoui.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import com.beoui.geocell.CellGrid;
+import com.beoui.geocell.GeocellUtils;
+import com.beoui.geocell.PackedGeocellUtils;
+import com.beoui.geocell.model.Point;
+
+/**
+ * Checks that the arithmetic cell grid enumerates the same cells as walking with adjacent.
+ *
+ */
+public class CellGridTest extends TestCase {
+
+    private final Random random = new Random(42);
+
+    public void testSameCellsAsAdjacentWalk() {
+        for(int i = 0; i < 200; i++) {
+            Point sw = ObjectToSave.randomPoint(random);
+            Point ne = new Point(Math.min(sw.getLat() + random.nextDouble() * 2, 90), sw.getLon() + random.nextDouble() * 2);
+            int resolution = 1 + random.nextInt(5);
+            String cellNE = GeocellUtils.compute(ne, resolution);
+            String cellSW = GeocellUtils.compute(sw, resolution);
+            List<String> expected = walk(cellNE, cellSW);
+
+            CellGrid grid = CellGrid.between(cellNE, cellSW);
+            Assert.assertEquals(expected.size(), grid.size());
+            Assert.assertEquals(expected, grid.toGeocells());
+            Assert.assertEquals(expected.size(), GeocellUtils.interpolationCount(cellNE, cellSW));
+
+            long[] cells = grid.toArray();
+            PrimitiveIterator.OfLong it = grid.iterator();
+            for(int j = 0; j < cells.length; j++) {
+                Assert.assertEquals(expected.get(j), PackedGeocellUtils.unpack(cells[j]));
+                Assert.assertEquals(cells[j], it.nextLong());
+            }
+            Assert.assertFalse(it.hasNext());
+        }
+    }
+
+    public void testCrossesAntimeridian() {
+        // "5" is east of "0" across the 180th meridian.
+        CellGrid grid = CellGrid.between("0", "5");
+        Assert.assertEquals(2, grid.getNumCols());
+        Assert.assertEquals(1, grid.getNumRows());
+        List<String> expected = new ArrayList<String>();
+        expected.add("5");
+        expected.add("0");
+        Assert.assertEquals(expected, grid.toGeocells());
+    }
+
+    public void testCountAtMaxResolution() {
+        String cellNE = GeocellUtils.compute(new Point(10, 10), PackedGeocellUtils.MAX_RESOLUTION);
+        String cellSW = GeocellUtils.compute(new Point(-10, -10), PackedGeocellUtils.MAX_RESOLUTION);
+        CellGrid grid = CellGrid.between(cellNE, cellSW);
+        Assert.assertEquals((long) grid.getNumCols() * grid.getNumRows(), grid.size());
+        Assert.assertTrue(grid.size() > Integer.MAX_VALUE);
+        Assert.assertEquals(Integer.MAX_VALUE, GeocellUtils.interpolationCount(cellNE, cellSW));
+    }
+
+    // Reference implementation: rows from south to north, walking east with adjacent.
+    private List<String> walk(String cellNE, String cellSW) {
+        List<String> cells = new ArrayList<String>();
+        String rowStart = cellSW;
+        while(rowStart != null) {
+            String cell = rowStart;
+            while(true) {
+                cells.add(cell);
+                if(GeocellUtils.collinear(cell, cellNE, true)) {
+                    break;
+                }
+                cell = GeocellUtils.adjacent(cell, new int[] {1, 0});
+            }
+            if(GeocellUtils.collinear(rowStart, cellNE, false)) {
+                break;
+            }
+            rowStart = GeocellUtils.adjacent(rowStart, new int[] {0, 1});
+        }
+        return cells;
+    }
+
+}
@@ -0,0 +1,81 @@
+/*
+Copyright 2010 Alexandre Gellibert
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.apache.org/licenses/
+LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing permissions
+and limitations under the License.
+*/
+
+package com.beoui.utils;
+
+import java.util.Random;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import com.beoui.geocell.GeocellUtils;
+import com.beoui.geocell.model.CenteredHaversineDistanceFunction;
+import com.beoui.geocell.model.DistanceFunction;
+import com.beoui.geocell.model.EquirectangularDistanceFunction;
+import com.beoui.geocell.model.HaversineDistanceFunction;
+import com.beoui.geocell.model.Point;
+
+/**
+ * Checks the distance functions against the law of cosines.
+ *
+ */
+public class DistanceFunctionTest extends TestCase {
+
+    private final Random random = new Random(42);
+
+    public void testHaversine() {
+        Point center = new Point(44.84, -0.58);
+        DistanceFunction haversine = new HaversineDistanceFunction();
+        DistanceFunction centered = new CenteredHaversineDistanceFunction(center);
+        for(int i = 0; i < 1000; i++) {
+            Point p = ObjectToSave.randomPoint(random);
+            double expected = GeocellUtils.distance(center, p);
+            Assert.assertEquals(expected, haversine.distance(center, p), 1e-6 * expected + 1e-3);
+            Assert.assertEquals(haversine.rank(center, p), centered.rank(center, p), 1e-15);
+            Assert.assertEquals(haversine.distance(p, center), centered.distance(p, center), 1e-6);
+        }
+        // Antipodes.
+        Assert.assertEquals(Math.PI * GeocellUtils.RADIUS, haversine.distance(new Point(0, 0), new Point(0, 180)), 1e-3);
+        Assert.assertEquals(0, haversine.distance(center, center), 0);
+    }
+
+    public void testEquirectangularIsAccurateForShortDistances() {
+        DistanceFunction equirectangular = new EquirectangularDistanceFunction();
+        for(int i = 0; i < 1000; i++) {
+            Point p1 = new Point(random.nextDouble() * 140 - 70, random.nextDouble() * 360 - 180);
+            // Within about 100 km, possibly across the 180th meridian.
+            double lon = p1.getLon() + random.nextDouble() * 2 - 1;
+            Point p2 = new Point(p1.getLat() + random.nextDouble() * 2 - 1, lon > 180 ? lon - 360 : lon < -180 ? lon + 360 : lon);
+            double expected = GeocellUtils.distance(p1, p2);
+            Assert.assertEquals(expected, equirectangular.distance(p1, p2), 1e-3 * expected + 1);
+        }
+    }
+
+    public void testRanksAreOrderedLikeDistances() {
+        Point center = new Point(-33.86, 151.2);
+        DistanceFunction[] functions = {new HaversineDistanceFunction(), new CenteredHaversineDistanceFunction(center), new EquirectangularDistanceFunction()};
+        for(DistanceFunction function : functions) {
+            Point previous = null;
+            for(int i = 0; i < 100; i++) {
+                Point p = new Point(center.getLat() + random.nextDouble() * 2 - 1, center.getLon() + random.nextDouble() * 2 - 1);
+                double rank = function.rank(center, p);
+                Assert.assertEquals(function.distance(center, p), function.toDistance(rank), 1e-6);
+                if(previous != null) {
+                    Assert.assertEquals(function.distance(center, previous) < function.distance(center, p), function.rank(center, previous) < rank);
+                }
+                previous = p;
+            }
+        }
+    }
+
+}
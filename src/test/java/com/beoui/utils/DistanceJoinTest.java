@@ -0,0 +1,79 @@
+/*
+Copyright 2010 Alexandre Gellibert
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.apache.org/licenses/
+LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing permissions
+and limitations under the License.
+*/
+
+package com.beoui.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import com.beoui.geocell.DistanceJoin;
+import com.beoui.geocell.GeocellUtils;
+import com.beoui.geocell.model.Point;
+
+/**
+ * Checks the distance join against a nested loop join.
+ *
+ */
+public class DistanceJoinTest extends TestCase {
+
+    private final Random random = new Random(42);
+
+    public void testSamePairsAsNestedLoop() {
+        List<ObjectToSave> riders = new ArrayList<ObjectToSave>();
+        List<ObjectToSave> drivers = new ArrayList<ObjectToSave>();
+        for(int i = 0; i < 400; i++) {
+            riders.add(ObjectToSave.newObject(i, randomPoint(i)));
+            drivers.add(ObjectToSave.newObject(i, randomPoint(i)));
+        }
+        for(double maxDistance : new double[] {5, 300, 20000, 800000}) {
+            final Set<String> pairs = ConcurrentHashMap.newKeySet();
+            new DistanceJoin().join(riders, drivers, maxDistance, new DistanceJoin.Sink<ObjectToSave, ObjectToSave>() {
+                public void accept(ObjectToSave rider, ObjectToSave driver, double distance) {
+                    Assert.assertTrue(pairs.add(rider.getKeyString() + "-" + driver.getKeyString()));
+                }
+            });
+            Set<String> expected = ConcurrentHashMap.newKeySet();
+            for(ObjectToSave rider : riders) {
+                for(ObjectToSave driver : drivers) {
+                    double distance = GeocellUtils.distance(rider.getLocation(), driver.getLocation());
+                    if(Double.isNaN(distance) || distance <= maxDistance) {
+                        expected.add(rider.getKeyString() + "-" + driver.getKeyString());
+                    }
+                }
+            }
+            Assert.assertFalse(expected.isEmpty());
+            Assert.assertEquals(expected, pairs);
+        }
+    }
+
+    // Around Bordeaux, near the north pole, on the antimeridian, or anywhere.
+    private Point randomPoint(int i) {
+        switch(i % 4) {
+        case 0:
+            return new Point(44.8 + random.nextDouble() * 0.01, -0.6 + random.nextDouble() * 0.01);
+        case 1:
+            return new Point(89.9 + random.nextDouble() * 0.1, random.nextDouble() * 360 - 180);
+        case 2:
+            return new Point(random.nextDouble() * 0.05, random.nextBoolean() ? 179.99 + random.nextDouble() * 0.01 : -180 + random.nextDouble() * 0.01);
+        default:
+            return ObjectToSave.randomPoint(random);
+        }
+    }
+
+}
@@ -0,0 +1,96 @@
+package com.beoui.utils;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import com.beoui.geocell.BulkGeocellEncoder;
+import com.beoui.geocell.GeocellBulkLoader;
+import com.beoui.geocell.GeocellColumns;
+import com.beoui.geocell.GeocellFileSink;
+import com.beoui.geocell.GeocellManager;
+import com.beoui.geocell.InMemoryGeocellIndex;
+import com.beoui.geocell.model.Point;
+
+/**
+ * Checks that the bulk loader writes all the entities, sorted by geocell within each sort buffer.
+ *
+ */
+public class GeocellBulkLoaderTest extends TestCase {
+
+    private final Random random = new Random(42);
+
+    public void testBatchesAreSortedByGeocell() {
+        List<ObjectToSave> objects = randomObjects(10000);
+        final List<ObjectToSave> written = new ArrayList<ObjectToSave>();
+        final List<String> writtenCells = new ArrayList<String>();
+        GeocellBulkLoader loader = new GeocellBulkLoader(new BulkGeocellEncoder(), 4096, 300);
+        long count = loader.load(objects.iterator(), new BulkGeocellEncoder.Sink<ObjectToSave>() {
+            @Override
+            public void accept(List<ObjectToSave> entities, GeocellColumns geocells) {
+                Assert.assertTrue(entities.size() <= 300);
+                Assert.assertEquals(entities.size(), geocells.size());
+                for(int i = 0; i < entities.size(); i++) {
+                    Assert.assertEquals(entities.get(i).getGeocells(), geocells.getGeocells(i));
+                    written.add(entities.get(i));
+                    writtenCells.add(geocells.getGeocells(i).get(GeocellManager.MAX_GEOCELL_RESOLUTION - 1));
+                }
+            }
+        });
+        Assert.assertEquals(objects.size(), count);
+        Assert.assertEquals(objects.size(), written.size());
+        Assert.assertEquals(new HashSet<ObjectToSave>(objects), new HashSet<ObjectToSave>(written));
+        for(int i = 1; i < writtenCells.size(); i++) {
+            if(i % 4096 != 0) {
+                Assert.assertTrue(writtenCells.get(i - 1).compareTo(writtenCells.get(i)) <= 0);
+            }
+        }
+    }
+
+    public void testLoadIntoIndex() {
+        List<ObjectToSave> objects = randomObjects(3000);
+        InMemoryGeocellIndex<ObjectToSave> index = new InMemoryGeocellIndex<ObjectToSave>();
+        new GeocellBulkLoader(new BulkGeocellEncoder(), 1000, 64).load(objects.stream(), index);
+        Assert.assertEquals(objects.size(), index.size());
+        for(ObjectToSave obj : objects.subList(0, 100)) {
+            Assert.assertTrue(index.search(obj.getGeocells().subList(12, 13)).contains(obj));
+        }
+    }
+
+    public void testFileSink() {
+        List<ObjectToSave> objects = randomObjects(500);
+        StringWriter writer = new StringWriter();
+        new GeocellBulkLoader().load(objects.iterator(), new GeocellFileSink<ObjectToSave>(writer));
+        String[] lines = writer.toString().split("\n");
+        Assert.assertEquals(objects.size(), lines.length);
+        Set<String> keys = new HashSet<String>();
+        String previousCell = "";
+        for(String line : lines) {
+            String[] fields = line.split("\t");
+            Assert.assertEquals(4, fields.length);
+            keys.add(fields[0]);
+            Point p = new Point(Double.parseDouble(fields[1]), Double.parseDouble(fields[2]));
+            Assert.assertEquals(GeocellManager.generateGeoCell(p).get(GeocellManager.MAX_GEOCELL_RESOLUTION - 1), fields[3]);
+            Assert.assertTrue(previousCell.compareTo(fields[3]) <= 0);
+            previousCell = fields[3];
+        }
+        Assert.assertEquals(objects.size(), keys.size());
+    }
+
+    private List<ObjectToSave> randomObjects(int n) {
+        List<ObjectToSave> objects = new ArrayList<ObjectToSave>();
+        for(int i = 0; i < n; i++) {
+            Point p = ObjectToSave.randomPoint(random);
+            ObjectToSave obj = ObjectToSave.newObject(i, p);
+            objects.add(obj);
+        }
+        return objects;
+    }
+
+}
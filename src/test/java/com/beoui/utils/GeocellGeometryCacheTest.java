@@ -0,0 +1,94 @@
+/*
+Copyright 2010 Alexandre Gellibert
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.apache.org/licenses/
+LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing permissions
+and limitations under the License.
+*/
+
+package com.beoui.utils;
+
+import java.util.Random;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import com.beoui.geocell.GeocellGeometryCache;
+import com.beoui.geocell.GeocellManager;
+import com.beoui.geocell.GeocellUtils;
+import com.beoui.geocell.PackedGeocellUtils;
+import com.beoui.geocell.model.BoundingBox;
+import com.beoui.geocell.model.MutableBoundingBox;
+import com.beoui.geocell.model.Point;
+
+/**
+ * Checks the geometry cache and the non-allocating computeBox.
+ *
+ */
+public class GeocellGeometryCacheTest extends TestCase {
+
+    private final Random random = new Random(42);
+
+    public void testSameBoxes() {
+        GeocellGeometryCache cache = new GeocellGeometryCache(100000);
+        MutableBoundingBox box = new MutableBoundingBox();
+        for(int i = 0; i < 1000; i++) {
+            Point p = ObjectToSave.randomPoint(random);
+            String cell = GeocellUtils.compute(p, 1 + random.nextInt(GeocellManager.MAX_GEOCELL_RESOLUTION));
+            BoundingBox expected = GeocellUtils.computeBox(cell);
+            assertSameBox(expected, GeocellUtils.computeBox(cell, box));
+            assertSameBox(expected, PackedGeocellUtils.computeBox(PackedGeocellUtils.pack(cell), box));
+            assertSameBox(expected, cache.computeBox(cell));
+            // From the cache.
+            assertSameBox(expected, cache.computeBox(cell));
+        }
+        // Low resolution cells are computed more than twice.
+        Assert.assertEquals(2000, cache.getHitCount() + cache.getMissCount());
+        Assert.assertTrue(cache.getHitCount() >= 1000);
+        Assert.assertEquals(cache.size(), cache.getMissCount());
+        Assert.assertEquals((double) cache.getHitCount() / 2000, cache.getHitRatio(), 1e-12);
+
+        // Not packable.
+        String tooLong = "8f4a3b2c1d0e9f7";
+        assertSameBox(GeocellUtils.computeBox(tooLong), cache.computeBox(tooLong));
+    }
+
+    public void testEvictsLeastRecentlyUsedCells() {
+        GeocellGeometryCache cache = new GeocellGeometryCache(16);
+        for(int i = 0; i < 1000; i++) {
+            cache.computeBox(PackedGeocellUtils.pack(Integer.toHexString(i)));
+        }
+        Assert.assertTrue(cache.size() <= 16);
+        Assert.assertEquals(1000 - cache.size(), cache.getEvictionCount());
+        cache.clear();
+        Assert.assertEquals(0, cache.size());
+    }
+
+    public void testInstalledInGeocellUtils() {
+        GeocellGeometryCache cache = new GeocellGeometryCache(1000);
+        Point p = new Point(44.84, -0.58);
+        String cell = GeocellUtils.compute(p, 8);
+        double expected = GeocellUtils.pointDistance(cell, new Point(45, 0));
+        GeocellUtils.setGeometryCache(cache);
+        try {
+            Assert.assertEquals(expected, GeocellUtils.pointDistance(cell, new Point(45, 0)), 0);
+            Assert.assertEquals(expected, GeocellUtils.pointDistance(cell, new Point(45, 0)), 0);
+            Assert.assertTrue(cache.getHitCount() > 0);
+        } finally {
+            GeocellUtils.setGeometryCache(null);
+        }
+    }
+
+    private void assertSameBox(BoundingBox expected, BoundingBox actual) {
+        Assert.assertEquals(expected.getNorth(), actual.getNorth(), 0);
+        Assert.assertEquals(expected.getEast(), actual.getEast(), 0);
+        Assert.assertEquals(expected.getSouth(), actual.getSouth(), 0);
+        Assert.assertEquals(expected.getWest(), actual.getWest(), 0);
+    }
+
+}
@@ -0,0 +1,118 @@
+package com.beoui.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import com.beoui.geocell.DensityCostFunction;
+import com.beoui.geocell.GeocellHistogram;
+import com.beoui.geocell.GeocellManager;
+import com.beoui.geocell.InMemoryGeocellIndex;
+import com.beoui.geocell.LocationCapableRepositorySearch;
+import com.beoui.geocell.PackedGeocellUtils;
+import com.beoui.geocell.model.BoundingBox;
+import com.beoui.geocell.model.Point;
+
+/**
+ * Checks the counts of the histogram, and that the density cost function adapts to skewed data.
+ *
+ */
+public class GeocellHistogramTest extends TestCase {
+
+    private final Random random = new Random(42);
+
+    public void testEstimatesAreExactAtTrackedResolutions() {
+        GeocellHistogram histogram = new GeocellHistogram(6, 3);
+        List<Point> points = new ArrayList<Point>();
+        for(int i = 0; i < 5000; i++) {
+            Point p = i % 2 == 0 ? new Point(44.8 + random.nextDouble(), -0.6 + random.nextDouble()) : ObjectToSave.randomPoint(random);
+            points.add(p);
+            histogram.add(p);
+        }
+        for(int i = 0; i < 1000; i++) {
+            histogram.remove(points.remove(points.size() - 1));
+        }
+        for(int i = 0; i < 200; i++) {
+            Point reference = points.get(random.nextInt(points.size()));
+            int resolution = 1 + random.nextInt(6);
+            long cell = PackedGeocellUtils.compute(reference, resolution);
+            int expected = 0;
+            for(Point p : points) {
+                if(PackedGeocellUtils.parent(PackedGeocellUtils.compute(p, GeocellManager.MAX_GEOCELL_RESOLUTION), resolution) == cell) {
+                    expected++;
+                }
+            }
+            Assert.assertEquals((double) expected, histogram.estimate(cell));
+        }
+        // Finer cells get a share of their ancestor.
+        long cell = PackedGeocellUtils.compute(points.get(0), 6);
+        Assert.assertEquals(histogram.estimate(cell) / 16, histogram.estimate(PackedGeocellUtils.child(cell, 0)));
+    }
+
+    public void testEmptyCellsAreRemoved() {
+        GeocellHistogram histogram = new GeocellHistogram();
+        Point from = new Point(44.84, -0.58);
+        histogram.add(from);
+        Assert.assertEquals(GeocellHistogram.DEFAULT_RESOLUTIONS.length, histogram.size());
+        // An entity moving around only keeps the cells of its current location.
+        for(int i = 0; i < 100; i++) {
+            Point to = ObjectToSave.randomPoint(random);
+            histogram.move(from, to);
+            from = to;
+        }
+        Assert.assertEquals(GeocellHistogram.DEFAULT_RESOLUTIONS.length, histogram.size());
+        Assert.assertEquals(1.0, histogram.estimate(PackedGeocellUtils.compute(from, 3)));
+        histogram.remove(from);
+        Assert.assertEquals(0, histogram.size());
+        Assert.assertEquals(0.0, histogram.estimate(0L));
+    }
+
+    public void testDenseAreasGetFinerCells() {
+        GeocellHistogram histogram = new GeocellHistogram();
+        for(int i = 0; i < 20000; i++) {
+            // A dense city and a sparse countryside.
+            histogram.add(i % 10 != 0 ? new Point(44.8 + random.nextDouble() * 0.1, -0.6 + random.nextDouble() * 0.1)
+                    : new Point(43 + random.nextDouble() * 4, -2 + random.nextDouble() * 4));
+        }
+        DensityCostFunction costFunction = new DensityCostFunction(histogram);
+
+        List<String> cityCells = GeocellManager.bestBboxSearchCells(new BoundingBox(44.86, -0.54, 44.84, -0.56), costFunction);
+        List<String> countryCells = GeocellManager.bestBboxSearchCells(new BoundingBox(46.02, 1.02, 46, 1), costFunction);
+        Assert.assertTrue(cityCells.get(0).length() > countryCells.get(0).length());
+
+        int cityResolution = costFunction.proximityStartResolution(new Point(44.85, -0.55), 10, GeocellManager.MAX_GEOCELL_RESOLUTION);
+        int countryResolution = costFunction.proximityStartResolution(new Point(46, 1), 10, GeocellManager.MAX_GEOCELL_RESOLUTION);
+        Assert.assertTrue(cityResolution > countryResolution);
+        Assert.assertTrue(countryResolution < GeocellManager.MAX_GEOCELL_RESOLUTION);
+    }
+
+    public void testProximityFetchFindsTheSameEntitiesWithFewerSearches() {
+        final InMemoryGeocellIndex<ObjectToSave> index = new InMemoryGeocellIndex<ObjectToSave>();
+        GeocellHistogram histogram = new GeocellHistogram();
+        for(int i = 0; i < 2000; i++) {
+            Point p = new Point(43 + random.nextDouble() * 4, -2 + random.nextDouble() * 4);
+            ObjectToSave obj = ObjectToSave.newObject(i, p);
+            index.put(obj);
+            histogram.add(p);
+        }
+        final int[] searches = new int[1];
+        LocationCapableRepositorySearch<ObjectToSave> repository = new LocationCapableRepositorySearch<ObjectToSave>() {
+            @Override
+            public List<ObjectToSave> search(List<String> geocells) {
+                searches[0]++;
+                return index.search(geocells);
+            }
+        };
+        Point center = new Point(45, 0);
+        List<ObjectToSave> expected = GeocellManager.proximityFetch(center, 10, 0, repository);
+        int defaultSearches = searches[0];
+        searches[0] = 0;
+        List<ObjectToSave> found = GeocellManager.proximityFetch(center, 10, 0, repository, new DensityCostFunction(histogram));
+        Assert.assertEquals(expected, found);
+        Assert.assertTrue(searches[0] < defaultSearches);
+    }
+
+}
@@ -0,0 +1,129 @@
+package com.beoui.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import com.beoui.geocell.GeocellLogger;
+import com.beoui.geocell.GeocellManager;
+import com.beoui.geocell.InMemoryGeocellIndex;
+import com.beoui.geocell.model.BoundingBox;
+import com.beoui.geocell.model.Point;
+import com.beoui.geocell.model.ProximityQuery;
+
+/**
+ * Checks that nothing is logged by default, and that queries are traced on request.
+ *
+ */
+public class GeocellLoggerTest extends TestCase {
+
+    private final Logger logger = GeocellLogger.get();
+    private final List<LogRecord> records = new ArrayList<LogRecord>();
+    private final Handler handler = new Handler() {
+        @Override
+        public void publish(LogRecord record) {
+            if(logger.isLoggable(record.getLevel())) {
+                records.add(record);
+            }
+        }
+
+        @Override
+        public void flush() {
+            // nothing
+        }
+
+        @Override
+        public void close() {
+            // nothing
+        }
+    };
+
+    private final InMemoryGeocellIndex<ObjectToSave> index = new InMemoryGeocellIndex<ObjectToSave>();
+    private boolean useParentHandlers;
+
+    @Override
+    protected void setUp() {
+        // Traces are only captured, not printed.
+        useParentHandlers = logger.getUseParentHandlers();
+        logger.setUseParentHandlers(false);
+        logger.addHandler(handler);
+        for(int i = 0; i < 100; i++) {
+            Point p = new Point(45 + i * 0.001, i * 0.001);
+            ObjectToSave obj = ObjectToSave.newObject(i, p);
+            index.put(obj);
+        }
+    }
+
+    @Override
+    protected void tearDown() {
+        logger.removeHandler(handler);
+        logger.setUseParentHandlers(useParentHandlers);
+        GeocellLogger.traceCurrentThread(false);
+        GeocellLogger.setTraceSamplingPeriod(0);
+    }
+
+    public void testNothingLoggedByDefault() {
+        Assert.assertFalse(logger.isLoggable(Level.FINE));
+        GeocellManager.proximityFetch(new Point(45, 0), 10, 0, index);
+        GeocellManager.bestBboxSearchCells(new BoundingBox(45.1, 0.1, 45, 0), null);
+        Assert.assertTrue(records.isEmpty());
+    }
+
+    public void testTraceCurrentThread() {
+        GeocellLogger.traceCurrentThread(true);
+        GeocellManager.proximityFetch(new Point(45, 0), 10, 0, index);
+        Assert.assertEquals(1, records.size());
+        Assert.assertEquals(Level.INFO, records.get(0).getLevel());
+        Assert.assertTrue(records.get(0).getMessage().startsWith("trace of proximityFetch:"));
+        Assert.assertTrue(records.get(0).getMessage().contains("fetch complete for: "));
+
+        GeocellLogger.traceCurrentThread(false);
+        GeocellManager.proximityFetch(new Point(45, 0), 10, 0, index);
+        Assert.assertEquals(1, records.size());
+    }
+
+    public void testTraceBatch() {
+        GeocellLogger.traceCurrentThread(true);
+        GeocellManager.proximityFetch(Arrays.asList(new ProximityQuery(new Point(45, 0), 10, 0), new ProximityQuery(new Point(45.05, 0.05), 10, 0)), index);
+        Assert.assertEquals(1, records.size());
+        Assert.assertTrue(records.get(0).getMessage().startsWith("trace of batchProximityFetch:"));
+        Assert.assertTrue(records.get(0).getMessage().contains("fetch complete for "));
+    }
+
+    public void testTraceIterator() {
+        GeocellLogger.traceCurrentThread(true);
+        Iterator<ObjectToSave> it = GeocellManager.proximityIterator(new Point(45, 0), 0, index);
+        it.next();
+        Assert.assertEquals(1, records.size());
+        Assert.assertTrue(records.get(0).getMessage().startsWith("trace of proximityIterator:"));
+        Assert.assertTrue(records.get(0).getMessage().contains("fetch complete for: "));
+
+        // Each call searching cells logs its own part of the trace.
+        int parts = records.size();
+        for(int i = 0; i < 99; i++) {
+            it.next();
+        }
+        Assert.assertTrue(records.size() > parts);
+        for(LogRecord record : records) {
+            Assert.assertTrue(record.getMessage().contains("fetch complete for: "));
+        }
+    }
+
+    public void testTraceSampling() {
+        GeocellLogger.setTraceSamplingPeriod(3);
+        for(int i = 0; i < 9; i++) {
+            GeocellManager.bestBboxSearchCells(new BoundingBox(45.1, 0.1, 45, 0), null);
+        }
+        Assert.assertEquals(3, records.size());
+        Assert.assertTrue(records.get(0).getMessage().startsWith("trace of bestBboxSearchCells:"));
+    }
+
+}
@@ -0,0 +1,102 @@
+package com.beoui.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import com.beoui.geocell.GeocellManager;
+import com.beoui.geocell.GeocellRange;
+import com.beoui.geocell.GeocellUtils;
+import com.beoui.geocell.InMemoryGeocellIndex;
+import com.beoui.geocell.PackedGeocellUtils;
+import com.beoui.geocell.RangeRepositorySearch;
+import com.beoui.geocell.model.BoundingBox;
+import com.beoui.geocell.model.Point;
+
+/**
+ * Checks the merge of cells in ranges, and the range search against the cell search.
+ *
+ */
+public class GeocellRangeTest extends TestCase {
+
+    private final Random random = new Random(42);
+
+    public void testMerge() {
+        List<GeocellRange> ranges = GeocellRange.merge(Arrays.asList("a4", "a3", "a3f", "b", "c0", "bff"));
+        Assert.assertEquals(2, ranges.size());
+        Assert.assertEquals("a3", ranges.get(0).getStartGeocell());
+        Assert.assertEquals("a5", ranges.get(0).getEndGeocell());
+        Assert.assertEquals("b", ranges.get(1).getStartGeocell());
+        Assert.assertEquals("c1", ranges.get(1).getEndGeocell());
+        Assert.assertEquals("[a3, a5)", ranges.get(0).toString());
+
+        Assert.assertEquals("b", GeocellRange.merge(Arrays.asList("af")).get(0).getEndGeocell());
+        Assert.assertNull(GeocellRange.merge(Arrays.asList("ff")).get(0).getEndGeocell());
+        Assert.assertEquals(GeocellRange.merge(Arrays.asList("")), GeocellRange.merge(Arrays.asList("", "0", "f")));
+        Assert.assertTrue(GeocellRange.merge(new ArrayList<String>()).isEmpty());
+    }
+
+    public void testStringBoundsMatchCells() {
+        for(int i = 0; i < 200; i++) {
+            Point p = ObjectToSave.randomPoint(random);
+            int resolution = random.nextInt(GeocellManager.MAX_GEOCELL_RESOLUTION) + 1;
+            List<String> cells = new ArrayList<String>(GeocellUtils.allAdjacents(GeocellUtils.compute(p, resolution)));
+            cells.removeAll(Arrays.asList((String) null));
+            List<GeocellRange> ranges = GeocellRange.merge(cells);
+            for(int j = 0; j < 100; j++) {
+                // Half of the points next to the cells.
+                Point q = j % 2 == 0 ? ObjectToSave.randomPoint(random) : new Point(p.getLat() + random.nextGaussian() * 0.001, p.getLon() + random.nextGaussian() * 0.001);
+                if(Math.abs(q.getLat()) > 90 || Math.abs(q.getLon()) > 180) {
+                    continue;
+                }
+                String geocell = GeocellUtils.compute(q, GeocellManager.MAX_GEOCELL_RESOLUTION);
+                boolean inCells = cells.contains(geocell.substring(0, resolution));
+                boolean inRanges = false;
+                for(GeocellRange range : ranges) {
+                    String end = range.getEndGeocell();
+                    inRanges |= geocell.compareTo(range.getStartGeocell()) >= 0 && (end == null || geocell.compareTo(end) < 0);
+                    Assert.assertEquals(geocell.compareTo(range.getStartGeocell()) >= 0 && (end == null || geocell.compareTo(end) < 0),
+                            range.contains(PackedGeocellUtils.pack(geocell)));
+                }
+                Assert.assertEquals(inCells, inRanges);
+            }
+        }
+    }
+
+    public void testRangeSearchMatchesCellSearch() {
+        InMemoryGeocellIndex<ObjectToSave> index = new InMemoryGeocellIndex<ObjectToSave>();
+        for(int i = 0; i < 5000; i++) {
+            Point p = i % 2 == 0 ? new Point(44.8 + random.nextDouble(), -0.6 + random.nextDouble()) : ObjectToSave.randomPoint(random);
+            ObjectToSave obj = ObjectToSave.newObject(i, p);
+            // Only the cell of max resolution is stored.
+            obj.setGeocells(Arrays.asList(GeocellUtils.compute(p, GeocellManager.MAX_GEOCELL_RESOLUTION)));
+            index.put(obj);
+        }
+        RangeRepositorySearch<ObjectToSave> rangeSearch = new RangeRepositorySearch<ObjectToSave>(index);
+
+        BoundingBox bbox = new BoundingBox(45.3, 0.1, 45, -0.3);
+        List<String> cells = GeocellManager.bestBboxSearchCells(bbox, null);
+        List<GeocellRange> ranges = GeocellManager.bestBboxSearchRanges(bbox, null);
+        Assert.assertTrue(ranges.size() <= cells.size());
+        Assert.assertEquals(keys(index.search(cells)), keys(index.searchRanges(ranges)));
+        Assert.assertEquals(keys(index.search(cells)), keys(rangeSearch.search(cells)));
+
+        Point center = new Point(45, 0);
+        Assert.assertEquals(keys(GeocellManager.proximityFetch(center, 50, 0, index)), keys(GeocellManager.proximityFetch(center, 50, 0, rangeSearch)));
+    }
+
+    private Set<String> keys(List<ObjectToSave> objects) {
+        Set<String> keys = new HashSet<String>();
+        for(ObjectToSave obj : objects) {
+            Assert.assertTrue(keys.add(obj.getKeyString()));
+        }
+        return keys;
+    }
+
+}
@@ -0,0 +1,110 @@
+/*
+Copyright 2010 Alexandre Gellibert
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.apache.org/licenses/
+LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing permissions
+and limitations under the License.
+*/
+
+package com.beoui.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import com.beoui.geocell.GeocellManager;
+import com.beoui.geocell.GeocellUtils;
+import com.beoui.geocell.InMemoryGeocellIndex;
+import com.beoui.geocell.model.Point;
+
+/**
+ * Checks the in-memory index against a brute force search.
+ *
+ */
+public class InMemoryGeocellIndexTest extends TestCase {
+
+    private final Random random = new Random(42);
+
+    public void testSearchMatchesBruteForce() {
+        InMemoryGeocellIndex<ObjectToSave> index = new InMemoryGeocellIndex<ObjectToSave>();
+        List<ObjectToSave> objects = new ArrayList<ObjectToSave>();
+        for(int i = 0; i < 5000; i++) {
+            // Half of the points around Bordeaux, to fill a shard with many chunks.
+            ObjectToSave obj = i % 2 == 0 ? ObjectToSave.newObject(i, new Point(44.8 + random.nextDouble(), -0.6 + random.nextDouble()))
+                    : ObjectToSave.newObject(i, ObjectToSave.randomPoint(random));
+            objects.add(obj);
+            index.put(obj);
+        }
+        assertSearchMatches(index, objects);
+
+        // Move half of the objects, remove a quarter.
+        for(int i = 0; i < 2500; i++) {
+            ObjectToSave obj = objects.get(random.nextInt(objects.size()));
+            if(i % 2 == 0) {
+                Assert.assertTrue(index.remove(obj));
+                objects.remove(obj);
+            } else {
+                Point p = ObjectToSave.randomPoint(random);
+                obj.setLatitude(p.getLat());
+                obj.setLongitude(p.getLon());
+                obj.setGeocells(GeocellManager.generateGeoCell(p));
+                index.move(obj);
+            }
+        }
+        Assert.assertEquals(objects.size(), index.size());
+        assertSearchMatches(index, objects);
+    }
+
+    public void testMixedResolutionsAreNotDuplicated() {
+        InMemoryGeocellIndex<ObjectToSave> index = new InMemoryGeocellIndex<ObjectToSave>();
+        ObjectToSave obj = ObjectToSave.newObject(1, new Point(44.838611, -0.578333));
+        index.put(obj);
+        List<String> cells = obj.getGeocells();
+        Assert.assertEquals(1, index.search(cells).size());
+        Assert.assertEquals(1, index.search(Arrays.asList("", cells.get(4))).size());
+        Assert.assertEquals(1, index.search(Arrays.asList(GeocellUtils.compute(obj.getLocation(), 15))).size());
+        // Cells finer than the index, inside other cells of the list.
+        String finer = GeocellUtils.compute(obj.getLocation(), 15);
+        Assert.assertEquals(1, index.search(Arrays.asList(cells.get(0), finer)).size());
+        Assert.assertEquals(1, index.search(Arrays.asList(finer + "0", finer, finer)).size());
+        Assert.assertTrue(index.search(Arrays.asList(GeocellUtils.adjacent(cells.get(12), new int[] {1, 0}))).isEmpty());
+    }
+
+    private void assertSearchMatches(InMemoryGeocellIndex<ObjectToSave> index, List<ObjectToSave> objects) {
+        for(int i = 0; i < 300; i++) {
+            ObjectToSave reference = objects.get(random.nextInt(objects.size()));
+            int resolution = random.nextInt(GeocellManager.MAX_GEOCELL_RESOLUTION) + 1;
+            List<String> cells = new ArrayList<String>(GeocellUtils.allAdjacents(reference.getGeocells().get(resolution - 1)));
+            cells.add(reference.getGeocells().get(resolution - 1));
+            cells.removeAll(Arrays.asList((String) null));
+
+            Set<String> expected = new HashSet<String>();
+            for(ObjectToSave obj : objects) {
+                for(String cell : cells) {
+                    if(obj.getGeocells().contains(cell)) {
+                        expected.add(obj.getKeyString());
+                    }
+                }
+            }
+            List<ObjectToSave> found = index.search(cells);
+            Set<String> actual = new HashSet<String>();
+            for(ObjectToSave obj : found) {
+                actual.add(obj.getKeyString());
+            }
+            Assert.assertEquals(expected.size(), found.size());
+            Assert.assertEquals(expected, actual);
+        }
+    }
+
+}
@@ -0,0 +1,159 @@
+package com.beoui.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import com.beoui.geocell.GeocellBulkLoader;
+import com.beoui.geocell.GeocellManager;
+import com.beoui.geocell.GeocellUtils;
+import com.beoui.geocell.MappedGeocellIndex;
+import com.beoui.geocell.MappedGeocellIndexWriter;
+import com.beoui.geocell.model.Point;
+
+/**
+ * Checks the memory-mapped index against a brute force search.
+ *
+ */
+public class MappedGeocellIndexTest extends TestCase {
+
+    private final Random random = new Random(42);
+    private final List<ObjectToSave> objects = new ArrayList<ObjectToSave>();
+    private File file;
+
+    @Override
+    protected void setUp() throws IOException {
+        file = File.createTempFile("geocell", ".idx");
+        for(int i = 0; i < 5000; i++) {
+            // Half of the points around Bordeaux, for cells deeper than the directory.
+            Point p = i % 2 == 0 ? new Point(44.8 + random.nextDouble() * 0.01, -0.6 + random.nextDouble() * 0.01)
+                    : ObjectToSave.randomPoint(random);
+            ObjectToSave obj = ObjectToSave.newObject(i, p);
+            objects.add(obj);
+        }
+    }
+
+    @Override
+    protected void tearDown() {
+        file.delete();
+    }
+
+    public void testSearchMatchesBruteForce() throws IOException {
+        MappedGeocellIndexWriter<ObjectToSave> writer = new MappedGeocellIndexWriter<ObjectToSave>(3);
+        new GeocellBulkLoader().load(objects.iterator(), writer);
+        writer.write(file.toPath());
+        MappedGeocellIndex index = new MappedGeocellIndex(file.toPath());
+        Assert.assertEquals(objects.size(), index.size());
+
+        for(int i = 0; i < 300; i++) {
+            ObjectToSave reference = objects.get(random.nextInt(objects.size()));
+            int resolution = random.nextInt(GeocellManager.MAX_GEOCELL_RESOLUTION) + 1;
+            List<String> cells = new ArrayList<String>(GeocellUtils.allAdjacents(reference.getGeocells().get(resolution - 1)));
+            cells.add(reference.getGeocells().get(resolution - 1));
+            cells.removeAll(Arrays.asList((String) null));
+
+            Set<String> expected = new HashSet<String>();
+            for(ObjectToSave obj : objects) {
+                for(String cell : cells) {
+                    if(obj.getGeocells().contains(cell)) {
+                        expected.add(obj.getKeyString());
+                    }
+                }
+            }
+            List<MappedGeocellIndex.Entry> found = index.search(cells);
+            Set<String> actual = new HashSet<String>();
+            for(MappedGeocellIndex.Entry entry : found) {
+                actual.add(entry.getKeyString());
+            }
+            Assert.assertEquals(expected.size(), found.size());
+            Assert.assertEquals(expected, actual);
+        }
+    }
+
+    public void testEntries() throws IOException {
+        MappedGeocellIndexWriter<ObjectToSave> writer = new MappedGeocellIndexWriter<ObjectToSave>();
+        for(ObjectToSave obj : objects) {
+            writer.add(obj);
+        }
+        writer.write(file.toPath());
+        MappedGeocellIndex index = new MappedGeocellIndex(file.toPath());
+
+        List<MappedGeocellIndex.Entry> all = index.search(Arrays.asList(""));
+        Assert.assertEquals(objects.size(), all.size());
+        for(int row = 0; row < all.size(); row++) {
+            MappedGeocellIndex.Entry entry = all.get(row);
+            ObjectToSave obj = objects.get(Integer.parseInt(entry.getKeyString()));
+            Assert.assertEquals(row, entry.getRow());
+            Assert.assertEquals(obj.getLocation().getLat(), entry.getLatitude());
+            Assert.assertEquals(obj.getLocation().getLon(), entry.getLongitude());
+            Assert.assertEquals(obj.getGeocells(), entry.getGeocells());
+            if(row > 0) {
+                Assert.assertTrue(all.get(row - 1).getCell() <= entry.getCell());
+            }
+        }
+
+        ObjectToSave obj = objects.get(0);
+        String finer = GeocellUtils.compute(obj.getLocation(), 15);
+        Assert.assertEquals(1, index.search(Arrays.asList(finer)).size());
+        // Cells finer than the index, inside other cells of the list.
+        String coarse = obj.getGeocells().get(0);
+        Assert.assertEquals(index.search(Arrays.asList(coarse)).size(), index.search(Arrays.asList(coarse, finer, finer)).size());
+        List<MappedGeocellIndex.Entry> closest = GeocellManager.proximityFetch(obj.getLocation(), 5, 0, index);
+        Assert.assertEquals(5, closest.size());
+        Assert.assertEquals(obj.getKeyString(), closest.get(0).getKeyString());
+    }
+
+    public void testKeysSpanningChunks() throws IOException {
+        // More than 16MB of keys, so that keys are split between chunks of the writer.
+        MappedGeocellIndexWriter<ObjectToSave> writer = new MappedGeocellIndexWriter<ObjectToSave>();
+        String prefix = "0123456789abcdef0123456789abcdef0123456789abcdef-";
+        final List<String> keys = new ArrayList<String>();
+        for(int i = 0; i < 350000; i++) {
+            final String key = prefix + i;
+            keys.add(key);
+            ObjectToSave obj = new ObjectToSave() {
+                @Override
+                public String getKeyString() {
+                    return key;
+                }
+            };
+            obj.setLatitude(-90 + i * 180.0 / 350000);
+            obj.setLongitude(0);
+            writer.add(obj);
+        }
+        writer.write(file.toPath());
+        MappedGeocellIndex index = new MappedGeocellIndex(file.toPath());
+        List<MappedGeocellIndex.Entry> all = index.search(Arrays.asList(""));
+        Assert.assertEquals(keys.size(), all.size());
+        for(int i = 0; i < all.size(); i++) {
+            Assert.assertEquals(keys.get(i), all.get(i).getKeyString());
+        }
+    }
+
+    public void testEmptyIndex() throws IOException {
+        new MappedGeocellIndexWriter<ObjectToSave>().write(file.toPath());
+        MappedGeocellIndex index = new MappedGeocellIndex(file.toPath());
+        Assert.assertEquals(0, index.size());
+        Assert.assertTrue(index.search(objects.get(0).getGeocells()).isEmpty());
+    }
+
+    public void testInvalidFile() throws IOException {
+        Files.write(file.toPath(), new byte[64]);
+        try {
+            new MappedGeocellIndex(file.toPath());
+            fail();
+        } catch(IOException e) {
+            // expected
+        }
+    }
+
+}
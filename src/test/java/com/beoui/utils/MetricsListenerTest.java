@@ -0,0 +1,194 @@
+package com.beoui.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Executor;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import com.beoui.geocell.BboxSearchCellsCache;
+import com.beoui.geocell.BboxSearchStats;
+import com.beoui.geocell.ExecutorLocationCapableRepositorySearch;
+import com.beoui.geocell.GeocellManager;
+import com.beoui.geocell.GeocellMetricsListener;
+import com.beoui.geocell.Histogram;
+import com.beoui.geocell.HistogramMetricsListener;
+import com.beoui.geocell.InMemoryGeocellIndex;
+import com.beoui.geocell.LocationCapableRepositorySearch;
+import com.beoui.geocell.ProximityFetchStats;
+import com.beoui.geocell.model.BoundingBox;
+import com.beoui.geocell.model.Point;
+
+/**
+ * Checks the statistics reported to the metrics listener, and the histograms.
+ *
+ */
+public class MetricsListenerTest extends TestCase {
+
+    private final Random random = new Random(42);
+
+    @Override
+    protected void tearDown() {
+        GeocellManager.setMetricsListener(null);
+    }
+
+    public void testProximityFetchStats() {
+        final InMemoryGeocellIndex<ObjectToSave> index = newIndex();
+        final List<Integer> searchedCells = new ArrayList<Integer>();
+        final int[] fetched = new int[1];
+        LocationCapableRepositorySearch<ObjectToSave> repository = new LocationCapableRepositorySearch<ObjectToSave>() {
+            @Override
+            public List<ObjectToSave> search(List<String> geocells) {
+                searchedCells.add(geocells.size());
+                List<ObjectToSave> entities = index.search(geocells);
+                fetched[0] += entities.size();
+                return entities;
+            }
+        };
+        final List<ProximityFetchStats> reported = new ArrayList<ProximityFetchStats>();
+        HistogramMetricsListener histograms = new HistogramMetricsListener();
+        GeocellManager.setMetricsListener(new Recorder(reported, histograms));
+
+        List<ObjectToSave> results = GeocellManager.proximityFetch(new Point(45, 0), 20, 0, repository);
+        Assert.assertEquals(1, reported.size());
+        ProximityFetchStats stats = reported.get(0);
+        Assert.assertEquals(searchedCells.size(), stats.getIterations());
+        int cells = 0;
+        for(int count : searchedCells) {
+            cells += count;
+        }
+        Assert.assertEquals(cells, stats.getCellsSearched());
+        Assert.assertEquals(fetched[0], stats.getEntitiesFetched());
+        Assert.assertEquals(results.size(), stats.getEntitiesReturned());
+        Assert.assertEquals(ProximityFetchStats.TerminationReason.ENOUGH_RESULTS, stats.getTerminationReason());
+        Assert.assertTrue(stats.getNanos() >= stats.getRepositoryNanos() + stats.getMergeNanos() + stats.getSortNanos());
+
+        GeocellManager.proximityFetch(new Point(45, 0), 20, 10, repository);
+        // The cells within 10 meters are searched, fewer than 20 entities there.
+        Assert.assertEquals(ProximityFetchStats.TerminationReason.NO_MORE_CELLS, reported.get(1).getTerminationReason());
+        Assert.assertEquals(2, histograms.getProximityFetchMicros().getCount());
+        Assert.assertEquals(1, histograms.getTerminations(ProximityFetchStats.TerminationReason.NO_MORE_CELLS));
+
+        // Nothing reported once disabled.
+        GeocellManager.setMetricsListener(null);
+        GeocellManager.proximityFetch(new Point(45, 0), 20, 0, repository);
+        Assert.assertEquals(2, reported.size());
+        Assert.assertSame(GeocellMetricsListener.NO_OP, GeocellManager.getMetricsListener());
+    }
+
+    public void testProximityFetchAsyncStats() {
+        final InMemoryGeocellIndex<ObjectToSave> index = newIndex();
+        final int[] fetched = new int[1];
+        LocationCapableRepositorySearch<ObjectToSave> repository = new LocationCapableRepositorySearch<ObjectToSave>() {
+            @Override
+            public List<ObjectToSave> search(List<String> geocells) {
+                List<ObjectToSave> entities = index.search(geocells);
+                fetched[0] += entities.size();
+                return entities;
+            }
+        };
+        // Lookups run on the calling thread, one after the other.
+        Executor direct = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+        final List<ProximityFetchStats> reported = new ArrayList<ProximityFetchStats>();
+        GeocellManager.setMetricsListener(new Recorder(reported, GeocellMetricsListener.NO_OP));
+
+        List<ObjectToSave> results = GeocellManager.proximityFetchAsync(new Point(45, 0), 20, 0,
+                new ExecutorLocationCapableRepositorySearch<ObjectToSave>(repository, direct)).join();
+        Assert.assertEquals(1, reported.size());
+        ProximityFetchStats stats = reported.get(0);
+        Assert.assertTrue(stats.getIterations() > 0);
+        // Prefetched lookups that are not merged are not counted.
+        Assert.assertTrue(stats.getEntitiesFetched() <= fetched[0]);
+        Assert.assertEquals(results.size(), stats.getEntitiesReturned());
+        Assert.assertEquals(ProximityFetchStats.TerminationReason.ENOUGH_RESULTS, stats.getTerminationReason());
+        Assert.assertTrue(stats.getNanos() >= stats.getRepositoryNanos() + stats.getMergeNanos() + stats.getSortNanos());
+    }
+
+    public void testBboxSearchStats() throws Exception {
+        HistogramMetricsListener histograms = new HistogramMetricsListener();
+        GeocellManager.setMetricsListener(histograms);
+        List<String> cells = GeocellManager.bestBboxSearchCells(new BoundingBox(45.1, 0.1, 45, 0), null);
+        Assert.assertEquals(1, histograms.getBboxCells().getCount());
+        Assert.assertEquals(cells.size(), histograms.getBboxCells().getMax());
+        Assert.assertTrue(histograms.getBboxResolutionsEvaluated().getMax() >= 1);
+
+        StringBuilder out = new StringBuilder();
+        histograms.write(out);
+        Assert.assertTrue(out.toString().contains("bestBboxSearchCells.cells count=1 "));
+
+        // Only the misses of the cache are computed and reported.
+        BboxSearchCellsCache cache = new BboxSearchCellsCache(100);
+        Assert.assertEquals(cells, cache.bestBboxSearchCells(new BoundingBox(45.1, 0.1, 45, 0), null));
+        Assert.assertEquals(2, histograms.getBboxCells().getCount());
+        Assert.assertEquals(cells, cache.bestBboxSearchCells(new BoundingBox(45.1, 0.1, 45, 0), null));
+        Assert.assertEquals(2, histograms.getBboxCells().getCount());
+    }
+
+    public void testHistogramPercentiles() {
+        Histogram histogram = new Histogram();
+        Assert.assertEquals(0, histogram.getValueAtPercentile(50));
+        for(long value = 1; value <= 100000; value++) {
+            histogram.record(value);
+        }
+        Assert.assertEquals(100000, histogram.getCount());
+        Assert.assertEquals(100000, histogram.getMax());
+        Assert.assertEquals(50000.5, histogram.getMean());
+        for(double percentile : new double[] {1, 10, 50, 90, 99, 99.9}) {
+            long exact = (long) (percentile * 1000);
+            long value = histogram.getValueAtPercentile(percentile);
+            Assert.assertTrue(value >= exact);
+            Assert.assertTrue(value <= exact + exact / 8);
+        }
+        Assert.assertEquals(100000, histogram.getValueAtPercentile(100));
+
+        // Same output whatever the default locale.
+        Locale locale = Locale.getDefault();
+        Locale.setDefault(Locale.FRANCE);
+        try {
+            Assert.assertTrue(histogram.toString().contains(" mean=50000.5 "));
+        } finally {
+            Locale.setDefault(locale);
+        }
+    }
+
+    private InMemoryGeocellIndex<ObjectToSave> newIndex() {
+        InMemoryGeocellIndex<ObjectToSave> index = new InMemoryGeocellIndex<ObjectToSave>();
+        for(int i = 0; i < 2000; i++) {
+            Point p = new Point(44 + random.nextDouble() * 2, -1 + random.nextDouble() * 2);
+            ObjectToSave obj = ObjectToSave.newObject(i, p);
+            index.put(obj);
+        }
+        return index;
+    }
+
+    private static final class Recorder implements GeocellMetricsListener {
+
+        private final List<ProximityFetchStats> reported;
+        private final GeocellMetricsListener delegate;
+
+        private Recorder(List<ProximityFetchStats> reported, GeocellMetricsListener delegate) {
+            this.reported = reported;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void proximityFetch(ProximityFetchStats stats) {
+            reported.add(stats);
+            delegate.proximityFetch(stats);
+        }
+
+        @Override
+        public void bestBboxSearchCells(BboxSearchStats stats) {
+            delegate.bestBboxSearchCells(stats);
+        }
+    }
+
+}
@@ -14,11 +14,13 @@ and limitations under the License.
 package com.beoui.utils;
 
 import java.util.List;
+import java.util.Random;
 
 import javax.jdo.annotations.PersistenceCapable;
 import javax.jdo.annotations.Persistent;
 import javax.jdo.annotations.PrimaryKey;
 
+import com.beoui.geocell.GeocellManager;
 import com.beoui.geocell.model.LocationCapable;
 import com.beoui.geocell.model.Point;
 
@@ -38,6 +40,25 @@ public class ObjectToSave implements LocationCapable {
     @Persistent
     private List<String> geocells;
 
+    /**
+     * @return a new object with the given id at p, with its geocells of all resolutions.
+     */
+    public static ObjectToSave newObject(long id, Point p) {
+        ObjectToSave obj = new ObjectToSave();
+        obj.setId(id);
+        obj.setLatitude(p.getLat());
+        obj.setLongitude(p.getLon());
+        obj.setGeocells(GeocellManager.generateGeoCell(p));
+        return obj;
+    }
+
+    /**
+     * @return a point anywhere, uniform in latitude and longitude.
+     */
+    public static Point randomPoint(Random random) {
+        return new Point(random.nextDouble() * 180 - 90, random.nextDouble() * 360 - 180);
+    }
+
     public long getId() {
         return id;
     }
@@ -0,0 +1,220 @@
+/*
+Copyright 2010 Alexandre Gellibert
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.apache.org/licenses/
+LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing permissions
+and limitations under the License.
+*/
+
+package com.beoui.utils;
+
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import com.beoui.geocell.GeocellManager;
+import com.beoui.geocell.GeocellUtils;
+import com.beoui.geocell.PackedGeocellUtils;
+import com.beoui.geocell.model.BoundingBox;
+import com.beoui.geocell.model.Point;
+
+/**
+ * Checks that packed geocells always agree with geocell strings.
+ *
+ */
+public class PackedGeocellUtilsTest extends TestCase {
+
+    private static final int[][] DIRECTIONS = {{-1,1}, {0,1}, {1,1}, {1,0}, {1,-1}, {0,-1}, {-1,-1}, {-1,0}};
+
+    private final Random random = new Random(42);
+
+    public void testComputeAndPackAreLossless() {
+        for(int i = 0; i < 2000; i++) {
+            Point p = ObjectToSave.randomPoint(random);
+            for(int resolution = 0; resolution <= PackedGeocellUtils.MAX_RESOLUTION; resolution++) {
+                String cell = GeocellUtils.compute(p, resolution);
+                long packed = PackedGeocellUtils.compute(p, resolution);
+                Assert.assertEquals(cell, PackedGeocellUtils.unpack(packed));
+                Assert.assertEquals(packed, PackedGeocellUtils.pack(cell));
+                Assert.assertTrue(PackedGeocellUtils.isValid(packed));
+                Assert.assertEquals(resolution, PackedGeocellUtils.resolution(packed));
+            }
+        }
+    }
+
+    public void testComputeIsTheSameAsFloatDescent() {
+        for(int i = 0; i < 20000; i++) {
+            Point p = ObjectToSave.randomPoint(random);
+            if(i % 2 == 0) {
+                // On a cell boundary of a random level.
+                int level = 1 + random.nextInt(PackedGeocellUtils.MAX_RESOLUTION);
+                double lonSpan = 360.0 / Math.pow(4, level);
+                double latSpan = 180.0 / Math.pow(4, level);
+                p = new Point(Math.floor(p.getLat() / latSpan) * latSpan, Math.floor(p.getLon() / lonSpan) * lonSpan);
+            }
+            Assert.assertEquals(descend(p, PackedGeocellUtils.MAX_RESOLUTION),
+                    GeocellUtils.compute(p, PackedGeocellUtils.MAX_RESOLUTION));
+        }
+        for(Point p : new Point[] {new Point(90, 180), new Point(-90, -180), new Point(0, 0), new Point(90, 0), new Point(0, 180)}) {
+            Assert.assertEquals(descend(p, PackedGeocellUtils.MAX_RESOLUTION),
+                    GeocellUtils.compute(p, PackedGeocellUtils.MAX_RESOLUTION));
+        }
+    }
+
+    public void testContainsPoint() {
+        for(int i = 0; i < 500; i++) {
+            Point p = ObjectToSave.randomPoint(random);
+            int resolution = random.nextInt(PackedGeocellUtils.MAX_RESOLUTION + 1);
+            String cell = GeocellUtils.compute(p, resolution);
+            Assert.assertTrue(GeocellUtils.containsPoint(cell, p));
+            Assert.assertTrue(GeocellUtils.containsPoint(cell.toUpperCase(), p));
+            String adjacent = GeocellUtils.adjacent(cell, DIRECTIONS[random.nextInt(DIRECTIONS.length)]);
+            if(adjacent != null && !adjacent.equals(cell)) {
+                Assert.assertFalse(GeocellUtils.containsPoint(adjacent, p));
+            }
+        }
+    }
+
+    public void testOrderIsTheSameAsStrings() {
+        for(int i = 0; i < 2000; i++) {
+            String a = GeocellUtils.compute(ObjectToSave.randomPoint(random), random.nextInt(PackedGeocellUtils.MAX_RESOLUTION + 1));
+            String b = GeocellUtils.compute(ObjectToSave.randomPoint(random), random.nextInt(PackedGeocellUtils.MAX_RESOLUTION + 1));
+            Assert.assertEquals(Integer.signum(a.compareTo(b)),
+                    Long.signum(Long.valueOf(PackedGeocellUtils.pack(a)).compareTo(PackedGeocellUtils.pack(b))));
+        }
+    }
+
+    public void testParentAndChild() {
+        long cell = PackedGeocellUtils.pack("78a");
+        Assert.assertEquals("78", PackedGeocellUtils.unpack(PackedGeocellUtils.parent(cell)));
+        Assert.assertEquals("7", PackedGeocellUtils.unpack(PackedGeocellUtils.parent(cell, 1)));
+        Assert.assertEquals("78af", PackedGeocellUtils.unpack(PackedGeocellUtils.child(cell, 15)));
+        Assert.assertEquals(PackedGeocellUtils.NO_CELL, PackedGeocellUtils.parent(PackedGeocellUtils.pack("")));
+    }
+
+    public void testAdjacent() {
+        for(int i = 0; i < 500; i++) {
+            Point p = ObjectToSave.randomPoint(random);
+            for(int resolution = 0; resolution <= PackedGeocellUtils.MAX_RESOLUTION; resolution++) {
+                String cell = GeocellUtils.compute(p, resolution);
+                for(int[] dir : DIRECTIONS) {
+                    String adjacent = GeocellUtils.adjacent(cell, dir);
+                    long packedAdjacent = PackedGeocellUtils.adjacent(PackedGeocellUtils.pack(cell), dir);
+                    if(adjacent == null) {
+                        Assert.assertEquals(PackedGeocellUtils.NO_CELL, packedAdjacent);
+                    } else {
+                        Assert.assertEquals(adjacent, PackedGeocellUtils.unpack(packedAdjacent));
+                    }
+                }
+            }
+        }
+        // Wrapping on the antimeridian and stopping at the poles.
+        Assert.assertEquals("0", PackedGeocellUtils.unpack(PackedGeocellUtils.adjacent(PackedGeocellUtils.pack("5"), 1, 0)));
+        Assert.assertEquals(PackedGeocellUtils.NO_CELL, PackedGeocellUtils.adjacent(PackedGeocellUtils.pack("f"), 0, 1));
+    }
+
+    public void testComputeBox() {
+        for(int i = 0; i < 500; i++) {
+            String cell = GeocellUtils.compute(ObjectToSave.randomPoint(random), random.nextInt(PackedGeocellUtils.MAX_RESOLUTION + 1));
+            BoundingBox expected = GeocellUtils.computeBox(cell);
+            BoundingBox actual = PackedGeocellUtils.computeBox(PackedGeocellUtils.pack(cell));
+            Assert.assertEquals(expected.getNorth(), actual.getNorth());
+            Assert.assertEquals(expected.getEast(), actual.getEast());
+            Assert.assertEquals(expected.getSouth(), actual.getSouth());
+            Assert.assertEquals(expected.getWest(), actual.getWest());
+        }
+    }
+
+    public void testCellBoundaryError() {
+        Assert.assertEquals(0.0, PackedGeocellUtils.cellBoundaryError(9));
+        for(int i = 0; i < 20000; i++) {
+            Point p = ObjectToSave.randomPoint(random);
+            int resolution = random.nextInt(PackedGeocellUtils.MAX_RESOLUTION + 1);
+            BoundingBox box = PackedGeocellUtils.computeBox(PackedGeocellUtils.compute(p, resolution));
+            double error = PackedGeocellUtils.cellBoundaryError(resolution);
+            Assert.assertTrue(p.getLat() <= box.getNorth() + error && p.getLat() >= box.getSouth() - error);
+            Assert.assertTrue(p.getLon() <= box.getEast() + error && p.getLon() >= box.getWest() - error);
+        }
+    }
+
+    public void testInterpolate() {
+        for(int i = 0; i < 200; i++) {
+            Point sw = ObjectToSave.randomPoint(random);
+            Point ne = new Point(Math.min(sw.getLat() + random.nextDouble() * 2, 90), sw.getLon() + random.nextDouble() * 2);
+            int resolution = 1 + random.nextInt(5);
+            String cellNE = GeocellUtils.compute(ne, resolution);
+            String cellSW = GeocellUtils.compute(sw, resolution);
+            List<String> expected = GeocellUtils.interpolate(cellNE, cellSW);
+            long[] actual = PackedGeocellUtils.interpolate(PackedGeocellUtils.pack(cellNE), PackedGeocellUtils.pack(cellSW));
+            Assert.assertEquals(expected.size(), actual.length);
+            Assert.assertEquals(actual.length, PackedGeocellUtils.interpolationCount(PackedGeocellUtils.pack(cellNE), PackedGeocellUtils.pack(cellSW)));
+            for(int j = 0; j < actual.length; j++) {
+                Assert.assertEquals(expected.get(j), PackedGeocellUtils.unpack(actual[j]));
+            }
+        }
+    }
+
+    public void testGenerateGeoCellInOneDescent() {
+        long[] packed = new long[GeocellManager.MAX_GEOCELL_RESOLUTION];
+        for(int i = 0; i < 500; i++) {
+            Point p = ObjectToSave.randomPoint(random);
+            List<String> geocells = GeocellManager.generateGeoCell(p);
+            GeocellManager.generatePackedGeoCell(p, packed);
+            Assert.assertEquals(GeocellManager.MAX_GEOCELL_RESOLUTION, geocells.size());
+            for(int resolution = 1; resolution <= GeocellManager.MAX_GEOCELL_RESOLUTION; resolution++) {
+                Assert.assertEquals(GeocellUtils.compute(p, resolution), geocells.get(resolution - 1));
+                Assert.assertEquals(geocells.get(resolution - 1), PackedGeocellUtils.unpack(packed[resolution - 1]));
+            }
+        }
+    }
+
+    public void testPackRejectsInvalidCells() {
+        try {
+            PackedGeocellUtils.pack("78g");
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            PackedGeocellUtils.pack("0123456789abcd");
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    // The original float 16-tree descent of GeocellUtils.compute.
+    private String descend(Point point, int resolution) {
+        float north = 90.0f;
+        float south = -90.0f;
+        float east = 180.0f;
+        float west = -180.0f;
+        char[] cell = new char[resolution];
+        for(int i = 0; i < resolution; i++) {
+            float subcellLonSpan = (east - west) / GeocellUtils.GEOCELL_GRID_SIZE;
+            float subcellLatSpan = (north - south) / GeocellUtils.GEOCELL_GRID_SIZE;
+
+            int x = Math.min((int)(GeocellUtils.GEOCELL_GRID_SIZE * (point.getLon() - west) / (east - west)),
+                    GeocellUtils.GEOCELL_GRID_SIZE - 1);
+            int y = Math.min((int)(GeocellUtils.GEOCELL_GRID_SIZE * (point.getLat() - south) / (north - south)),
+                    GeocellUtils.GEOCELL_GRID_SIZE - 1);
+
+            cell[i] = GeocellUtils.subdivChar(new int[] {x, y});
+
+            south += subcellLatSpan * y;
+            north = south + subcellLatSpan;
+
+            west += subcellLonSpan * x;
+            east = west + subcellLonSpan;
+        }
+        return new String(cell);
+    }
+
+}
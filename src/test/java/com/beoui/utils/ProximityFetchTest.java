@@ -0,0 +1,211 @@
+/*
+Copyright 2010 Alexandre Gellibert
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.apache.org/licenses/
+LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing permissions
+and limitations under the License.
+*/
+
+package com.beoui.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import com.beoui.geocell.ExecutorLocationCapableRepositorySearch;
+import com.beoui.geocell.GeocellLogger;
+import com.beoui.geocell.GeocellManager;
+import com.beoui.geocell.GeocellUtils;
+import com.beoui.geocell.InMemoryGeocellIndex;
+import com.beoui.geocell.LocationCapableRepositorySearch;
+import com.beoui.geocell.model.CenteredHaversineDistanceFunction;
+import com.beoui.geocell.model.HaversineDistanceFunction;
+import com.beoui.geocell.model.Point;
+import com.beoui.geocell.model.ProximityQuery;
+
+/**
+ * Runs proximity searches against an in-memory index.
+ *
+ */
+public class ProximityFetchTest extends TestCase {
+
+    private final Random random = new Random(42);
+
+    private final Logger logger = GeocellLogger.get();
+    private Level level;
+
+    private InMemoryGeocellIndex<ObjectToSave> index;
+
+    @Override
+    protected void setUp() {
+        // proximityFetch logs each iteration.
+        level = logger.getLevel();
+        logger.setLevel(Level.WARNING);
+        index = new InMemoryGeocellIndex<ObjectToSave>();
+        for(int i = 0; i < 5000; i++) {
+            // Mostly around Bordeaux, some everywhere.
+            Point p = i % 4 == 0 ? ObjectToSave.randomPoint(random) : new Point(44 + random.nextDouble() * 2, -1 + random.nextDouble() * 2);
+            ObjectToSave obj = ObjectToSave.newObject(i, p);
+            index.put(obj);
+        }
+    }
+
+    @Override
+    protected void tearDown() {
+        logger.setLevel(level);
+    }
+
+    public void testFindsTheClosestEntities() {
+        for(int i = 0; i < 100; i++) {
+            Point center = i % 2 == 0 ? ObjectToSave.randomPoint(random) : new Point(44 + random.nextDouble() * 2, -1 + random.nextDouble() * 2);
+            int maxResults = 1 + random.nextInt(100);
+            double maxDistance = i % 3 == 0 ? 50000 : 0;
+            List<ObjectToSave> expected = bruteForce(center, maxResults, maxDistance);
+            List<ObjectToSave> actual = GeocellManager.proximityFetch(center, maxResults, maxDistance, index);
+            Assert.assertEquals(keys(expected), keys(actual));
+        }
+    }
+
+    public void testCellCornerCenterSearchesFewEntities() {
+        // (45, 0) is a corner of cells of all resolutions: the 4 nearest cells all touch it.
+        for(Point center : new Point[] {new Point(45.0, 0.0), new Point(45.0, -0.5)}) {
+            final int[] fetched = {0};
+            LocationCapableRepositorySearch<ObjectToSave> countingIndex = new LocationCapableRepositorySearch<ObjectToSave>() {
+                public List<ObjectToSave> search(List<String> geocells) {
+                    List<ObjectToSave> entities = index.search(geocells);
+                    fetched[0] += entities.size();
+                    return entities;
+                }
+            };
+            Assert.assertEquals(keys(bruteForce(center, 10, 0)), keys(GeocellManager.proximityFetch(center, 10, 0, countingIndex)));
+            // The 10 closest entities are within a few cells of resolution 5, ~60 entities each.
+            Assert.assertTrue("fetched " + fetched[0], fetched[0] <= 500);
+
+            fetched[0] = 0;
+            GeocellManager.proximityIterator(center, 0, countingIndex).next();
+            Assert.assertTrue("fetched " + fetched[0], fetched[0] <= 50);
+        }
+    }
+
+    public void testStreamIsLazyAndOrdered() {
+        for(int i = 0; i < 50; i++) {
+            Point center = i % 2 == 0 ? ObjectToSave.randomPoint(random) : new Point(44 + random.nextDouble() * 2, -1 + random.nextDouble() * 2);
+            double maxDistance = i % 3 == 0 ? 50000 : 0;
+            final int[] searches = {0};
+            LocationCapableRepositorySearch<ObjectToSave> countingIndex = new LocationCapableRepositorySearch<ObjectToSave>() {
+                public List<ObjectToSave> search(List<String> geocells) {
+                    searches[0]++;
+                    return index.search(geocells);
+                }
+            };
+            List<ObjectToSave> first = GeocellManager.proximityStream(center, maxDistance, countingIndex)
+                    .limit(5).collect(Collectors.<ObjectToSave>toList());
+            int searchesForFirst = searches[0];
+            Assert.assertEquals(keys(bruteForce(center, 5, maxDistance)), keys(first));
+
+            List<ObjectToSave> more = GeocellManager.proximityStream(center, maxDistance, countingIndex)
+                    .limit(200).collect(Collectors.<ObjectToSave>toList());
+            Assert.assertEquals(keys(bruteForce(center, 200, maxDistance)), keys(more));
+            Assert.assertTrue(searchesForFirst <= searches[0] - searchesForFirst);
+        }
+    }
+
+    public void testBatchFindsTheSameEntitiesWithFewerSearches() {
+        List<ProximityQuery> queries = new ArrayList<ProximityQuery>();
+        for(int i = 0; i < 30; i++) {
+            // Stops of a route across Bordeaux, and a few far away.
+            Point center = i % 10 == 9 ? ObjectToSave.randomPoint(random) : new Point(44.5 + i * 0.03, -0.5 + i * 0.02);
+            queries.add(new ProximityQuery(center, 1 + random.nextInt(50), i % 3 == 0 ? 20000 : 0));
+        }
+        final int[] searchedCells = {0};
+        LocationCapableRepositorySearch<ObjectToSave> countingIndex = new LocationCapableRepositorySearch<ObjectToSave>() {
+            public List<ObjectToSave> search(List<String> geocells) {
+                searchedCells[0] += geocells.size();
+                return index.search(geocells);
+            }
+        };
+        List<List<ObjectToSave>> actual = GeocellManager.proximityFetch(queries, countingIndex);
+        int batchSearchedCells = searchedCells[0];
+        searchedCells[0] = 0;
+        Assert.assertEquals(queries.size(), actual.size());
+        for(int i = 0; i < queries.size(); i++) {
+            ProximityQuery query = queries.get(i);
+            List<ObjectToSave> expected = GeocellManager.proximityFetch(query.getCenter(), query.getMaxResults(), query.getMaxDistance(), countingIndex);
+            Assert.assertEquals(keys(expected), keys(actual.get(i)));
+        }
+        Assert.assertTrue(batchSearchedCells < searchedCells[0]);
+    }
+
+    public void testAsyncFindsTheSameEntities() throws Exception {
+        ExecutorService executor = ExecutorLocationCapableRepositorySearch.newVirtualThreadExecutor();
+        try {
+            ExecutorLocationCapableRepositorySearch<ObjectToSave> asyncIndex = new ExecutorLocationCapableRepositorySearch<ObjectToSave>(index, executor);
+            for(int i = 0; i < 100; i++) {
+                Point center = i % 2 == 0 ? ObjectToSave.randomPoint(random) : new Point(44 + random.nextDouble() * 2, -1 + random.nextDouble() * 2);
+                int maxResults = 1 + random.nextInt(100);
+                double maxDistance = i % 3 == 0 ? 50000 : 0;
+                List<ObjectToSave> expected = GeocellManager.proximityFetch(center, maxResults, maxDistance, index);
+                List<ObjectToSave> actual = GeocellManager.proximityFetchAsync(center, maxResults, maxDistance, asyncIndex).get();
+                Assert.assertEquals(keys(expected), keys(actual));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public void testCenteredDistanceFunction() throws Exception {
+        for(int i = 0; i < 100; i++) {
+            Point center = i % 2 == 0 ? ObjectToSave.randomPoint(random) : new Point(44 + random.nextDouble() * 2, -1 + random.nextDouble() * 2);
+            int maxResults = 1 + random.nextInt(100);
+            double maxDistance = i % 3 == 0 ? 50000 : 0;
+            List<ObjectToSave> expected = GeocellManager.proximityFetch(center, maxResults, maxDistance, index,
+                    GeocellManager.MAX_GEOCELL_RESOLUTION, new HaversineDistanceFunction());
+            List<ObjectToSave> actual = GeocellManager.proximityFetch(center, maxResults, maxDistance, index,
+                    GeocellManager.MAX_GEOCELL_RESOLUTION, new CenteredHaversineDistanceFunction(center));
+            Assert.assertEquals(keys(expected), keys(actual));
+        }
+    }
+
+    private List<ObjectToSave> bruteForce(Point center, int maxResults, double maxDistance) {
+        final Map<ObjectToSave, Double> distances = new HashMap<ObjectToSave, Double>();
+        for(ObjectToSave obj : index.search(Arrays.asList(""))) {
+            double distance = GeocellUtils.distance(center, obj.getLocation());
+            if(maxDistance == 0 || distance < maxDistance) {
+                distances.put(obj, distance);
+            }
+        }
+        List<ObjectToSave> objects = new ArrayList<ObjectToSave>(distances.keySet());
+        Collections.sort(objects, new Comparator<ObjectToSave>() {
+            public int compare(ObjectToSave o1, ObjectToSave o2) {
+                return Double.compare(distances.get(o1), distances.get(o2));
+            }
+        });
+        return objects.subList(0, Math.min(maxResults, objects.size()));
+    }
+
+    private String keys(List<ObjectToSave> objects) {
+        StringBuilder keys = new StringBuilder();
+        for(ObjectToSave obj : objects) {
+            keys.append(obj.getKeyString()).append(',');
+        }
+        return keys.toString();
+    }
+
+}
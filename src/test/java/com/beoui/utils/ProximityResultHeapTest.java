@@ -0,0 +1,64 @@
+/*
+Copyright 2010 Alexandre Gellibert
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.apache.org/licenses/
+LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing permissions
+and limitations under the License.
+*/
+
+package com.beoui.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import com.beoui.geocell.ProximityResultHeap;
+import com.beoui.geocell.comparator.LocationComparableTuple;
+
+/**
+ * Checks the bounded heap used by proximity searches.
+ *
+ */
+public class ProximityResultHeapTest extends TestCase {
+
+    private final Random random = new Random(42);
+
+    public void testKeepsClosestEntitiesOnce() {
+        List<LocationComparableTuple<ObjectToSave>> all = new ArrayList<LocationComparableTuple<ObjectToSave>>();
+        ProximityResultHeap<ObjectToSave> heap = new ProximityResultHeap<ObjectToSave>(50);
+        for(int i = 0; i < 1000; i++) {
+            ObjectToSave obj = newObject(i);
+            double distance = random.nextInt(200);
+            all.add(new LocationComparableTuple<ObjectToSave>(obj, distance));
+            heap.offer(obj, distance);
+            // Offered again, as if found in another cell.
+            Assert.assertFalse(heap.offer(obj, distance));
+        }
+        Collections.sort(all);
+        Assert.assertTrue(heap.isFull());
+        Assert.assertEquals(all.subList(0, 50), heap.toSortedList());
+        Assert.assertEquals(all.get(49).getSecond(), heap.farthestDistance());
+
+        // Rejected and evicted entities found again are still ignored.
+        for(LocationComparableTuple<ObjectToSave> tuple : all) {
+            Assert.assertFalse(heap.offer(tuple.getFirst(), tuple.getSecond()));
+        }
+        Assert.assertEquals(all.subList(0, 50), heap.toSortedList());
+    }
+
+    private ObjectToSave newObject(long id) {
+        ObjectToSave obj = new ObjectToSave();
+        obj.setId(id);
+        return obj;
+    }
+
+}
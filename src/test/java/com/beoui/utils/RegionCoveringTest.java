@@ -0,0 +1,161 @@
+package com.beoui.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import com.beoui.geocell.GeocellManager;
+import com.beoui.geocell.GeocellUtils;
+import com.beoui.geocell.InMemoryGeocellIndex;
+import com.beoui.geocell.RegionCovering;
+import com.beoui.geocell.model.BoundingBox;
+import com.beoui.geocell.model.CostFunction;
+import com.beoui.geocell.model.Corridor;
+import com.beoui.geocell.model.Point;
+import com.beoui.geocell.model.Polygon;
+import com.beoui.geocell.model.Region;
+
+/**
+ * Checks region fetches against a brute force search, and that coverings stay close to the region.
+ *
+ */
+public class RegionCoveringTest extends TestCase {
+
+    private final Random random = new Random(42);
+
+    // Up to 64 cells.
+    private final CostFunction costFunction = new CostFunction() {
+        @Override
+        public double defaultCostFunction(int numCells, int resolution) {
+            return numCells > 64 ? Double.MAX_VALUE : 0;
+        }
+    };
+
+    // Long diagonal zone, from Bordeaux to Lyon.
+    private final Polygon polygon = new Polygon(Arrays.asList(
+            new Point(44.8, -0.6), new Point(44.9, -0.5), new Point(45.8, 4.9), new Point(45.7, 4.8)));
+
+    private final Corridor corridor = new Corridor(Arrays.asList(
+            new Point(44.8, -0.6), new Point(45.2, 1.5), new Point(45.7, 4.8)), 3000);
+
+    public void testPolygonFetchMatchesBruteForce() {
+        assertFetchMatches(polygon);
+    }
+
+    public void testCorridorFetchMatchesBruteForce() {
+        assertFetchMatches(corridor);
+    }
+
+    public void testCoveringIsTighterThanBoundingBox() {
+        for(Region region : Arrays.<Region>asList(polygon, corridor)) {
+            RegionCovering covering = GeocellManager.bestRegionSearchCells(region, costFunction);
+            Assert.assertTrue(covering.size() <= 64);
+            Assert.assertTrue(covering.size() > 16);
+            List<String> bboxCells = GeocellManager.bestBboxSearchCells(region.getBoundingBox(), costFunction);
+            Assert.assertTrue(area(covering.getCells()) * 3 < area(bboxCells));
+        }
+        // Wide enough for cells inside.
+        Corridor wide = new Corridor(corridor.getPath(), 80000);
+        RegionCovering covering = GeocellManager.bestRegionSearchCells(wide, costFunction);
+        Assert.assertFalse(covering.getInsideCells().isEmpty());
+        for(String cell : covering.getInsideCells()) {
+            Assert.assertTrue(cell.length() <= covering.getResolution());
+            BoundingBox box = GeocellUtils.computeBox(cell);
+            for(int i = 0; i < 20; i++) {
+                Point p = new Point(box.getSouth() + random.nextDouble() * (box.getNorth() - box.getSouth()),
+                        box.getWest() + random.nextDouble() * (box.getEast() - box.getWest()));
+                Assert.assertTrue(wide.contains(p));
+            }
+        }
+    }
+
+    public void testBboxCoveringIsBoundedAndExact() {
+        for(int i = 0; i < 100; i++) {
+            double south = random.nextDouble() * 160 - 80;
+            double west = random.nextDouble() * 340 - 170;
+            BoundingBox bbox = new BoundingBox(south + random.nextDouble() * 5, west + random.nextDouble() * 5, south, west);
+            int maxCells = 8 + random.nextInt(100);
+            RegionCovering covering = GeocellManager.bestBboxCovering(bbox, maxCells);
+            Assert.assertTrue(covering.size() <= Math.max(maxCells, 16));
+            Assert.assertTrue(covering.getOverCoverage() >= 1);
+
+            // Never worse than the same number of cells of a single resolution.
+            List<String> bboxCells = GeocellManager.bestBboxSearchCells(bbox, new MaxCellsCostFunction(covering.size()));
+            Assert.assertTrue(covering.getArea() <= area(bboxCells) * 1.000001);
+
+            for(int j = 0; j < 200; j++) {
+                Point p = new Point(bbox.getSouth() - 1 + random.nextDouble() * (bbox.getNorth() - bbox.getSouth() + 2),
+                        bbox.getWest() - 1 + random.nextDouble() * (bbox.getEast() - bbox.getWest() + 2));
+                Assert.assertEquals(bbox.contains(p), covering.contains(p));
+            }
+        }
+    }
+
+    public void testBboxCoveringCrossesAntimeridian() {
+        BoundingBox bbox = new BoundingBox(10, -178, 5, 177);
+        RegionCovering covering = GeocellManager.bestBboxCovering(bbox, 32);
+        Assert.assertTrue(covering.size() <= 32);
+        Assert.assertTrue(covering.getOverCoverage() < 2);
+        Assert.assertTrue(covering.contains(new Point(7, 179.5)));
+        Assert.assertTrue(covering.contains(new Point(7, -179.5)));
+        Assert.assertFalse(covering.contains(new Point(7, 0)));
+    }
+
+    private void assertFetchMatches(Region region) {
+        InMemoryGeocellIndex<ObjectToSave> index = new InMemoryGeocellIndex<ObjectToSave>();
+        List<ObjectToSave> objects = new ArrayList<ObjectToSave>();
+        BoundingBox bbox = region.getBoundingBox();
+        for(int i = 0; i < 20000; i++) {
+            Point p = new Point(bbox.getSouth() - 0.5 + random.nextDouble() * (bbox.getNorth() - bbox.getSouth() + 1),
+                    bbox.getWest() - 0.5 + random.nextDouble() * (bbox.getEast() - bbox.getWest() + 1));
+            ObjectToSave obj = ObjectToSave.newObject(i, p);
+            objects.add(obj);
+            index.put(obj);
+        }
+        Set<String> expected = new HashSet<String>();
+        for(ObjectToSave obj : objects) {
+            if(region.contains(obj.getLocation())) {
+                expected.add(obj.getKeyString());
+            }
+        }
+        Assert.assertFalse(expected.isEmpty());
+        for(CostFunction function : Arrays.asList(null, costFunction)) {
+            List<ObjectToSave> found = GeocellManager.regionFetch(region, index, function);
+            Set<String> actual = new HashSet<String>();
+            for(ObjectToSave obj : found) {
+                actual.add(obj.getKeyString());
+            }
+            Assert.assertEquals(expected.size(), found.size());
+            Assert.assertEquals(expected, actual);
+        }
+    }
+
+    private static double area(List<String> cells) {
+        double area = 0;
+        for(String cell : cells) {
+            area += GeocellUtils.computeBox(cell).getArea();
+        }
+        return area;
+    }
+
+    private static final class MaxCellsCostFunction implements CostFunction {
+
+        private final int maxCells;
+
+        private MaxCellsCostFunction(int maxCells) {
+            this.maxCells = maxCells;
+        }
+
+        @Override
+        public double defaultCostFunction(int numCells, int resolution) {
+            return numCells > maxCells ? Double.MAX_VALUE : 0;
+        }
+    }
+
+}